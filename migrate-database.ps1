@@ -19,13 +19,25 @@ $migrations = @(
     @{
         Name = '用户、日志与反向关联查询索引'
         Path = Join-Path $PSScriptRoot 'src\main\resources\db\migrations\20260710_optimize_user_queries.sql'
+    },
+    @{
+        Name = '角色继承闭包回填'
+        Path = Join-Path $PSScriptRoot 'src\main\resources\db\migrations\20261017_role_inheritance_closure.sql'
+    },
+    @{
+        Name = '职责分离约束角色子表回填'
+        Path = Join-Path $PSScriptRoot 'src\main\resources\db\migrations\20261017_sod_constraint_role.sql'
+    },
+    @{
+        Name = '角色授权版本'
+        Path = Join-Path $PSScriptRoot 'src\main\resources\db\migrations\20261017_role_auth_version.sql'
     }
 )
 
 Write-Warning '请确认已完成数据库备份，并且目标是需要升级的已有 permacore_iam 数据库。'
 if (-not $PSCmdlet.ShouldProcess(
     "$HostName`:$Port/permacore_iam",
-    '按固定顺序执行 20260710 数据库迁移（个人/全局授权版本、关系约束与查询索引）'
+    '按固定顺序执行数据库迁移（个人/全局授权版本、关系约束、查询索引、角色继承闭包、职责分离约束角色子表与角色授权版本）'
 )) {
     return
 }
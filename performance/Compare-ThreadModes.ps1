@@ -0,0 +1,76 @@
+[CmdletBinding()]
+param(
+    # Run directory names (or paths) below performance/results produced by
+    # `-Action Baseline` with -ThreadMode platform and -ThreadMode vthreads.
+    [Parameter(Mandatory = $true)]
+    [string]$PlatformRun,
+
+    [Parameter(Mandatory = $true)]
+    [string]$VirtualRun,
+
+    [string]$OutputPath
+)
+
+$ErrorActionPreference = 'Stop'
+Set-StrictMode -Version 2.0
+
+$performanceRoot = Split-Path -Parent $MyInvocation.MyCommand.Path
+
+function Read-Ladder {
+    param([string]$Run, [string]$ExpectedMode)
+    $directory = if (Test-Path -LiteralPath $Run -PathType Container) { $Run } else { Join-Path $performanceRoot (Join-Path 'results' $Run) }
+    $ladderPath = Join-Path $directory 'ladder.csv'
+    if (-not (Test-Path -LiteralPath $ladderPath -PathType Leaf)) {
+        throw "ladder.csv was not found in $directory; run -Action Baseline first."
+    }
+    $environmentPath = Join-Path $directory 'environment.json'
+    if (Test-Path -LiteralPath $environmentPath -PathType Leaf) {
+        $environment = Get-Content -LiteralPath $environmentPath -Raw | ConvertFrom-Json
+        $mode = if ($environment.PSObject.Properties.Name -contains 'threadMode') { $environment.threadMode } else { 'platform' }
+        if ($mode -ne $ExpectedMode) {
+            throw "$directory was recorded with thread mode '$mode', expected '$ExpectedMode'."
+        }
+    }
+    $rows = @{}
+    foreach ($row in (Import-Csv -LiteralPath $ladderPath)) {
+        $rows[[int]$row.targetRps] = $row
+    }
+    return $rows
+}
+
+function Get-Delta {
+    param([object]$Platform, [object]$Virtual, [string]$Column)
+    $before = [double]$Platform.$Column
+    if ($before -eq 0) { return '' }
+    return '{0:+0.0;-0.0;0.0}%' -f ((([double]$Virtual.$Column) - $before) / $before * 100)
+}
+
+$platform = Read-Ladder -Run $PlatformRun -ExpectedMode 'platform'
+$virtual = Read-Ladder -Run $VirtualRun -ExpectedMode 'vthreads'
+
+# Only tiers measured in both runs are compared; a ladder that stopped early
+# simply contributes fewer rows.
+$comparison = foreach ($rate in ($platform.Keys | Where-Object { $virtual.ContainsKey($_) } | Sort-Object)) {
+    $p = $platform[$rate]
+    $v = $virtual[$rate]
+    [pscustomobject]@{
+        targetRps = $rate
+        platformActualRps = $p.actualRpsMedian
+        vthreadsActualRps = $v.actualRpsMedian
+        platformP95Ms = $p.p95MsMedian
+        vthreadsP95Ms = $v.p95MsMedian
+        p95Delta = Get-Delta -Platform $p -Virtual $v -Column 'p95MsMedian'
+        platformP99Ms = $p.p99MsMedian
+        vthreadsP99Ms = $v.p99MsMedian
+        p99Delta = Get-Delta -Platform $p -Virtual $v -Column 'p99MsMedian'
+        platformErrorRate = $p.errorRateMedian
+        vthreadsErrorRate = $v.errorRateMedian
+        platformHealthy = $p.healthy
+        vthreadsHealthy = $v.healthy
+    }
+}
+
+if ($OutputPath) {
+    $comparison | Export-Csv -LiteralPath $OutputPath -NoTypeInformation -Encoding UTF8
+}
+$comparison | Format-Table -AutoSize
@@ -8,7 +8,10 @@ param(
     [string]$Scale,
 
     [string]$ProjectName = 'permacore-perf',
-    [string]$K6Image = 'grafana/k6:2.0.0'
+    [string]$K6Image = 'grafana/k6:2.0.0',
+
+    [ValidateSet('platform', 'vthreads')]
+    [string]$ThreadMode = 'platform'
 )
 
 $ErrorActionPreference = 'Stop'
@@ -97,6 +100,7 @@ $environment = [ordered]@{
         backend = 'http://127.0.0.1:15432'
         management = 'http://127.0.0.1:15433/actuator/prometheus'
     }
+    threadMode = $ThreadMode
     resources = [ordered]@{
         backend = '4 vCPU, 2 GiB, JVM Xms/Xmx 1 GiB'
         mysql = '2 vCPU, 2 GiB, InnoDB buffer pool 1 GiB'
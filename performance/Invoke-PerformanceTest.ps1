@@ -25,6 +25,8 @@ param(
     [int]$HealthyRps = 50,
     [ValidateRange(1, 60)]
     [int]$MonitoringIntervalSeconds = 5,
+    [ValidateSet('platform', 'vthreads')]
+    [string]$ThreadMode = 'platform',
     [switch]$SkipBuild,
     [switch]$KeepEnvironment
 )
@@ -47,6 +49,7 @@ $generatorScript = Join-Path $performanceRoot 'Generate-SeedSql.ps1'
 $environmentScript = Join-Path $performanceRoot 'Export-Environment.ps1'
 $consistencyScript = Join-Path $performanceRoot 'Test-CrossNodeConsistency.ps1'
 $runId = (Get-Date).ToString('yyyyMMdd-HHmmss') + '-' + $Scale
+if ($ThreadMode -ne 'platform') { $runId += '-' + $ThreadMode }
 $runDirectory = Join-Path $performanceRoot (Join-Path 'results' $runId)
 $summaryDirectory = Join-Path $runDirectory 'summary'
 $rawDirectory = Join-Path $runDirectory 'raw'
@@ -140,6 +143,8 @@ function Start-Environment {
         throw "Performance compose file not found: $composeFile"
     }
     Invoke-Docker -Arguments @('info', '--format', '{{.ServerVersion}}') | Out-Null
+    # Read by docker-compose.perf.yml to select the backend thread-mode profile.
+    $env:PERF_THREAD_MODE = $ThreadMode
     $upArguments = @('up', '-d')
     if (-not $SkipBuild) {
         $upArguments += '--build'
@@ -347,6 +352,7 @@ function Invoke-ReadLadder {
             p95MsMedian = $p95; p99MsMedian = $p99
             errorRateMedian = $errors; checkRateMedian = $checks; droppedIterationsMedian = $dropped
             resourceHealthy = $resourceHealthy; healthy = $healthy; repeats = $Repeats
+            threadMode = $ThreadMode
         }
         if (Test-Path -LiteralPath $ladderPath) {
             $row | Export-Csv -LiteralPath $ladderPath -NoTypeInformation -Encoding UTF8 -Append
@@ -410,7 +416,7 @@ $cleanup = ($Action -ne 'Prepare' -and -not $KeepEnvironment)
 try {
     Start-Environment
     Seed-Database
-    & $environmentScript -OutputPath (Join-Path $runDirectory 'environment.json') -Scale $Scale -ProjectName $ProjectName -K6Image $K6Image | Out-Null
+    & $environmentScript -OutputPath (Join-Path $runDirectory 'environment.json') -Scale $Scale -ProjectName $ProjectName -K6Image $K6Image -ThreadMode $ThreadMode | Out-Null
     switch ($Action) {
         'Prepare' { Write-Step 'Environment is ready and intentionally left running' }
         'Smoke' {
@@ -425,6 +431,7 @@ try {
         'Auth' { Invoke-AuthMatrix }
         'Writes' {
             Invoke-K6Run -Script 'write-contention.js' -Name 'write-contention' -Environment @{ VUS = 20; DURATION = "${SampleSeconds}s" } | Out-Null
+            Invoke-K6Run -Script 'login-under-writes.js' -Name 'login-under-writes' -Environment @{ LOGIN_VUS = 10; WRITE_VUS = 20; GRAPH_VUS = 2; DURATION = "${SampleSeconds}s" } | Out-Null
             Invoke-K6Run -Script 'global-permission.js' -Name 'global-permission' -Environment @{ ITERATIONS = 10 } | Out-Null
         }
         'Consistency' { Invoke-ConsistencyTest }
@@ -436,6 +443,7 @@ try {
             Invoke-LoginMatrix
             Invoke-AuthMatrix
             Invoke-K6Run -Script 'write-contention.js' -Name 'write-contention' -Environment @{ VUS = 20; DURATION = "${SampleSeconds}s" } | Out-Null
+            Invoke-K6Run -Script 'login-under-writes.js' -Name 'login-under-writes' -Environment @{ LOGIN_VUS = 10; WRITE_VUS = 20; GRAPH_VUS = 2; DURATION = "${SampleSeconds}s" } | Out-Null
             Invoke-K6Run -Script 'global-permission.js' -Name 'global-permission' -Environment @{ ITERATIONS = 10 } | Out-Null
             Invoke-ConsistencyTest
             Invoke-K6Run -Script 'soak.js' -Name 'soak' -Environment @{ HEALTHY_RPS = $measuredHealthyRps; DURATION = "${SoakMinutes}m" } | Out-Null
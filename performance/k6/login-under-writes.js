@@ -0,0 +1,119 @@
+import http from 'k6/http';
+import { check, fail } from 'k6';
+import {
+  BASE_URL,
+  assertApiSuccess,
+  authParams,
+  buildCompactSummary,
+  intEnv,
+} from './common.js';
+import loginIteration from './login.js';
+import assignRoleIteration, { setup as writeSetup } from './write-contention.js';
+
+// login.js and write-contention.js run in the same k6 process so BCrypt logins
+// (shared graph lock) overlap user-role writes (shared) and role-permission
+// edits (exclusive graph lock). Per-scenario latency is reported separately.
+const duration = __ENV.DURATION || '2m';
+export const options = {
+  scenarios: {
+    logins: {
+      executor: 'constant-vus',
+      exec: 'login',
+      vus: intEnv('LOGIN_VUS', 10),
+      duration,
+      gracefulStop: '15s',
+    },
+    role_assignment_contention: {
+      executor: 'constant-vus',
+      exec: 'assignRole',
+      vus: intEnv('WRITE_VUS', 20),
+      duration,
+      gracefulStop: '15s',
+    },
+    graph_mutation: {
+      executor: 'constant-vus',
+      exec: 'editRolePermissions',
+      vus: intEnv('GRAPH_VUS', 2),
+      duration,
+      gracefulStop: '15s',
+    },
+  },
+  thresholds: {
+    checks: ['rate>0.99'],
+    http_req_failed: ['rate<0.01'],
+    // Sub-metric thresholds make k6 keep per-scenario trends for the summary.
+    'http_req_duration{scenario:logins}': ['p(99)<5000'],
+    'http_req_duration{scenario:role_assignment_contention}': ['p(99)<5000'],
+    'http_req_duration{scenario:graph_mutation}': ['p(99)<5000'],
+  },
+};
+
+export function setup() {
+  const data = writeSetup();
+  const params = authParams(data.accessToken, 'graph_mutation_setup');
+  const permissionsBody = assertApiSuccess(
+    http.get(`${BASE_URL}/api/permission/list`, params),
+    'graph mutation setup permissions',
+  );
+  const permissionIds = (permissionsBody.data || [])
+    .filter((item) => typeof item.permKey === 'string' && item.permKey.indexOf('perf:generated:') === 0)
+    .slice(0, 2)
+    .map((item) => item.id);
+  if (permissionIds.length < 2 || data.roleIds.length < 2) {
+    fail('graph mutation setup requires two seeded roles and permissions');
+  }
+  // The last PERF_ROLE is edited; user assignments keep using the others.
+  return Object.assign({}, data, {
+    graphRoleId: data.roleIds[data.roleIds.length - 1],
+    assignableRoleIds: data.roleIds.slice(0, -1),
+    permissionIds,
+  });
+}
+
+export function login() {
+  loginIteration();
+}
+
+export function assignRole(data) {
+  assignRoleIteration(Object.assign({}, data, { roleIds: data.assignableRoleIds }));
+}
+
+export function editRolePermissions(data) {
+  const response = http.put(
+    `${BASE_URL}/api/role/${data.graphRoleId}/permissions`,
+    JSON.stringify({ permissionIds: [data.permissionIds[(__VU + __ITER) % data.permissionIds.length]] }),
+    authParams(data.accessToken, 'graph_mutation'),
+  );
+  check(response, {
+    'graph mutation: HTTP 200': (r) => r.status === 200,
+    'graph mutation: API code 200': (r) => {
+      try { return r.json('code') === 200; } catch (_) { return false; }
+    },
+  });
+}
+
+function scenarioMetrics(data, scenario) {
+  const metric = data.metrics[`http_req_duration{scenario:${scenario}}`];
+  const values = metric && metric.values ? metric.values : {};
+  return {
+    p50Ms: values.med === undefined ? null : values.med,
+    p95Ms: values['p(95)'] === undefined ? null : values['p(95)'],
+    p99Ms: values['p(99)'] === undefined ? null : values['p(99)'],
+    maxMs: values.max === undefined ? null : values.max,
+  };
+}
+
+export function handleSummary(data) {
+  const summary = buildCompactSummary(data);
+  summary.scenarios = {
+    logins: scenarioMetrics(data, 'logins'),
+    roleAssignment: scenarioMetrics(data, 'role_assignment_contention'),
+    graphMutation: scenarioMetrics(data, 'graph_mutation'),
+  };
+  const output = {};
+  output.stdout = `\nPERF_SUMMARY ${JSON.stringify(summary)}\n`;
+  if (__ENV.SUMMARY_PATH) {
+    output[__ENV.SUMMARY_PATH] = `${JSON.stringify(summary, null, 2)}\n`;
+  }
+  return output;
+}
@@ -254,12 +254,12 @@ WHERE p.perm_key IN (
   'system:permission:query', 'system:log:query'
 );
 
--- A direct-edge chain exercises recursive role inheritance without storing a closure table.
+-- A single inheritance chain. The table stores the full closure, so every
+-- ancestor of a chain member gets a row whose depth is its distance.
 INSERT IGNORE INTO sys_role_inheritance (ancestor_id, descendant_id, depth)
-SELECT parent_role.id, child_role.id, 1
+SELECT parent_role.id, child_role.id, child_role.rn - parent_role.rn
 FROM perf_role_rank child_role
-INNER JOIN perf_role_rank_parent parent_role ON parent_role.rn = child_role.rn - 1
-WHERE child_role.rn > 1;
+INNER JOIN perf_role_rank_parent parent_role ON parent_role.rn < child_role.rn;
 
 INSERT INTO sys_login_log (
   username, ip_address, location, browser, os,
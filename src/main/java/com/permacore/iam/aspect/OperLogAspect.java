@@ -10,6 +10,7 @@ import com.permacore.iam.domain.entity.SysUserEntity;
 import com.permacore.iam.mapper.SysUserMapper;
 import com.permacore.iam.service.SysOperLogService;
 import com.permacore.iam.utils.JwtUtil;
+import io.jsonwebtoken.Claims;
 import jakarta.servlet.http.HttpServletRequest;
 import org.aspectj.lang.JoinPoint;
 import org.aspectj.lang.annotation.AfterReturning;
@@ -156,8 +157,10 @@ public class OperLogAspect {
                 String token = resolveToken(request);
                 if (token != null) {
                     try {
-                        Long userId = jwtUtil.getUserIdFromToken(token);
-                        String username = jwtUtil.getUsernameFromToken(token);
+                        Claims claims = jwtUtil.parseToken(token);
+                        Long userId = Long.parseLong(claims.getSubject());
+                        Object usernameClaim = claims.get("username");
+                        String username = usernameClaim == null ? null : usernameClaim.toString();
                         logEntity.setOperatorId(userId);
                         if (username != null) {
                             logEntity.setOperatorName(username);
@@ -4,14 +4,21 @@ import com.permacore.iam.security.handler.SecurityAccessDeniedHandler;
 import com.permacore.iam.security.handler.SecurityAuthenticationEntryPoint;
 import lombok.RequiredArgsConstructor;
 import com.permacore.iam.security.filter.JwtAuthorizationOnceFilter;
+import com.permacore.iam.security.filter.JwtFilterMetrics;
 import com.permacore.iam.utils.JwtUtil;
 import com.permacore.iam.utils.RedisCacheUtil;
-import com.permacore.iam.mapper.SysUserMapper;
-import com.permacore.iam.mapper.SysPermissionMapper;
+import com.permacore.iam.security.authz.AuthorizationStateCache;
+import com.permacore.iam.security.authz.PermissionCatalog;
+import com.permacore.iam.security.authz.PermissionMethodSecurityExpressionHandler;
+import com.permacore.iam.security.authz.RejectedTokenCache;
+import com.permacore.iam.security.authz.RoleGraph;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import org.springframework.security.access.expression.method.MethodSecurityExpressionHandler;
 import org.springframework.security.config.annotation.method.configuration.EnableMethodSecurity;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
@@ -40,8 +47,10 @@ public class SecurityConfig {
     private final SecurityAccessDeniedHandler accessDeniedHandler;
     private final JwtUtil jwtUtil;
     private final RedisCacheUtil redisCacheUtil;
-    private final SysUserMapper userMapper;
-    private final SysPermissionMapper permissionMapper;
+    private final AuthorizationStateCache authorizationStateCache;
+    private final PermissionCatalog permissionCatalog;
+    private final RejectedTokenCache rejectedTokenCache;
+    private final RoleGraph roleGraph;
     private final ObjectMapper objectMapper;
 
     @org.springframework.beans.factory.annotation.Value("${app.cors.allowed-origins:http://localhost:5173,http://127.0.0.1:5173}")
@@ -53,6 +62,9 @@ public class SecurityConfig {
     @org.springframework.beans.factory.annotation.Value("${app.security.public-metrics:false}")
     private boolean publicMetrics;
 
+    @org.springframework.beans.factory.annotation.Value("${app.security.filter-metrics:false}")
+    private boolean filterMetrics;
+
     /**
      * 密码加密器
      */
@@ -62,12 +74,23 @@ public class SecurityConfig {
         return new BCryptPasswordEncoder(10);
     }
 
+    /**
+     * 方法级权限表达式：hasAuthority/hasAnyAuthority 直接查询请求的权限位图
+     */
+    @Bean
+    static MethodSecurityExpressionHandler methodSecurityExpressionHandler() {
+        return new PermissionMethodSecurityExpressionHandler();
+    }
+
     /**
      * 注入 JwtAuthorizationOnceFilter 为 Bean
      */
     @Bean
-    public JwtAuthorizationOnceFilter jwtAuthorizationOnceFilter() {
-        return new JwtAuthorizationOnceFilter(jwtUtil, redisCacheUtil, userMapper, permissionMapper, objectMapper);
+    public JwtAuthorizationOnceFilter jwtAuthorizationOnceFilter(ObjectProvider<MeterRegistry> meterRegistry) {
+        JwtFilterMetrics metrics = filterMetrics ? JwtFilterMetrics.of(meterRegistry.getIfAvailable())
+                : JwtFilterMetrics.NOOP;
+        return new JwtAuthorizationOnceFilter(jwtUtil, redisCacheUtil, authorizationStateCache, permissionCatalog,
+                rejectedTokenCache, roleGraph, objectMapper, metrics);
     }
 
     /**
@@ -10,7 +10,9 @@ import com.permacore.iam.domain.vo.RoleSessionUpdateVO;
 import com.permacore.iam.domain.vo.SessionRoleStateVO;
 import com.permacore.iam.mapper.SysUserMapper;
 import com.permacore.iam.mapper.SysRoleMapper;
+import com.permacore.iam.security.authn.PasswordVerifier;
 import com.permacore.iam.security.handler.BusinessException;
+import com.permacore.iam.security.handler.ServiceOverloadedException;
 import com.permacore.iam.service.RoleSessionService;
 import com.permacore.iam.service.AuthorizationStateService;
 import com.permacore.iam.service.SysLoginLogService;
@@ -27,6 +29,7 @@ import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
@@ -48,6 +51,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Iterator;
+import java.util.Objects;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
@@ -66,9 +70,11 @@ public class AuthController {
     private final SysUserMapper sysUserMapper;
     private final SysLoginLogService loginLogService;
     private final PasswordEncoder passwordEncoder;
+    private final PasswordVerifier passwordVerifier;
     private final RoleSessionService roleSessionService;
     private final AuthorizationStateService authorizationStateService;
     private final SysRoleMapper roleMapper;
+    private final TransactionTemplate transactionTemplate;
     private final String dummyPasswordHash;
 
     public AuthController(JwtUtil jwtUtil,
@@ -76,23 +82,30 @@ public class AuthController {
             @Qualifier("sysUserMapper") SysUserMapper sysUserMapper,
             SysLoginLogService loginLogService,
             PasswordEncoder passwordEncoder,
+            PasswordVerifier passwordVerifier,
             RoleSessionService roleSessionService,
             AuthorizationStateService authorizationStateService,
-            SysRoleMapper roleMapper) {
+            SysRoleMapper roleMapper,
+            TransactionTemplate transactionTemplate) {
         this.jwtUtil = jwtUtil;
         this.redisCacheUtil = redisCacheUtil;
         this.sysUserMapper = sysUserMapper;
         this.loginLogService = loginLogService;
         this.passwordEncoder = passwordEncoder;
+        this.passwordVerifier = passwordVerifier;
         this.roleSessionService = roleSessionService;
         this.authorizationStateService = authorizationStateService;
         this.roleMapper = roleMapper;
+        this.transactionTemplate = transactionTemplate;
         this.dummyPasswordHash = passwordEncoder.encode(UUID.randomUUID().toString());
     }
 
+    /**
+     * 密码校验在事务与授权图锁之外完成，排队等待 BCrypt 的登录不占用数据库连接；
+     * 校验通过后再在短事务内加共享锁、重新读取用户并签发令牌。
+     */
     @Operation(summary = "用户登录", description = "使用用户名和密码登录，返回Token和默认激活角色")
     @PostMapping("/login")
-    @org.springframework.transaction.annotation.Transactional(noRollbackFor = BusinessException.class)
     public Result<Map<String, Object>> login(@RequestBody LoginVO loginVO, HttpServletRequest request) {
         if (loginVO == null || loginVO.getUsername() == null || loginVO.getUsername().isBlank()
                 || loginVO.getPassword() == null || loginVO.getPassword().isBlank()) {
@@ -108,19 +121,20 @@ public class AuthController {
         String ipAddress = getClientIp(request);
         String userAgent = request.getHeader("User-Agent");
         try {
-            roleMapper.lockAllRoleIdsShared();
             SysUserEntity user = findUserByUsername(username);
             String passwordHash = user == null ? dummyPasswordHash : user.getPassword();
-            boolean passwordMatches = passwordEncoder.matches(loginVO.getPassword(), passwordHash);
-            if (user == null || !Byte.valueOf((byte) 1).equals(user.getStatus()) || !passwordMatches) {
+            boolean passwordMatches = passwordVerifier.matches(loginVO.getPassword(), passwordHash);
+            Map<String, Object> tokenMap = user != null && Byte.valueOf((byte) 1).equals(user.getStatus())
+                    && passwordMatches ? transactionTemplate.execute(status -> issueLoginTokens(user)) : null;
+            if (tokenMap == null) {
                 recordLoginLog(username, ipAddress, userAgent, (byte) 0, "用户名或密码错误");
                 throw new BusinessException(ResultCode.UNAUTHORIZED, "用户名或密码错误");
             }
-
-            SessionRoleStateVO state = roleSessionService.buildDefaultState(user.getId());
-            Map<String, Object> tokenMap = issueTokens(user, state, null);
             recordLoginLog(username, ipAddress, userAgent, (byte) 1, "登录成功");
             return Result.success(tokenMap);
+        } catch (ServiceOverloadedException e) {
+            // 过载拒绝发生在密码校验之前，不代表登录失败，也不额外写登录日志
+            throw e;
         } catch (BusinessException e) {
             if (!Integer.valueOf(ResultCode.UNAUTHORIZED.getCode()).equals(e.getCode())) {
                 recordLoginLog(username, ipAddress, userAgent, (byte) 0, e.getMessage());
@@ -160,7 +174,7 @@ public class AuthController {
         }
 
         try {
-            roleMapper.lockAllRoleIdsShared();
+            roleMapper.lockGraphEpochShared();
             SysUserEntity user = requireActiveUser(sysUserMapper.selectAuthenticationStateById(userId));
             if (!matchesAuthVersion(refreshClaims, user)) {
                 throw new BusinessException(ResultCode.UNAUTHORIZED, "RefreshToken 已失效");
@@ -175,8 +189,8 @@ public class AuthController {
             boolean hasActiveRoleClaim = refreshClaims.containsKey("activeRoleIds");
             List<Long> activeRoleIds = roleSessionService.parseRoleIdsClaim(refreshClaims.get("activeRoleIds"));
             SessionRoleStateVO state = hasActiveRoleClaim
-                    ? roleSessionService.buildState(userId, activeRoleIds)
-                    : roleSessionService.buildDefaultState(userId);
+                    ? roleSessionService.buildState(user, activeRoleIds)
+                    : roleSessionService.buildDefaultState(user);
             return Result.success(issueTokens(user, state, refreshSessionId));
         } catch (BusinessException e) {
             throw e;
@@ -198,7 +212,7 @@ public class AuthController {
             try {
                 Claims claims = jwtUtil.parseToken(token);
                 Long userId = Long.parseLong(claims.getSubject());
-                roleMapper.lockAllRoleIds();
+                roleMapper.lockGraphEpoch();
                 SysUserEntity authorizationState = sysUserMapper.selectAuthorizationStateById(userId);
                 String currentSessionId = redisCacheUtil.getJwtVersion(userId);
                 String tokenSessionId = jwtUtil.getSessionId(claims);
@@ -227,13 +241,13 @@ public class AuthController {
         String token = requireToken(request);
         Claims claims = jwtUtil.parseToken(token);
         Long userId = Long.parseLong(claims.getSubject());
-        roleMapper.lockAllRoleIdsShared();
+        roleMapper.lockGraphEpochShared();
         SysUserEntity user = requireActiveUser(sysUserMapper.selectAuthenticationStateById(userId));
         if (!matchesAuthVersion(claims, user)) {
             throw new BusinessException(ResultCode.UNAUTHORIZED, "会话已失效，请重新登录");
         }
 
-        SessionRoleStateVO state = buildStateFromClaims(userId, claims);
+        SessionRoleStateVO state = buildStateFromClaims(user, claims);
         Map<String, Object> userInfo = new HashMap<>();
         userInfo.put("userId", userId);
         userInfo.put("username", user.getUsername());
@@ -251,12 +265,12 @@ public class AuthController {
         String token = requireToken(request);
         Claims claims = jwtUtil.parseToken(token);
         Long userId = Long.parseLong(claims.getSubject());
-        roleMapper.lockAllRoleIdsShared();
+        roleMapper.lockGraphEpochShared();
         SysUserEntity user = requireActiveUser(sysUserMapper.selectAuthenticationStateById(userId));
         if (!matchesAuthVersion(claims, user)) {
             throw new BusinessException(ResultCode.UNAUTHORIZED, "会话已失效，请重新登录");
         }
-        return Result.success(buildStateFromClaims(userId, claims));
+        return Result.success(buildStateFromClaims(user, claims));
     }
 
     @Operation(summary = "切换会话角色", description = "切换当前激活角色，并返回新的Token和权限")
@@ -267,7 +281,7 @@ public class AuthController {
         String token = requireToken(request);
         Claims currentClaims = jwtUtil.parseToken(token);
         Long userId = Long.parseLong(currentClaims.getSubject());
-        roleMapper.lockAllRoleIdsShared();
+        roleMapper.lockGraphEpochShared();
         SysUserEntity user = requireActiveUser(sysUserMapper.selectAuthenticationStateById(userId));
         if (!matchesAuthVersion(currentClaims, user)) {
             throw new BusinessException(ResultCode.UNAUTHORIZED, "会话已失效，请重新登录");
@@ -278,13 +292,16 @@ public class AuthController {
         }
 
         List<Long> requestedRoleIds = vo == null ? List.of() : vo.getActiveRoleIds();
-        SessionRoleStateVO state = roleSessionService.buildState(userId, requestedRoleIds);
+        SessionRoleStateVO state = roleSessionService.buildState(user, requestedRoleIds);
         return Result.success(issueTokens(user, state, currentSessionId));
     }
 
+    /**
+     * 旧密码校验与新密码哈希都在授权图排他锁之外完成，避免登录排在 BCrypt 队列之后；
+     * 加锁后重新读取用户，确认会话与密码未在此期间变化再写入。
+     */
     @Operation(summary = "修改密码", description = "修改当前登录用户密码")
     @PostMapping("/change-password")
-    @org.springframework.transaction.annotation.Transactional
     public Result<Void> changePassword(@RequestBody Map<String, String> params, HttpServletRequest request) {
         String token = requireToken(request);
         String oldPassword = params == null ? null : params.get("oldPassword");
@@ -308,23 +325,32 @@ public class AuthController {
 
         Claims passwordClaims = jwtUtil.parseToken(token);
         Long userId = Long.parseLong(passwordClaims.getSubject());
-        roleMapper.lockAllRoleIds();
         SysUserEntity user = requireActiveUser(sysUserMapper.selectAuthenticationStateById(userId));
         if (!matchesAuthVersion(passwordClaims, user)) {
             throw new BusinessException(ResultCode.UNAUTHORIZED, "会话已失效，请重新登录");
         }
-        if (!passwordEncoder.matches(oldPassword, user.getPassword())) {
+        if (!passwordVerifier.matches(oldPassword, user.getPassword())) {
             throw new BusinessException("旧密码错误");
         }
+        String verifiedHash = user.getPassword();
+        String newPasswordHash = passwordVerifier.encode(newPassword);
 
-        int updated = sysUserMapper.update(null, new LambdaUpdateWrapper<SysUserEntity>()
-                .eq(SysUserEntity::getId, userId)
-                .eq(SysUserEntity::getDelFlag, (byte) 0)
-                .set(SysUserEntity::getPassword, passwordEncoder.encode(newPassword)));
-        if (updated != 1) {
-            throw new BusinessException(ResultCode.ERROR, "修改密码失败");
-        }
-        authorizationStateService.invalidateUsers(List.of(userId));
+        transactionTemplate.executeWithoutResult(status -> {
+            roleMapper.lockGraphEpoch();
+            SysUserEntity current = requireActiveUser(sysUserMapper.selectAuthenticationStateById(userId));
+            if (!matchesAuthVersion(passwordClaims, current)
+                    || !Objects.equals(verifiedHash, current.getPassword())) {
+                throw new BusinessException(ResultCode.UNAUTHORIZED, "会话已失效，请重新登录");
+            }
+            int updated = sysUserMapper.update(null, new LambdaUpdateWrapper<SysUserEntity>()
+                    .eq(SysUserEntity::getId, userId)
+                    .eq(SysUserEntity::getDelFlag, (byte) 0)
+                    .set(SysUserEntity::getPassword, newPasswordHash));
+            if (updated != 1) {
+                throw new BusinessException(ResultCode.ERROR, "修改密码失败");
+            }
+            authorizationStateService.invalidateUsers(List.of(userId));
+        });
         return Result.success();
     }
 
@@ -421,7 +447,8 @@ public class AuthController {
             String expectedSessionId) {
         Map<String, Object> claims = roleSessionService.buildJwtClaims(
                 user.getId(), user.getUsername(), user.getNickname(), state);
-        claims.put("authVersion", user.getAuthVersion() == null ? 0L : user.getAuthVersion());
+        long authVersion = user.getAuthVersion() == null ? 0L : user.getAuthVersion();
+        claims.put("authVersion", authVersion);
         if (user.getGlobalAuthVersion() == null) {
             throw new IllegalStateException("全局授权版本未初始化");
         }
@@ -442,6 +469,10 @@ public class AuthController {
         if (!sessionStored) {
             throw new BusinessException(ResultCode.UNAUTHORIZED, "会话已更新，请重新登录");
         }
+        // 签发时已确认用户处于启用状态，直接写入 Hash 供过滤器单次往返校验
+        redisCacheUtil.cacheUserAuthorizationStates(List.of(new RedisCacheUtil.UserAuthorizationState(
+                user.getId(), authVersion, (byte) 1, (byte) 0)));
+        redisCacheUtil.cacheGlobalAuthVersion(user.getGlobalAuthVersion());
 
         Map<String, Object> tokenMap = new HashMap<>();
         tokenMap.put("accessToken", accessToken);
@@ -452,17 +483,32 @@ public class AuthController {
         return tokenMap;
     }
 
-    private SessionRoleStateVO buildStateFromClaims(Long userId, Claims claims) {
+    private SessionRoleStateVO buildStateFromClaims(SysUserEntity user, Claims claims) {
         boolean hasActiveRoleClaim = claims.containsKey("activeRoleIds");
         List<Long> activeRoleIds = roleSessionService.parseRoleIdsClaim(claims.get("activeRoleIds"));
         if (!hasActiveRoleClaim) {
-            return roleSessionService.buildDefaultState(userId);
+            return roleSessionService.buildDefaultState(user);
         }
         try {
-            return roleSessionService.buildState(userId, activeRoleIds);
+            return roleSessionService.buildState(user, activeRoleIds);
         } catch (BusinessException e) {
-            return roleSessionService.buildDefaultState(userId);
+            return roleSessionService.buildDefaultState(user);
+        }
+    }
+
+    /**
+     * 在登录事务内加共享锁并重新读取已通过校验的用户；用户在校验期间被禁用、删除或改密时返回 null。
+     */
+    private Map<String, Object> issueLoginTokens(SysUserEntity verified) {
+        roleMapper.lockGraphEpochShared();
+        SysUserEntity user = sysUserMapper.selectAuthenticationStateById(verified.getId());
+        if (user == null || Byte.valueOf((byte) 1).equals(user.getDelFlag())
+                || !Byte.valueOf((byte) 1).equals(user.getStatus())
+                || !Objects.equals(verified.getPassword(), user.getPassword())) {
+            return null;
         }
+        SessionRoleStateVO state = roleSessionService.buildDefaultState(user);
+        return issueTokens(user, state, null);
     }
 
     private SysUserEntity findUserByUsername(String username) {
@@ -477,6 +523,9 @@ public class AuthController {
         return user;
     }
 
+    /**
+     * 个人版本必须一致；全局版本只说明令牌基于哪一版授权数据签发，之后的角色变更是否影响本会话由角色版本摘要判断。
+     */
     private boolean matchesAuthVersion(Claims claims, SysUserEntity user) {
         Object claimValue = claims.get("authVersion");
         Object globalClaimValue = claims.get("globalAuthVersion");
@@ -486,7 +535,8 @@ public class AuthController {
         }
         long currentVersion = user.getAuthVersion() == null ? 0L : user.getAuthVersion();
         return ((Number) claimValue).longValue() == currentVersion
-                && ((Number) globalClaimValue).longValue() == user.getGlobalAuthVersion();
+                && ((Number) globalClaimValue).longValue() <= user.getGlobalAuthVersion()
+                && roleSessionService.matchesRoleVersions(claims, user.getGlobalAuthVersion());
     }
 
     private DecodedImage decodeAvatar(MultipartFile file) throws IOException {
@@ -5,6 +5,7 @@ import com.permacore.iam.annotation.OperLog;
 import com.permacore.iam.domain.entity.SysRoleEntity;
 import com.permacore.iam.domain.vo.PageVO;
 import com.permacore.iam.domain.vo.Result;
+import com.permacore.iam.domain.vo.RoleDescendantVO;
 import com.permacore.iam.domain.vo.RoleUpsertVO;
 import com.permacore.iam.domain.vo.RoleUpdateVO;
 import com.permacore.iam.service.SysRoleInheritanceService;
@@ -177,4 +178,14 @@ public class RoleController {
     public Result<List<Long>> getDescendants(@PathVariable Long roleId) {
         return Result.success(roleService.getDescendantRoleIds(roleId));
     }
+
+    /**
+     * 获取角色的后代子树（含继承深度与子树内的直接父角色）
+     */
+    @Operation(summary = "获取角色后代子树", description = "一次返回所有后代角色的继承深度及其在子树内的直接父角色")
+    @PreAuthorize("hasAuthority('system:role:query')")
+    @GetMapping("/{roleId}/descendants/tree")
+    public Result<List<RoleDescendantVO>> getDescendantTree(@PathVariable Long roleId) {
+        return Result.success(roleService.getDescendantTree(roleId));
+    }
 }
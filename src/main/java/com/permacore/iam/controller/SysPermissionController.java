@@ -99,7 +99,7 @@ public class SysPermissionController {
     @PostMapping
     @Transactional
     public Result<Void> create(@Valid @RequestBody PermissionUpsertVO vo) {
-        roleMapper.lockAllRoleIds();
+        roleMapper.lockGraphEpoch();
         validatePermissionFields(vo, true);
         Long parentId = vo.getParentId() == null ? 0L : vo.getParentId();
         validateParent(parentId, null);
@@ -111,7 +111,8 @@ public class SysPermissionController {
         if (!permissionService.save(permission)) {
             throw new BusinessException(ResultCode.ERROR, "创建权限失败");
         }
-        authorizationStateService.invalidateAllUsers();
+        // 新权限尚无角色持有，无需吊销会话，仅推进全局版本让各节点重载权限目录
+        authorizationStateService.invalidateRoles(List.of());
         log.info("创建权限: {}", permission.getPermName());
         return Result.success();
     }
@@ -124,7 +125,7 @@ public class SysPermissionController {
     @PutMapping("/{id}")
     @Transactional
     public Result<Void> update(@PathVariable Long id, @Valid @RequestBody PermissionUpsertVO vo) {
-        roleMapper.lockAllRoleIds();
+        roleMapper.lockGraphEpoch();
         SysPermissionEntity permission = permissionService.getById(id);
         if (permission == null) {
             throw new BusinessException(ResultCode.NOT_FOUND, "权限不存在");
@@ -137,7 +138,7 @@ public class SysPermissionController {
         if (!permissionService.updateById(permission)) {
             throw new BusinessException(ResultCode.ERROR, "更新权限失败");
         }
-        authorizationStateService.invalidateAllUsers();
+        authorizationStateService.invalidateRoles(rolePermissionMapper.selectRoleIdsByPermissionIds(Set.of(id)));
         log.info("更新权限: permId={}", id);
         return Result.success();
     }
@@ -150,14 +151,16 @@ public class SysPermissionController {
     @DeleteMapping("/{id}")
     @Transactional
     public Result<Void> delete(@PathVariable Long id) {
-        roleMapper.lockAllRoleIds();
+        roleMapper.lockGraphEpoch();
         Set<Long> permissionIds = collectPermissionTreeIds(id);
         if (permissionIds.isEmpty()) {
             throw new BusinessException(ResultCode.NOT_FOUND, "权限不存在");
         }
+        // 持有关系随删除一并清除，需先查出受影响的角色
+        Set<Long> affectedRoleIds = rolePermissionMapper.selectRoleIdsByPermissionIds(permissionIds);
         rolePermissionMapper.deleteByPermissionIds(permissionIds);
         permissionService.removeByIds(permissionIds);
-        authorizationStateService.invalidateAllUsers();
+        authorizationStateService.invalidateRoles(affectedRoleIds);
         log.info("删除权限: permId={}", id);
         return Result.success();
     }
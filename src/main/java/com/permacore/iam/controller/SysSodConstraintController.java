@@ -2,11 +2,16 @@ package com.permacore.iam.controller;
 
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.permacore.iam.domain.entity.SysSodConstraintEntity;
 import com.permacore.iam.domain.vo.PageVO;
 import com.permacore.iam.domain.vo.Result;
+import com.permacore.iam.domain.vo.SodAuditJobVO;
+import com.permacore.iam.domain.vo.SodAuditPageVO;
 import com.permacore.iam.domain.vo.SodConstraintVO;
+import com.permacore.iam.service.SodAuditService;
 import com.permacore.iam.service.SysSodConstraintService;
+import com.permacore.iam.service.impl.SodAuditJob;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import lombok.RequiredArgsConstructor;
@@ -16,7 +21,11 @@ import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.util.List;
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.Valid;
 
 /**
@@ -37,6 +46,9 @@ public class SysSodConstraintController {
     private static final Logger log = LoggerFactory.getLogger(SysSodConstraintController.class);
     
     private final SysSodConstraintService sodConstraintService;
+    private final SodAuditService sodAuditService;
+    private final SodAuditJob sodAuditJob;
+    private final ObjectMapper objectMapper;
 
     /**
      * 获取所有 SoD 约束列表
@@ -126,4 +138,62 @@ public class SysSodConstraintController {
         log.info("删除SoD约束: id={}", id);
         return Result.success();
     }
+
+    /**
+     * 分页审计 SSD 合规性
+     */
+    @Operation(summary = "SSD合规审计(分页)",
+            description = "按持有角色的用户 keyset 分页复核静态互斥约束；nextAfterUserId 为空表示已到末尾")
+    @PreAuthorize("hasAuthority('system:sod:query')")
+    @GetMapping("/audit")
+    public Result<SodAuditPageVO> audit(
+            @RequestParam(name = "afterUserId", required = false) Long afterUserId,
+            @RequestParam(name = "limit", required = false) Integer limit) {
+        return Result.success(sodAuditService.auditPage(afterUserId, limit));
+    }
+
+    /**
+     * 以 NDJSON 流式输出全部 SSD 违规
+     */
+    @Operation(summary = "SSD合规审计(NDJSON)",
+            description = "流式输出全部违规，每行一条；最后一行为汇总（usersScanned、violationCount、globalAuthVersion）")
+    @PreAuthorize("hasAuthority('system:sod:query')")
+    @GetMapping(value = "/audit/stream", produces = "application/x-ndjson")
+    public void auditStream(HttpServletResponse response) throws IOException {
+        response.setContentType("application/x-ndjson");
+        response.setCharacterEncoding("UTF-8");
+        OutputStream out = response.getOutputStream();
+        SodAuditService.Summary summary = sodAuditService.audit(0L, null, violation -> writeLine(out, violation));
+        writeLine(out, summary);
+        out.flush();
+    }
+
+    /**
+     * 启动后台 SSD 合规审计任务
+     */
+    @Operation(summary = "启动SSD合规审计任务", description = "后台全量审计，返回任务进度；同一节点同时只运行一个任务")
+    @PreAuthorize("hasAuthority('sod:edit')")
+    @PostMapping("/audit/jobs")
+    public Result<SodAuditJobVO> startAuditJob() {
+        return Result.success(sodAuditJob.start());
+    }
+
+    /**
+     * 查询最近一次 SSD 合规审计任务
+     */
+    @Operation(summary = "查询SSD合规审计任务", description = "返回最近一次任务的状态、按约束汇总的违规数与样例")
+    @PreAuthorize("hasAuthority('system:sod:query')")
+    @GetMapping("/audit/jobs/latest")
+    public Result<SodAuditJobVO> latestAuditJob() {
+        return Result.success(sodAuditJob.latest());
+    }
+
+    private void writeLine(OutputStream out, Object value) {
+        try {
+            out.write(objectMapper.writeValueAsBytes(value));
+            out.write('\n');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
 }
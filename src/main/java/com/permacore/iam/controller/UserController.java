@@ -174,7 +174,7 @@ public class UserController {
     @PutMapping("/{id}")
     @org.springframework.transaction.annotation.Transactional
     public Result<Void> update(@PathVariable Long id, @Valid @RequestBody UserUpdateVO vo) {
-        roleMapper.lockAllRoleIds();
+        roleMapper.lockGraphEpoch();
         if (id == null) {
             throw new BusinessException("ID不能为空");
         }
@@ -301,7 +301,7 @@ public class UserController {
     @PostMapping("/{id}/reset-password")
     @org.springframework.transaction.annotation.Transactional
     public Result<Void> resetPassword(@PathVariable Long id, @Valid @RequestBody ResetPasswordVO vo) {
-        roleMapper.lockAllRoleIds();
+        roleMapper.lockGraphEpoch();
         SysUserEntity user = userService.getById(id);
         if (user == null) {
             throw new BusinessException(ResultCode.NOT_FOUND, "用户不存在");
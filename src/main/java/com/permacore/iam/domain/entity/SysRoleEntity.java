@@ -5,6 +5,7 @@ import com.baomidou.mybatisplus.annotation.TableField;
 import com.baomidou.mybatisplus.annotation.TableId;
 import com.baomidou.mybatisplus.annotation.TableLogic;
 import com.baomidou.mybatisplus.annotation.TableName;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import java.io.Serializable;
 import java.time.LocalDateTime;
 import io.swagger.v3.oas.annotations.media.Schema;
@@ -51,6 +52,11 @@ public class SysRoleEntity implements Serializable {
     @TableField("status")
     private Byte status;
 
+    @Schema(description = "角色授权版本，影响使用该角色的会话时递增")
+    @TableField("auth_version")
+    @JsonIgnore
+    private Long authVersion;
+
     @Schema(description = "创建人")
     @TableField("create_by")
     private Long createBy;
@@ -0,0 +1,16 @@
+package com.permacore.iam.domain.vo;
+
+import java.util.List;
+
+import lombok.Data;
+
+/**
+ * 角色后代VO：depth 为到根角色的最短继承距离，parentIds 只保留同一子树内（含根角色）的直接父角色，
+ * 前端可据此一次性渲染整棵子树。
+ */
+@Data
+public class RoleDescendantVO {
+    private Long roleId;
+    private Integer depth;
+    private List<Long> parentIds;
+}
@@ -3,6 +3,7 @@ package com.permacore.iam.domain.vo;
 import java.util.ArrayList;
 import java.util.List;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.Data;
 
 @Data
@@ -12,4 +13,7 @@ public class SessionRoleStateVO {
     private List<Long> effectiveRoleIds = new ArrayList<>();
     private List<String> permissions = new ArrayList<>();
     private List<DsdConflictVO> dsdConflicts = new ArrayList<>();
+    /** 有效角色的授权版本摘要，与状态取自同一角色图快照，只写入令牌 */
+    @JsonIgnore
+    private long roleVersionDigest;
 }
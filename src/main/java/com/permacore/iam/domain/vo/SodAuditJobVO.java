@@ -0,0 +1,28 @@
+package com.permacore.iam.domain.vo;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import lombok.Data;
+
+/**
+ * 后台 SSD 审计任务的进度与汇总；只保留前若干条违规样例，完整明细通过分页或 NDJSON 接口读取。
+ */
+@Data
+public class SodAuditJobVO {
+    private String jobId;
+    /** RUNNING / SUCCEEDED / FAILED */
+    private String status;
+    private LocalDateTime startTime;
+    private LocalDateTime finishTime;
+    private long usersScanned;
+    private long violationCount;
+    private Long globalAuthVersion;
+    /** 约束 id → 违规用户数 */
+    private Map<Long, Long> violationsByConstraint = new LinkedHashMap<>();
+    private List<SodViolationVO> sampleViolations = new ArrayList<>();
+    private String errorMessage;
+}
@@ -0,0 +1,17 @@
+package com.permacore.iam.domain.vo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.Data;
+
+/**
+ * SSD 审计的一页结果：按持有角色的用户分页，nextAfterUserId 为空表示已审计到末尾。
+ */
+@Data
+public class SodAuditPageVO {
+    private List<SodViolationVO> violations = new ArrayList<>();
+    private Long nextAfterUserId;
+    private long usersScanned;
+    private long globalAuthVersion;
+}
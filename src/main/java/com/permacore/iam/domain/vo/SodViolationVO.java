@@ -0,0 +1,16 @@
+package com.permacore.iam.domain.vo;
+
+import java.util.List;
+
+import lombok.Data;
+
+/**
+ * SSD 审计发现的一条违规：roleIds 为用户潜在有效角色（含继承）中命中该约束的互斥角色。
+ */
+@Data
+public class SodViolationVO {
+    private Long userId;
+    private Long constraintId;
+    private String constraintName;
+    private List<Long> roleIds;
+}
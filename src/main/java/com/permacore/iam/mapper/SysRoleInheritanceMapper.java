@@ -5,6 +5,8 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -20,7 +22,26 @@ public interface SysRoleInheritanceMapper extends BaseMapper<SysRoleInheritanceE
 
     Set<Long> selectAncestorIdsByDescendantId(@Param("descendantId") Long descendantId);
 
-    Set<Long> selectAncestorIdsByDescendantIds(@Param("descendantIds") Set<Long> descendantIds);
+    /** 全部直接继承边（depth = 1），用于构建内存角色继承图。 */
+    List<SysRoleInheritanceEntity> selectDirectEdges();
 
-    Set<Long> selectAllAncestorIdsByDescendantIds(@Param("descendantIds") Set<Long> descendantIds);
+    /** 闭包表中的全部后代，走 uk_ancestor_descendant 的单次范围扫描。 */
+    Set<Long> selectDescendantIds(@Param("ancestorId") Long ancestorId);
+
+    /** 候选角色中已是 ancestorId 后代的那些；非空即表示把它们设为 ancestorId 的父角色会成环。 */
+    Set<Long> selectDescendantIdsAmong(@Param("ancestorId") Long ancestorId,
+                                       @Param("candidateIds") Collection<Long> candidateIds);
+
+    /** 给定后代的全部闭包行（含直接边），走 idx_role_inheritance_desc_anc。 */
+    List<SysRoleInheritanceEntity> selectClosureByDescendantIds(@Param("descendantIds") Collection<Long> descendantIds);
+
+    /** 给定祖先的全部闭包行，走 uk_ancestor_descendant。 */
+    List<SysRoleInheritanceEntity> selectClosureByAncestorIds(@Param("ancestorIds") Collection<Long> ancestorIds);
+
+    List<SysRoleInheritanceEntity> selectDirectEdgesByDescendantIds(@Param("descendantIds") Collection<Long> descendantIds);
+
+    /** 删除给定后代的间接闭包行（depth > 1），直接继承边保留。 */
+    int deleteIndirectByDescendantIds(@Param("descendantIds") Collection<Long> descendantIds);
+
+    int insertBatch(@Param("records") List<SysRoleInheritanceEntity> records);
 }
@@ -3,6 +3,7 @@ package com.permacore.iam.mapper;
 import com.permacore.iam.domain.entity.SysRoleEntity;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
 
 import java.util.List;
 
@@ -17,9 +18,20 @@ import java.util.List;
 @Mapper
 public interface SysRoleMapper extends BaseMapper<SysRoleEntity> {
 
-    /** Serialize authorization graph mutations within the current transaction. */
-    List<Long> lockAllRoleIds();
+    /**
+     * Serialize authorization graph mutations within the current transaction. The lock is the single
+     * sys_authorization_state row, so its cost does not grow with the number of roles.
+     *
+     * @return the global authorization version read under the lock
+     */
+    Long lockGraphEpoch();
 
-    /** Keep token issuance concurrent while excluding authorization graph mutations. */
-    List<Long> lockAllRoleIdsShared();
+    /** Keep token issuance concurrent while excluding authorization graph mutations; one row, any role count. */
+    Long lockGraphEpochShared();
+
+    /** All roles including logically deleted ones, with only the columns the role graph needs. */
+    List<SysRoleEntity> selectGraphNodes();
+
+    /** Revoke the sessions whose effective roles include any of these roles. */
+    int incrementAuthVersions(@Param("roleIds") List<Long> roleIds);
 }
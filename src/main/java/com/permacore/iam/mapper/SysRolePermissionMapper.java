@@ -21,6 +21,8 @@ public interface SysRolePermissionMapper extends BaseMapper<SysRolePermissionEnt
 
     Set<Long> selectPermissionIdsByRoleIds(@Param("roleIds") Set<Long> roleIds);
 
+    Set<Long> selectRoleIdsByPermissionIds(@Param("permissionIds") Set<Long> permissionIds);
+
     void deleteByRoleId(@Param("roleId") Long roleId);
 
     void deleteByPermissionIds(@Param("permissionIds") Set<Long> permissionIds);
@@ -0,0 +1,24 @@
+package com.permacore.iam.mapper;
+
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 职责分离约束角色子表，role_set 的规范化副本。
+ * <p>
+ * 约束定义仍以 role_set 为准，子表由 {@link com.permacore.iam.service.SysSodConstraintService} 在同一事务内同步，
+ * 供数据库按角色反查引用它的约束，不必把全部约束读入 JVM 解析。
+ */
+@Mapper
+public interface SysSodConstraintRoleMapper {
+
+    int insertBatch(@Param("constraintId") Long constraintId, @Param("roleIds") Collection<Long> roleIds);
+
+    int deleteByConstraintId(@Param("constraintId") Long constraintId);
+
+    /** 引用该角色的约束名称，按约束 id 升序，走 idx_sod_constraint_role_role。 */
+    List<String> selectConstraintNamesByRoleId(@Param("roleId") Long roleId);
+}
@@ -23,6 +23,12 @@ public interface SysUserMapper extends BaseMapper<SysUserEntity> {
 
     SysUserEntity selectAuthorizationStateById(@Param("userId") Long userId);
 
+    SysUserEntity selectUserAuthorizationStateById(@Param("userId") Long userId);
+
+    Long selectGlobalAuthVersion();
+
+    List<SysUserEntity> selectAuthorizationStatesByIds(@Param("userIds") Collection<Long> userIds);
+
     SysUserEntity selectAuthenticationStateById(@Param("userId") Long userId);
 
     SysUserEntity selectAuthenticationStateByUsername(@Param("username") String username);
@@ -4,7 +4,9 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.permacore.iam.domain.entity.SysUserRoleEntity;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.cursor.Cursor;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Set;
 
@@ -26,4 +28,21 @@ public interface SysUserRoleMapper extends BaseMapper<SysUserRoleEntity> {
     void deleteByRoleId(@Param("roleId") Long roleId);
 
     Set<Long> selectUserIdsByRoleIds(@Param("roleIds") Set<Long> roleIds);
+
+    /** 潜在有效角色中同时含有 roleIds 里至少两个角色的任一未删除用户，没有时返回 null。 */
+    Long selectFirstUserHoldingAtLeastTwo(@Param("roleIds") Collection<Long> roleIds);
+
+    /**
+     * 流式读取直接持有 holderRoleIds 中任一角色的未删除用户的角色行，只返回 roleIds 内的角色，按 user_id 排序。
+     * 游标打开期间同一连接不能执行其他语句，调用方须在遍历前备好所需数据。
+     */
+    Cursor<SysUserRoleEntity> streamActiveUserRolesOfHolders(@Param("holderRoleIds") Collection<Long> holderRoleIds,
+                                                             @Param("roleIds") Collection<Long> roleIds);
+
+    /**
+     * 流式读取 user_id 大于 afterUserId 的未删除用户的全部直接角色行，按 (user_id, role_id) 排序。
+     * userLimit 不为空时只返回持有角色的前 userLimit 个用户，用于分页审计。
+     */
+    Cursor<SysUserRoleEntity> streamUserRolesAfter(@Param("afterUserId") long afterUserId,
+                                                   @Param("userLimit") Integer userLimit);
 }
@@ -0,0 +1,136 @@
+package com.permacore.iam.security.authn;
+
+import com.permacore.iam.security.handler.ServiceOverloadedException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 在专用线程池中执行 BCrypt 校验与新密码哈希，登录风暴最多占满这几个线程，不再拖住处理其他接口的 Tomcat 线程。
+ * <p>
+ * 线程数默认等于可用处理器数，排队数有上限；队列已满时立即拒绝，由调用方返回 503 与 Retry-After，
+ * 而不是在请求线程上排队直到超时。调用方须在开启事务之前校验，排队中的请求不占用数据库连接。
+ * 校验通过的请求随后各需一个连接签发令牌，因此线程数与排队数之和不超过连接池大小：
+ * 队列上限未配置时取连接池剩余的连接数，配置过大时收紧到该值。
+ */
+@Slf4j
+@Component
+public class PasswordVerifier {
+
+    static final String QUEUE_GAUGE = "iam.auth.password.queue";
+    static final String ACTIVE_GAUGE = "iam.auth.password.active";
+    static final String WAIT_TIMER = "iam.auth.password.wait";
+    static final String REJECTION_COUNTER = "iam.auth.password.rejections";
+
+    private final PasswordEncoder passwordEncoder;
+    private final ThreadPoolExecutor executor;
+    private final long retryAfterSeconds;
+    private final Timer waitTimer;
+    private final Counter rejections;
+
+    public PasswordVerifier(PasswordEncoder passwordEncoder,
+            ObjectProvider<MeterRegistry> meterRegistry,
+            @Value("${app.security.password-verification.threads:0}") int threads,
+            @Value("${app.security.password-verification.queue-capacity:0}") int queueCapacity,
+            @Value("${app.security.password-verification.retry-after-seconds:1}") long retryAfterSeconds,
+            @Value("${spring.datasource.hikari.maximum-pool-size:10}") int connectionPoolSize) {
+        this.passwordEncoder = passwordEncoder;
+        this.retryAfterSeconds = Math.max(1L, retryAfterSeconds);
+        int maxAdmitted = Math.max(2, connectionPoolSize);
+        int requestedThreads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        int poolSize = Math.min(requestedThreads, maxAdmitted - 1);
+        int queueLimit = maxAdmitted - poolSize;
+        if (queueCapacity > queueLimit) {
+            log.warn("密码校验队列上限 {} 与 {} 个校验线程之和超过连接池大小 {}，收紧为 {}",
+                    queueCapacity, poolSize, connectionPoolSize, queueLimit);
+        }
+        int capacity = queueCapacity > 0 ? Math.min(queueCapacity, queueLimit) : queueLimit;
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(capacity),
+                Thread.ofPlatform().name("password-verifier-", 0).daemon().factory(),
+                new ThreadPoolExecutor.AbortPolicy());
+        MeterRegistry registry = meterRegistry.getIfAvailable();
+        if (registry == null) {
+            this.waitTimer = null;
+            this.rejections = null;
+            return;
+        }
+        Gauge.builder(QUEUE_GAUGE, executor, pool -> pool.getQueue().size())
+                .description("等待 BCrypt 计算的密码请求数")
+                .register(registry);
+        Gauge.builder(ACTIVE_GAUGE, executor, ThreadPoolExecutor::getActiveCount)
+                .description("正在执行 BCrypt 计算的线程数")
+                .register(registry);
+        this.waitTimer = Timer.builder(WAIT_TIMER)
+                .description("密码请求从提交到开始 BCrypt 计算的排队时间")
+                .register(registry);
+        this.rejections = Counter.builder(REJECTION_COUNTER)
+                .description("校验队列已满而被拒绝的密码请求数")
+                .register(registry);
+    }
+
+    /**
+     * 在校验线程池中比较密码并等待结果。队列已满时抛出 {@link ServiceOverloadedException}；
+     * 等待被中断时抛出 IllegalStateException，由调用方按服务不可用处理。
+     */
+    public boolean matches(CharSequence rawPassword, String encodedPassword) {
+        return execute(() -> passwordEncoder.matches(rawPassword, encodedPassword));
+    }
+
+    /**
+     * 在同一线程池中计算新密码的哈希，与校验共用线程数、排队上限和过载拒绝，修改密码不会绕过限流占用请求线程。
+     */
+    public String encode(CharSequence rawPassword) {
+        return execute(() -> passwordEncoder.encode(rawPassword));
+    }
+
+    private <T> T execute(Callable<T> task) {
+        long submittedAt = System.nanoTime();
+        Future<T> result;
+        try {
+            result = executor.submit(() -> {
+                if (waitTimer != null) {
+                    waitTimer.record(System.nanoTime() - submittedAt, TimeUnit.NANOSECONDS);
+                }
+                return task.call();
+            });
+        } catch (RejectedExecutionException e) {
+            if (rejections != null) {
+                rejections.increment();
+            }
+            throw new ServiceOverloadedException("密码校验请求过多，请稍后重试", retryAfterSeconds);
+        }
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            result.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("密码校验被中断", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException("密码校验失败", e.getCause());
+        }
+    }
+
+    @PreDestroy
+    void stop() {
+        executor.shutdownNow();
+    }
+}
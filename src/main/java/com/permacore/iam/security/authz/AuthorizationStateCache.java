@@ -0,0 +1,279 @@
+package com.permacore.iam.security.authz;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.permacore.iam.domain.entity.SysUserEntity;
+import com.permacore.iam.mapper.SysUserMapper;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.lang.NonNull;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 节点本地的授权状态缓存，替代过滤器中每个请求一次的 sys_user/sys_authorization_state 联表查询。
+ * <p>
+ * 用户条目缓存 (status, delFlag, authVersion)，只在 TTL 内有效；全局版本由
+ * {@link GlobalAuthVersionWatcher} 常驻内存，用户回源不再联表读取 sys_authorization_state。
+ * {@link com.permacore.iam.service.AuthorizationStateService} 提交后驱逐本地条目或推进全局版本，
+ * 启用 Redis 时再通过 pub/sub 通知其他节点。启用 Redis 但订阅未就绪时无法确认新鲜度，直接回源数据库。
+ */
+@Slf4j
+@Component
+public class AuthorizationStateCache implements MessageListener {
+
+    public static final String INVALIDATION_CHANNEL = "auth:state:invalidate";
+    private static final String GLOBAL_MESSAGE = "g";
+    private static final String GLOBAL_MESSAGE_PREFIX = "g:";
+    private static final String USERS_MESSAGE_PREFIX = "u:";
+    private static final int USERS_PER_MESSAGE = 500;
+
+    private final SysUserMapper userMapper;
+    private final GlobalAuthVersionWatcher globalVersionWatcher;
+    private final ObjectProvider<StringRedisTemplate> redisTemplateProvider;
+    private final ObjectProvider<RedisMessageListenerContainer> listenerContainerProvider;
+    private final boolean redisEnabled;
+    private final long ttlMillis;
+    private final Cache<Long, UserState> userStates;
+    /** 每次失效递增；加载前后比较，防止并发加载把失效前读到的旧值写回缓存。 */
+    private final AtomicLong invalidationEpoch = new AtomicLong();
+    private final AtomicBoolean subscriptionLost = new AtomicBoolean(false);
+
+    public AuthorizationStateCache(SysUserMapper userMapper, GlobalAuthVersionWatcher globalVersionWatcher,
+            ObjectProvider<StringRedisTemplate> redisTemplateProvider,
+            ObjectProvider<RedisMessageListenerContainer> listenerContainerProvider,
+            @Value("${app.redis.enabled:false}") boolean redisEnabled,
+            @Value("${app.security.auth-state-cache.ttl-ms:5000}") long ttlMillis,
+            @Value("${app.security.auth-state-cache.max-size:100000}") long maxSize) {
+        this.userMapper = userMapper;
+        this.globalVersionWatcher = globalVersionWatcher;
+        this.redisTemplateProvider = redisTemplateProvider;
+        this.listenerContainerProvider = listenerContainerProvider;
+        this.redisEnabled = redisEnabled;
+        this.ttlMillis = ttlMillis;
+        this.userStates = Caffeine.newBuilder()
+                .maximumSize(Math.max(1L, maxSize))
+                .expireAfterWrite(Duration.ofMillis(Math.max(1L, ttlMillis)))
+                .build();
+    }
+
+    @PostConstruct
+    void subscribe() {
+        if (!redisEnabled || ttlMillis <= 0) {
+            return;
+        }
+        RedisMessageListenerContainer container = listenerContainerProvider.getIfAvailable();
+        if (container == null) {
+            log.warn("未配置 Redis 订阅容器，授权状态缓存将始终回源数据库");
+            return;
+        }
+        container.addMessageListener(this, new ChannelTopic(INVALIDATION_CHANNEL));
+    }
+
+    /**
+     * 返回当前授权状态；用户不存在时返回 null。数据库异常原样抛出，由调用方按不可用处理。
+     */
+    public AuthorizationState get(Long userId) {
+        return get(userId, null, null);
+    }
+
+    /**
+     * 同 {@link #get(Long)}，但令牌的个人版本比缓存条目新时，说明本节点的失效通知延迟或丢失，
+     * 丢弃条目并回源一次再返回，不让落后的缓存拒绝刚签发的令牌。令牌的全局版本比节点内存中的新时
+     * 同理，立即回源确认一次全局版本（单行读取），不等待下一次轮询。
+     */
+    public AuthorizationState get(Long userId, Long tokenAuthVersion, Long tokenGlobalAuthVersion) {
+        if (!canTrustCache()) {
+            return loadUncached(userId);
+        }
+        UserState user = userStates.getIfPresent(userId);
+        if (user != null && tokenAuthVersion != null
+                && (user.authVersion() == null || tokenAuthVersion > user.authVersion())) {
+            userStates.invalidate(userId);
+            user = null;
+        }
+        if (user == null) {
+            user = loadUser(userId);
+            if (user == null) {
+                return null;
+            }
+        }
+        long globalAuthVersion = globalVersionWatcher.current();
+        if (tokenGlobalAuthVersion != null && tokenGlobalAuthVersion > globalAuthVersion) {
+            globalAuthVersion = globalVersionWatcher.refresh();
+        }
+        return new AuthorizationState(user.status(), user.delFlag(), user.authVersion(), globalAuthVersion);
+    }
+
+    /** 当前全局授权版本，与 {@link #get(Long)} 共享同一份失效规则。 */
+    public long currentGlobalAuthVersion() {
+        return canTrustCache() ? globalVersionWatcher.current() : globalVersionWatcher.refresh();
+    }
+
+    /** 无论缓存是否可信都回源确认一次，供写事务内需要看到其他节点最新提交的校验使用。 */
+    public long confirmedGlobalAuthVersion() {
+        return globalVersionWatcher.refresh();
+    }
+
+    /** 本地驱逐并通知其他节点。只应在数据库事务提交后调用。 */
+    public void evictUsers(Collection<Long> userIds) {
+        List<Long> ids = userIds == null ? List.of()
+                : userIds.stream().filter(Objects::nonNull).distinct().toList();
+        if (ids.isEmpty()) {
+            return;
+        }
+        evictUsersLocally(ids);
+        for (int start = 0; start < ids.size(); start += USERS_PER_MESSAGE) {
+            List<Long> batch = ids.subList(start, Math.min(start + USERS_PER_MESSAGE, ids.size()));
+            StringBuilder message = new StringBuilder(USERS_MESSAGE_PREFIX);
+            for (int i = 0; i < batch.size(); i++) {
+                if (i > 0) {
+                    message.append(',');
+                }
+                message.append(batch.get(i));
+            }
+            publish(message.toString());
+        }
+    }
+
+    /**
+     * 全局版本递增并提交后调用，携带提交后的版本号，其他节点收到后直接推进而无需回源。
+     * 用户条目不受影响，因为令牌同时校验两个版本。
+     */
+    public void publishGlobal(long committedVersion) {
+        globalVersionWatcher.advance(committedVersion);
+        publish(GLOBAL_MESSAGE_PREFIX + committedVersion);
+    }
+
+    @Override
+    public void onMessage(@NonNull Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        if (body.startsWith(GLOBAL_MESSAGE_PREFIX)) {
+            try {
+                globalVersionWatcher.advance(Long.parseLong(body.substring(GLOBAL_MESSAGE_PREFIX.length())));
+            } catch (NumberFormatException ex) {
+                log.warn("全局授权版本通知格式错误，下次读取回源: {}", body);
+                globalVersionWatcher.invalidate();
+            }
+            return;
+        }
+        if (GLOBAL_MESSAGE.equals(body)) {
+            // 滚动升级期间旧节点发送的无版本通知
+            globalVersionWatcher.invalidate();
+            return;
+        }
+        if (!body.startsWith(USERS_MESSAGE_PREFIX)) {
+            log.warn("忽略无法识别的授权失效消息: {}", body);
+            return;
+        }
+        List<Long> ids = new ArrayList<>();
+        try {
+            for (String id : body.substring(USERS_MESSAGE_PREFIX.length()).split(",")) {
+                if (!id.isBlank()) {
+                    ids.add(Long.parseLong(id.trim()));
+                }
+            }
+        } catch (NumberFormatException ex) {
+            // 无法确定受影响用户时宁可全部回源
+            log.warn("授权失效消息格式错误，清空本地用户缓存: {}", body);
+            invalidationEpoch.incrementAndGet();
+            userStates.invalidateAll();
+            return;
+        }
+        evictUsersLocally(ids);
+    }
+
+    /** 无法确认缓存新鲜度时仍用一次联表查询读取两个版本，并顺带确认全局版本。 */
+    private AuthorizationState loadUncached(Long userId) {
+        long readStartedAt = System.currentTimeMillis();
+        SysUserEntity row = userMapper.selectAuthorizationStateById(userId);
+        if (row == null) {
+            return null;
+        }
+        if (row.getGlobalAuthVersion() != null) {
+            globalVersionWatcher.confirm(row.getGlobalAuthVersion(), readStartedAt);
+        }
+        return new AuthorizationState(row.getStatus(), row.getDelFlag(),
+                row.getAuthVersion(), row.getGlobalAuthVersion());
+    }
+
+    private UserState loadUser(Long userId) {
+        long epoch = invalidationEpoch.get();
+        SysUserEntity row = userMapper.selectUserAuthorizationStateById(userId);
+        if (row == null) {
+            return null;
+        }
+        UserState user = new UserState(row.getStatus(), row.getDelFlag(), row.getAuthVersion());
+        userStates.put(userId, user);
+        if (invalidationEpoch.get() != epoch) {
+            userStates.invalidate(userId);
+        }
+        return user;
+    }
+
+    private boolean canTrustCache() {
+        if (ttlMillis <= 0) {
+            return false;
+        }
+        if (!redisEnabled) {
+            // 未启用 Redis 时会话存储本身就是单机的，本地失效即完整失效
+            return true;
+        }
+        RedisMessageListenerContainer container = listenerContainerProvider.getIfAvailable();
+        if (container == null || !container.isRunning() || !container.isListening()) {
+            subscriptionLost.set(true);
+            return false;
+        }
+        if (subscriptionLost.compareAndSet(true, false)) {
+            // 订阅中断期间可能漏掉失效消息，恢复后丢弃全部旧条目
+            invalidationEpoch.incrementAndGet();
+            userStates.invalidateAll();
+            globalVersionWatcher.invalidate();
+        }
+        return true;
+    }
+
+    private void evictUsersLocally(Collection<Long> userIds) {
+        invalidationEpoch.incrementAndGet();
+        userStates.invalidateAll(userIds);
+    }
+
+    private void publish(String message) {
+        if (!redisEnabled) {
+            return;
+        }
+        StringRedisTemplate redisTemplate = redisTemplateProvider.getIfAvailable();
+        if (redisTemplate == null) {
+            log.warn("Redis 不可用，授权失效通知未发布: {}", message);
+            return;
+        }
+        try {
+            redisTemplate.convertAndSend(INVALIDATION_CHANNEL, message);
+        } catch (RuntimeException ex) {
+            // 数据库已提交，其他节点最多在 TTL 后回源
+            log.warn("授权失效通知发布失败: message={}, error={}", message, ex.getMessage());
+        }
+    }
+
+    /** 过滤器需要的授权状态快照。 */
+    public record AuthorizationState(Byte status, Byte delFlag, Long authVersion, Long globalAuthVersion) {
+    }
+
+    private record UserState(Byte status, Byte delFlag, Long authVersion) {
+    }
+}
@@ -0,0 +1,107 @@
+package com.permacore.iam.security.authz;
+
+import com.permacore.iam.mapper.SysUserMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 节点内存中的全局授权版本，替代每次回源时对 sys_authorization_state 的联表读取。
+ * <p>
+ * 版本只增不减，三个来源都按取最大值合并：本节点提交后直接推进；其他节点的提交经
+ * {@link AuthorizationStateCache} 的 Redis 通知推进；后台线程定期轮询数据库兜底，覆盖通知丢失的情况。
+ * 只有轮询（或请求路径上的回源）才算一次确认；距上次确认超过 max-staleness-ms 时，
+ * 请求路径同步读取数据库，因此轮询停摆也不会让过期版本无限期生效。
+ */
+@Slf4j
+@Component
+public class GlobalAuthVersionWatcher {
+
+    private static final long UNKNOWN = -1L;
+
+    private final SysUserMapper userMapper;
+    private final long maxStalenessMillis;
+    private final long pollIntervalMillis;
+    private final AtomicLong version = new AtomicLong(UNKNOWN);
+    private final AtomicLong confirmedAtMillis = new AtomicLong();
+    private ScheduledExecutorService poller;
+
+    public GlobalAuthVersionWatcher(SysUserMapper userMapper,
+            @Value("${app.security.global-auth-version.max-staleness-ms:5000}") long maxStalenessMillis,
+            @Value("${app.security.global-auth-version.poll-interval-ms:1000}") long pollIntervalMillis) {
+        this.userMapper = userMapper;
+        this.maxStalenessMillis = maxStalenessMillis;
+        this.pollIntervalMillis = pollIntervalMillis;
+    }
+
+    @PostConstruct
+    void start() {
+        if (pollIntervalMillis <= 0 || maxStalenessMillis <= 0) {
+            return;
+        }
+        poller = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("auth-global-version-watcher").daemon().factory());
+        poller.scheduleWithFixedDelay(this::poll, pollIntervalMillis, pollIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stop() {
+        if (poller != null) {
+            poller.shutdownNow();
+        }
+    }
+
+    /** 在确认时限内直接返回内存中的版本，否则同步回源一次。 */
+    public long current() {
+        long known = version.get();
+        if (known != UNKNOWN && System.currentTimeMillis() - confirmedAtMillis.get() <= maxStalenessMillis) {
+            return known;
+        }
+        return refresh();
+    }
+
+    /** 从数据库读取并确认当前版本。单例行缺失时抛出异常，由调用方按不可用处理。 */
+    public long refresh() {
+        long readStartedAt = System.currentTimeMillis();
+        Long loaded = userMapper.selectGlobalAuthVersion();
+        if (loaded == null) {
+            throw new IllegalStateException("全局授权版本单例行不存在");
+        }
+        return confirm(loaded, readStartedAt);
+    }
+
+    /**
+     * 记录一次数据库读数。确认时间取读取开始时刻：读取期间发生的提交由推送或下一次轮询补上。
+     */
+    public long confirm(long loaded, long readStartedAtMillis) {
+        long current = version.accumulateAndGet(loaded, Math::max);
+        confirmedAtMillis.accumulateAndGet(readStartedAtMillis, Math::max);
+        return current;
+    }
+
+    /** 已提交的版本推送，只会推进不会回退；不刷新确认时间。 */
+    public void advance(long committed) {
+        version.accumulateAndGet(committed, Math::max);
+    }
+
+    /** 收到无法判断版本的通知，或订阅中断恢复后，下一次读取必须回源。 */
+    public void invalidate() {
+        confirmedAtMillis.set(0L);
+    }
+
+    private void poll() {
+        try {
+            refresh();
+        } catch (RuntimeException ex) {
+            // 确认时间不再前进，超过时限后请求路径会自行回源
+            log.warn("全局授权版本轮询失败: {}", ex.getMessage());
+        }
+    }
+}
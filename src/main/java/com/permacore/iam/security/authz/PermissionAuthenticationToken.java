@@ -0,0 +1,42 @@
+package com.permacore.iam.security.authz;
+
+import org.springframework.security.authentication.AbstractAuthenticationToken;
+import org.springframework.security.core.GrantedAuthority;
+
+import java.util.Collection;
+
+/**
+ * 过滤器签发的已认证令牌。权限以 {@link PermissionAuthorities} 位图保存，
+ * GrantedAuthority 列表只在被读取时才构建，避免每个请求复制数千个权限对象。
+ */
+public class PermissionAuthenticationToken extends AbstractAuthenticationToken {
+
+    private final Long userId;
+    private final transient PermissionAuthorities permissions;
+
+    public PermissionAuthenticationToken(Long userId, PermissionAuthorities permissions) {
+        super(null);
+        this.userId = userId;
+        this.permissions = permissions;
+        setAuthenticated(true);
+    }
+
+    public PermissionAuthorities getPermissions() {
+        return permissions;
+    }
+
+    @Override
+    public Collection<GrantedAuthority> getAuthorities() {
+        return permissions.toGrantedAuthorities();
+    }
+
+    @Override
+    public Object getCredentials() {
+        return null;
+    }
+
+    @Override
+    public Object getPrincipal() {
+        return userId;
+    }
+}
@@ -0,0 +1,110 @@
+package com.permacore.iam.security.authz;
+
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 单个请求的权限集合，以权限目录快照中的稠密编号位图表示。
+ * <p>
+ * admin:* 不展开为位图，而是视为“目录中的全部权限”，与原先展开全部启用权限的语义一致。
+ * 令牌中存在但目录里找不到的权限（例如目录快照更新而令牌尚未失效）单独保存，不会丢失。
+ * 普通用户的请求不会为了编号而触发目录加载：没有可用快照时全部权限走哈希集合，查找同样是 O(1)。
+ */
+public final class PermissionAuthorities {
+
+    private final PermissionCatalog.Snapshot catalog;
+    private final boolean admin;
+    private final BitSet granted;
+    private final Set<String> uncataloged;
+    private volatile List<GrantedAuthority> authorities;
+
+    private PermissionAuthorities(PermissionCatalog.Snapshot catalog, boolean admin, BitSet granted,
+            Set<String> uncataloged) {
+        this.catalog = catalog;
+        this.admin = admin;
+        this.granted = granted;
+        this.uncataloged = uncataloged;
+    }
+
+    /**
+     * @param catalog 权限目录快照；admin:* 令牌必须提供，其余令牌可为 null
+     */
+    public static PermissionAuthorities of(PermissionCatalog.Snapshot catalog, Collection<String> permissions) {
+        if (catalog == null) {
+            if (permissions.contains(PermissionCatalog.ADMIN_PERMISSION)) {
+                throw new IllegalArgumentException("admin:* 权限需要权限目录快照");
+            }
+            return new PermissionAuthorities(null, false, new BitSet(),
+                    Collections.unmodifiableSet(new LinkedHashSet<>(permissions)));
+        }
+        if (permissions.contains(PermissionCatalog.ADMIN_PERMISSION)) {
+            Set<String> extra = null;
+            for (String permission : permissions) {
+                if (catalog.idOf(permission) < 0) {
+                    extra = extra == null ? new LinkedHashSet<>() : extra;
+                    extra.add(permission);
+                }
+            }
+            return new PermissionAuthorities(catalog, true, null,
+                    extra == null ? Set.of() : Collections.unmodifiableSet(extra));
+        }
+        BitSet bits = new BitSet(catalog.size());
+        Set<String> extra = null;
+        for (String permission : permissions) {
+            int id = catalog.idOf(permission);
+            if (id >= 0) {
+                bits.set(id);
+            } else {
+                extra = extra == null ? new LinkedHashSet<>() : extra;
+                extra.add(permission);
+            }
+        }
+        return new PermissionAuthorities(catalog, false, bits,
+                extra == null ? Set.of() : Collections.unmodifiableSet(extra));
+    }
+
+    public boolean has(String permission) {
+        int id = catalog == null ? -1 : catalog.idOf(permission);
+        if (id >= 0) {
+            return admin || granted.get(id);
+        }
+        return permission != null && uncataloged.contains(permission);
+    }
+
+    public boolean hasAny(String... permissions) {
+        for (String permission : permissions) {
+            if (has(permission)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** 仅在确实需要 GrantedAuthority 列表时才构建，并复用目录中的共享实例。 */
+    public List<GrantedAuthority> toGrantedAuthorities() {
+        List<GrantedAuthority> current = authorities;
+        if (current != null) {
+            return current;
+        }
+        List<GrantedAuthority> built = new ArrayList<>();
+        if (admin) {
+            built.addAll(catalog.adminAuthorities());
+        } else if (catalog != null) {
+            for (int id = granted.nextSetBit(0); id >= 0; id = granted.nextSetBit(id + 1)) {
+                built.add(catalog.authoritiesById().get(id));
+            }
+        }
+        uncataloged.forEach(permission -> built.add(new SimpleGrantedAuthority(permission)));
+        current = Collections.unmodifiableList(built);
+        authorities = current;
+        return current;
+    }
+}
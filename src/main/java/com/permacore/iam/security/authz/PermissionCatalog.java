@@ -0,0 +1,117 @@
+package com.permacore.iam.security.authz;
+
+import com.permacore.iam.mapper.SysPermissionMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 启用权限目录的不可变快照，供 admin:* 展开复用。
+ * <p>
+ * sys_permission 的每次变更都会递增全局授权版本，因此快照以构建时的全局版本为标记：
+ * 调用方带着已确认的全局版本来取，快照落后时才重新加载一次，其余请求不访问数据库。
+ * 快照同时把权限标识按字典序编号为稠密 int，供 {@link PermissionAuthorities} 以位图表示请求权限。
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class PermissionCatalog {
+
+    public static final String ADMIN_PERMISSION = "admin:*";
+
+    private final SysPermissionMapper permissionMapper;
+    private final AuthorizationStateCache authorizationStateCache;
+    private final ReentrantLock rebuildLock = new ReentrantLock();
+    private volatile Snapshot snapshot;
+
+    /** 按节点当前已知的全局授权版本取快照，用于登录、刷新等非过滤器路径。 */
+    public Snapshot current() {
+        return forVersion(authorizationStateCache.currentGlobalAuthVersion());
+    }
+
+    /** 已构建且不早于指定版本的快照；没有时返回 null，不触发加载。 */
+    public Snapshot peek(long globalAuthVersion) {
+        Snapshot current = snapshot;
+        return current != null && current.version() >= globalAuthVersion ? current : null;
+    }
+
+    /** 取不早于指定全局授权版本的快照。 */
+    public Snapshot forVersion(long globalAuthVersion) {
+        Snapshot current = snapshot;
+        if (current != null && current.version() >= globalAuthVersion) {
+            return current;
+        }
+        rebuildLock.lock();
+        try {
+            current = snapshot;
+            if (current != null && current.version() >= globalAuthVersion) {
+                return current;
+            }
+            Snapshot rebuilt = load(globalAuthVersion);
+            snapshot = rebuilt;
+            log.debug("权限目录已重建: version={}, size={}", rebuilt.version(), rebuilt.permissionKeys().size());
+            return rebuilt;
+        } finally {
+            rebuildLock.unlock();
+        }
+    }
+
+    private Snapshot load(long globalAuthVersion) {
+        TreeSet<String> keys = new TreeSet<>();
+        Set<String> enabled = permissionMapper.selectAllEnabledPermKeys();
+        if (enabled != null) {
+            enabled.stream()
+                    .filter(permission -> permission != null && !permission.isBlank())
+                    .forEach(keys::add);
+        }
+        keys.add(ADMIN_PERMISSION);
+        String[] keysById = keys.toArray(String[]::new);
+        Map<String, Integer> idsByKey = new HashMap<>(keysById.length * 2);
+        SimpleGrantedAuthority[] authoritiesById = new SimpleGrantedAuthority[keysById.length];
+        for (int id = 0; id < keysById.length; id++) {
+            idsByKey.put(keysById[id], id);
+            authoritiesById[id] = new SimpleGrantedAuthority(keysById[id]);
+        }
+        List<SimpleGrantedAuthority> authorities = new ArrayList<>(keys.size());
+        authorities.add(authoritiesById[idsByKey.get(ADMIN_PERMISSION)]);
+        for (SimpleGrantedAuthority authority : authoritiesById) {
+            if (!ADMIN_PERMISSION.equals(authority.getAuthority())) {
+                authorities.add(authority);
+            }
+        }
+        return new Snapshot(globalAuthVersion, Collections.unmodifiableSortedSet(keys),
+                Collections.unmodifiableList(authorities), Collections.unmodifiableMap(idsByKey),
+                List.of(authoritiesById));
+    }
+
+    /**
+     * @param version            构建时的全局授权版本
+     * @param permissionKeys     全部启用权限标识（含 admin:*），有序且不可变
+     * @param adminAuthorities   admin:* 展开后的完整权限列表，可在请求间共享
+     * @param permissionIds      权限标识到稠密编号的映射，编号即在 permissionKeys 中的下标
+     * @param authoritiesById    按编号排列的共享 GrantedAuthority 实例
+     */
+    public record Snapshot(long version, Set<String> permissionKeys, List<SimpleGrantedAuthority> adminAuthorities,
+            Map<String, Integer> permissionIds, List<SimpleGrantedAuthority> authoritiesById) {
+
+        /** 未启用或不存在的权限返回 -1。 */
+        public int idOf(String permission) {
+            Integer id = permission == null ? null : permissionIds.get(permission);
+            return id == null ? -1 : id;
+        }
+
+        public int size() {
+            return authoritiesById.size();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.permacore.iam.security.authz;
+
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.expression.EvaluationContext;
+import org.springframework.expression.spel.support.StandardEvaluationContext;
+import org.springframework.security.access.expression.method.DefaultMethodSecurityExpressionHandler;
+import org.springframework.security.access.expression.method.MethodSecurityExpressionOperations;
+import org.springframework.security.core.Authentication;
+
+import java.util.function.Supplier;
+
+/**
+ * {@code @PreAuthorize} 表达式处理器。hasAuthority/hasAnyAuthority 对过滤器签发的
+ * {@link PermissionAuthenticationToken} 直接查位图；其余表达式及其他认证类型沿用 Spring 默认实现。
+ * <p>
+ * 默认根对象的 hasAuthority 为 final，且每次求值都会把全部 GrantedAuthority 复制成 Set，
+ * 因此这里包装默认根对象而不是继承它。
+ */
+public class PermissionMethodSecurityExpressionHandler extends DefaultMethodSecurityExpressionHandler {
+
+    @Override
+    public EvaluationContext createEvaluationContext(Supplier<Authentication> authentication, MethodInvocation mi) {
+        EvaluationContext context = super.createEvaluationContext(authentication, mi);
+        if (context instanceof StandardEvaluationContext standardContext
+                && standardContext.getRootObject().getValue() instanceof MethodSecurityExpressionOperations root) {
+            standardContext.setRootObject(new PermissionExpressionRoot(root));
+        }
+        return context;
+    }
+
+    /** 供 SpEL 反射调用，方法名须与 Spring 默认根对象保持一致。 */
+    public static class PermissionExpressionRoot implements MethodSecurityExpressionOperations {
+
+        private final MethodSecurityExpressionOperations delegate;
+
+        PermissionExpressionRoot(MethodSecurityExpressionOperations delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public boolean hasAuthority(String authority) {
+            if (getAuthentication() instanceof PermissionAuthenticationToken token) {
+                return token.getPermissions().has(authority);
+            }
+            return delegate.hasAuthority(authority);
+        }
+
+        @Override
+        public boolean hasAnyAuthority(String... authorities) {
+            if (getAuthentication() instanceof PermissionAuthenticationToken token) {
+                return token.getPermissions().hasAny(authorities);
+            }
+            return delegate.hasAnyAuthority(authorities);
+        }
+
+        @Override
+        public Authentication getAuthentication() {
+            return delegate.getAuthentication();
+        }
+
+        public Object getPrincipal() {
+            Authentication authentication = getAuthentication();
+            return authentication == null ? null : authentication.getPrincipal();
+        }
+
+        @Override
+        public boolean hasRole(String role) {
+            return delegate.hasRole(role);
+        }
+
+        @Override
+        public boolean hasAnyRole(String... roles) {
+            return delegate.hasAnyRole(roles);
+        }
+
+        @Override
+        public boolean permitAll() {
+            return delegate.permitAll();
+        }
+
+        @Override
+        public boolean denyAll() {
+            return delegate.denyAll();
+        }
+
+        @Override
+        public boolean isAnonymous() {
+            return delegate.isAnonymous();
+        }
+
+        @Override
+        public boolean isAuthenticated() {
+            return delegate.isAuthenticated();
+        }
+
+        @Override
+        public boolean isRememberMe() {
+            return delegate.isRememberMe();
+        }
+
+        @Override
+        public boolean isFullyAuthenticated() {
+            return delegate.isFullyAuthenticated();
+        }
+
+        @Override
+        public boolean hasPermission(Object target, Object permission) {
+            return delegate.hasPermission(target, permission);
+        }
+
+        @Override
+        public boolean hasPermission(Object targetId, String targetType, Object permission) {
+            return delegate.hasPermission(targetId, targetType, permission);
+        }
+
+        @Override
+        public void setFilterObject(Object filterObject) {
+            delegate.setFilterObject(filterObject);
+        }
+
+        @Override
+        public Object getFilterObject() {
+            return delegate.getFilterObject();
+        }
+
+        @Override
+        public void setReturnObject(Object returnObject) {
+            delegate.setReturnObject(returnObject);
+        }
+
+        @Override
+        public Object getReturnObject() {
+            return delegate.getReturnObject();
+        }
+
+        @Override
+        public Object getThis() {
+            return delegate.getThis();
+        }
+    }
+}
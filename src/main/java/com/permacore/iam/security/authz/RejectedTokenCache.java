@@ -0,0 +1,62 @@
+package com.permacore.iam.security.authz;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 已确认永久失效的 Access Token 的节点本地负缓存，按验签后的 jti 记录。
+ * <p>
+ * 会话被替换或登出后 sessionId 不会再变回当前值；个人 authVersion 与角色授权版本只增不减，
+ * 个人版本落后或角色版本摘要不再匹配即永久失效；禁用、删除都会递增个人版本。因此只有这几类拒绝写入本缓存，
+ * 客户端重试时跳过 Redis 与数据库。令牌版本高于节点缓存（缓存落后）的拒绝不写入，避免放大误判。
+ * 条目存活至令牌过期或 TTL，取较早者。
+ */
+@Component
+public class RejectedTokenCache {
+
+    private final Cache<String, Long> rejected;
+
+    public RejectedTokenCache(@Value("${app.security.rejected-token-cache.ttl-ms:60000}") long ttlMillis,
+            @Value("${app.security.rejected-token-cache.max-size:10000}") long maxSize) {
+        long ttlNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0L, ttlMillis));
+        this.rejected = ttlMillis > 0 && maxSize > 0 ? Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfter(new Expiry<String, Long>() {
+                    @Override
+                    public long expireAfterCreate(String key, Long expiresAtMillis, long currentTime) {
+                        long remaining = TimeUnit.MILLISECONDS.toNanos(
+                                Math.max(0L, expiresAtMillis - System.currentTimeMillis()));
+                        return Math.min(ttlNanos, remaining);
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, Long expiresAtMillis, long currentTime,
+                            long currentDuration) {
+                        return expireAfterCreate(key, expiresAtMillis, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, Long expiresAtMillis, long currentTime,
+                            long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .build() : null;
+    }
+
+    public boolean isRejected(String tokenId) {
+        return rejected != null && tokenId != null && rejected.getIfPresent(tokenId) != null;
+    }
+
+    public void reject(String tokenId, Date expiration) {
+        if (rejected != null && tokenId != null && expiration != null) {
+            rejected.put(tokenId, expiration.getTime());
+        }
+    }
+}
@@ -0,0 +1,365 @@
+package com.permacore.iam.security.authz;
+
+import com.permacore.iam.domain.entity.SysRoleEntity;
+import com.permacore.iam.domain.entity.SysRoleInheritanceEntity;
+import com.permacore.iam.mapper.SysRoleInheritanceMapper;
+import com.permacore.iam.mapper.SysRoleMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 角色继承图的不可变快照，预先计算每个角色的祖先/后代传递闭包，替代递归 CTE 与逐层查询。
+ * <p>
+ * 继承关系与角色状态的每次变更都会递增全局授权版本，快照沿用 {@link PermissionCatalog} 的做法以全局版本为标记，
+ * 落后时整体重建并原子替换。角色按 id 升序编号为稠密 int，闭包以位图保存，分两套：
+ * 全部角色（SSD 的潜在闭包、后代查询）与仅经由启用角色（会话有效角色，禁用祖先会截断继承路径）。
+ * 快照同时携带每个角色的授权版本（sys_role.auth_version），令牌按有效角色记录其摘要，见
+ * {@link Snapshot#roleVersionDigest(Collection)}。
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class RoleGraph {
+
+    private final SysRoleMapper roleMapper;
+    private final SysRoleInheritanceMapper roleInheritanceMapper;
+    private final AuthorizationStateCache authorizationStateCache;
+    private final ReentrantLock rebuildLock = new ReentrantLock();
+    private volatile Snapshot snapshot;
+
+    /** 按节点当前已知的全局授权版本取快照，用于登录、刷新、会话切换等读路径。 */
+    public Snapshot current() {
+        return forVersion(authorizationStateCache.currentGlobalAuthVersion());
+    }
+
+    /** 先从数据库确认全局授权版本再取快照，用于事务内的 SSD 校验，不接受节点间推送延迟。 */
+    public Snapshot confirmed() {
+        return forVersion(authorizationStateCache.confirmedGlobalAuthVersion());
+    }
+
+    /** 取不早于指定全局授权版本的快照。 */
+    public Snapshot forVersion(long globalAuthVersion) {
+        Snapshot current = snapshot;
+        if (current != null && current.version() >= globalAuthVersion) {
+            return current;
+        }
+        rebuildLock.lock();
+        try {
+            current = snapshot;
+            if (current != null && current.version() >= globalAuthVersion) {
+                return current;
+            }
+            Snapshot rebuilt = build(globalAuthVersion, roleMapper.selectGraphNodes(),
+                    roleInheritanceMapper.selectDirectEdges());
+            snapshot = rebuilt;
+            log.debug("角色继承图已重建: version={}, roles={}", rebuilt.version(), rebuilt.size());
+            return rebuilt;
+        } finally {
+            rebuildLock.unlock();
+        }
+    }
+
+    static Snapshot build(long version, List<SysRoleEntity> roles, List<SysRoleInheritanceEntity> edges) {
+        TreeSet<Long> ids = new TreeSet<>();
+        if (roles != null) {
+            roles.stream().map(SysRoleEntity::getId).filter(Objects::nonNull).forEach(ids::add);
+        }
+        List<SysRoleInheritanceEntity> directEdges = edges == null ? List.of() : edges.stream()
+                .filter(edge -> edge.getAncestorId() != null && edge.getDescendantId() != null)
+                .toList();
+        // 悬空边的端点同样编号：全部角色闭包与原先的递归查询一致，启用闭包中它们不算启用
+        for (SysRoleInheritanceEntity edge : directEdges) {
+            ids.add(edge.getAncestorId());
+            ids.add(edge.getDescendantId());
+        }
+
+        long[] roleIds = ids.stream().mapToLong(Long::longValue).toArray();
+        int size = roleIds.length;
+        Map<Long, Integer> index = new HashMap<>(size * 2);
+        for (int i = 0; i < size; i++) {
+            index.put(roleIds[i], i);
+        }
+        BitSet enabled = new BitSet(size);
+        long[] authVersions = new long[size];
+        if (roles != null) {
+            for (SysRoleEntity role : roles) {
+                if (role.getId() == null) {
+                    continue;
+                }
+                int node = index.get(role.getId());
+                if (Byte.valueOf((byte) 1).equals(role.getStatus())
+                        && Byte.valueOf((byte) 0).equals(role.getDelFlag())) {
+                    enabled.set(node);
+                }
+                authVersions[node] = role.getAuthVersion() == null ? 0L : role.getAuthVersion();
+            }
+        }
+
+        List<List<Integer>> parents = new ArrayList<>(size);
+        List<List<Integer>> children = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            parents.add(new ArrayList<>(1));
+            children.add(new ArrayList<>(1));
+        }
+        for (SysRoleInheritanceEntity edge : directEdges) {
+            int ancestor = index.get(edge.getAncestorId());
+            int descendant = index.get(edge.getDescendantId());
+            parents.get(descendant).add(ancestor);
+            children.get(ancestor).add(descendant);
+        }
+
+        BitSet[] ancestors = new BitSet[size];
+        BitSet[] enabledAncestors = new BitSet[size];
+        // 按拓扑序自根向下合并父节点闭包，每条边只处理一次
+        int[] pendingParents = new int[size];
+        ArrayDeque<Integer> ready = new ArrayDeque<>();
+        for (int i = 0; i < size; i++) {
+            pendingParents[i] = parents.get(i).size();
+            if (pendingParents[i] == 0) {
+                ready.add(i);
+            }
+        }
+        int ordered = 0;
+        while (!ready.isEmpty()) {
+            int node = ready.poll();
+            ordered++;
+            BitSet all = new BitSet();
+            BitSet viaEnabled = new BitSet();
+            for (int parent : parents.get(node)) {
+                all.set(parent);
+                all.or(ancestors[parent]);
+                if (enabled.get(parent)) {
+                    viaEnabled.set(parent);
+                    viaEnabled.or(enabledAncestors[parent]);
+                }
+            }
+            ancestors[node] = all;
+            enabledAncestors[node] = viaEnabled;
+            for (int child : children.get(node)) {
+                if (--pendingParents[child] == 0) {
+                    ready.add(child);
+                }
+            }
+        }
+        if (ordered < size) {
+            // 写入路径会拒绝环，这里只为历史脏数据兜底：环上及其下游节点逐个遍历
+            log.warn("角色继承关系存在环，{} 个角色按逐点遍历计算闭包", size - ordered);
+            for (int i = 0; i < size; i++) {
+                if (ancestors[i] == null) {
+                    ancestors[i] = reach(i, parents, null);
+                    enabledAncestors[i] = reach(i, parents, enabled);
+                }
+            }
+        }
+
+        BitSet[] descendants = transpose(ancestors);
+        BitSet[] enabledDescendants = transpose(enabledAncestors);
+        return new Snapshot(version, roleIds, index, enabled, authVersions, toSortedArrays(parents),
+                toSortedArrays(children), ancestors, enabledAncestors, descendants, enabledDescendants);
+    }
+
+    private static BitSet reach(int start, List<List<Integer>> parents, BitSet passable) {
+        BitSet visited = new BitSet();
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        queue.add(start);
+        while (!queue.isEmpty()) {
+            for (int parent : parents.get(queue.poll())) {
+                if ((passable == null || passable.get(parent)) && !visited.get(parent)) {
+                    visited.set(parent);
+                    queue.add(parent);
+                }
+            }
+        }
+        return visited;
+    }
+
+    private static int[][] toSortedArrays(List<List<Integer>> adjacency) {
+        int[][] arrays = new int[adjacency.size()][];
+        for (int i = 0; i < arrays.length; i++) {
+            arrays[i] = adjacency.get(i).stream().mapToInt(Integer::intValue).distinct().sorted().toArray();
+        }
+        return arrays;
+    }
+
+    private static BitSet[] transpose(BitSet[] closure) {
+        BitSet[] transposed = new BitSet[closure.length];
+        for (int i = 0; i < closure.length; i++) {
+            transposed[i] = new BitSet();
+        }
+        for (int node = 0; node < closure.length; node++) {
+            for (int other = closure[node].nextSetBit(0); other >= 0; other = closure[node].nextSetBit(other + 1)) {
+                transposed[other].set(node);
+            }
+        }
+        return transposed;
+    }
+
+    /**
+     * 构建后不再修改，可在线程间共享。快照之后新建、尚无继承关系的角色视为孤立节点。
+     */
+    public static final class Snapshot {
+
+        private final long version;
+        private final long[] roleIds;
+        private final Map<Long, Integer> index;
+        private final BitSet enabled;
+        private final long[] authVersions;
+        private final int[][] parents;
+        private final int[][] children;
+        private final BitSet[] ancestors;
+        private final BitSet[] enabledAncestors;
+        private final BitSet[] descendants;
+        private final BitSet[] enabledDescendants;
+
+        private Snapshot(long version, long[] roleIds, Map<Long, Integer> index, BitSet enabled,
+                long[] authVersions, int[][] parents, int[][] children, BitSet[] ancestors,
+                BitSet[] enabledAncestors, BitSet[] descendants, BitSet[] enabledDescendants) {
+            this.version = version;
+            this.roleIds = roleIds;
+            this.index = index;
+            this.enabled = enabled;
+            this.authVersions = authVersions;
+            this.parents = parents;
+            this.children = children;
+            this.ancestors = ancestors;
+            this.enabledAncestors = enabledAncestors;
+            this.descendants = descendants;
+            this.enabledDescendants = enabledDescendants;
+        }
+
+        /** 构建时的全局授权版本 */
+        public long version() {
+            return version;
+        }
+
+        public int size() {
+            return roleIds.length;
+        }
+
+        public boolean isEnabled(Long roleId) {
+            Integer node = roleId == null ? null : index.get(roleId);
+            return node != null && enabled.get(node);
+        }
+
+        /**
+         * 给定角色的授权版本摘要，与顺序、重复无关。签发时按会话有效角色写入令牌，校验时与当前快照重新计算的值比较，
+         * 其中任一角色的版本变化都会使摘要不再匹配；未使用这些角色的会话不受影响。
+         * 快照中没有的角色（快照之后新建）按版本 0 计，与其数据库默认值一致。
+         */
+        public long roleVersionDigest(Collection<Long> roleIds) {
+            if (roleIds == null || roleIds.isEmpty()) {
+                return 0L;
+            }
+            long digest = 0L;
+            for (Long roleId : new HashSet<>(roleIds)) {
+                if (roleId == null) {
+                    continue;
+                }
+                Integer node = index.get(roleId);
+                long authVersion = node == null ? 0L : authVersions[node];
+                // 逐角色散列后求和，不依赖顺序；SplitMix64 的混合函数使单个版本加一就改变整个摘要
+                digest += mix(mix(roleId) + authVersion);
+            }
+            return digest;
+        }
+
+        private static long mix(long value) {
+            long z = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+            z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+            return z ^ (z >>> 31);
+        }
+
+        /**
+         * 给定角色集合的祖先并集，按 id 升序，不含输入角色本身（除非它同时是其他输入角色的祖先）。
+         *
+         * @param enabledOnly true 时只经由启用角色继承，禁用祖先及其上游都不计入
+         */
+        public Set<Long> ancestorsOf(Collection<Long> roleIds, boolean enabledOnly) {
+            return union(roleIds, enabledOnly ? enabledAncestors : ancestors);
+        }
+
+        /** 单个角色的全部后代，按 id 升序。 */
+        public List<Long> descendantsOf(Long roleId, boolean enabledOnly) {
+            return new ArrayList<>(union(roleId == null ? List.of() : List.of(roleId),
+                    enabledOnly ? enabledDescendants : descendants));
+        }
+
+        /** 直接父角色，按 id 升序。 */
+        public List<Long> parentsOf(Long roleId) {
+            Integer node = roleId == null ? null : index.get(roleId);
+            if (node == null) {
+                return new ArrayList<>();
+            }
+            List<Long> result = new ArrayList<>(parents[node].length);
+            for (int parent : parents[node]) {
+                result.add(this.roleIds[parent]);
+            }
+            return result;
+        }
+
+        /**
+         * 单个角色的全部后代及其最短继承距离（直接子角色为 1），按距离再按 id 升序。
+         * 按层展开子角色，每个后代只在首次到达的那一层记录。
+         */
+        public Map<Long, Integer> descendantDepths(Long roleId) {
+            Map<Long, Integer> result = new LinkedHashMap<>();
+            Integer root = roleId == null ? null : index.get(roleId);
+            if (root == null) {
+                return result;
+            }
+            BitSet visited = new BitSet(this.roleIds.length);
+            visited.set(root);
+            BitSet frontier = new BitSet(this.roleIds.length);
+            frontier.set(root);
+            for (int depth = 1; !frontier.isEmpty(); depth++) {
+                BitSet next = new BitSet(this.roleIds.length);
+                for (int node = frontier.nextSetBit(0); node >= 0; node = frontier.nextSetBit(node + 1)) {
+                    for (int child : children[node]) {
+                        next.set(child);
+                    }
+                }
+                next.andNot(visited);
+                visited.or(next);
+                for (int node = next.nextSetBit(0); node >= 0; node = next.nextSetBit(node + 1)) {
+                    result.put(this.roleIds[node], depth);
+                }
+                frontier = next;
+            }
+            return result;
+        }
+
+        private Set<Long> union(Collection<Long> roleIds, BitSet[] closure) {
+            if (roleIds == null || roleIds.isEmpty()) {
+                return new LinkedHashSet<>();
+            }
+            BitSet merged = new BitSet(this.roleIds.length);
+            for (Long roleId : roleIds) {
+                Integer node = roleId == null ? null : index.get(roleId);
+                if (node != null) {
+                    merged.or(closure[node]);
+                }
+            }
+            LinkedHashSet<Long> result = new LinkedHashSet<>(Math.max(16, merged.cardinality() * 2));
+            for (int node = merged.nextSetBit(0); node >= 0; node = merged.nextSetBit(node + 1)) {
+                result.add(this.roleIds[node]);
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.permacore.iam.security.authz;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.permacore.iam.domain.vo.SessionRoleStateVO;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * 已计算会话角色状态的节点本地缓存，刷新、/info、/session-roles 命中时跳过角色、权限与 SoD 查询。
+ * <p>
+ * 键包含用户的 authVersion 与 globalAuthVersion：角色分配、角色/权限/继承/SoD 的任何变更都会递增
+ * 其中之一，变更后的请求换用新键，旧条目不会再被读到，只等容量或 TTL 淘汰。调用方必须传入
+ * 本事务从数据库读到的版本，并用不早于该全局版本的快照计算状态。
+ * 返回值是缓存条目的浅拷贝，调用方替换列表不会影响其他请求。
+ */
+@Component
+public class SessionRoleStateCache {
+
+    private final Cache<Key, SessionRoleStateVO> states;
+
+    public SessionRoleStateCache(@Value("${app.security.session-state-cache.ttl-ms:600000}") long ttlMillis,
+            @Value("${app.security.session-state-cache.max-size:10000}") long maxSize) {
+        this.states = ttlMillis > 0 && maxSize > 0 ? Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(Duration.ofMillis(ttlMillis))
+                .build() : null;
+    }
+
+    /** 命中时返回缓存状态；未命中时在缓存锁外计算，计算失败不写入。 */
+    public SessionRoleStateVO get(Key key, Supplier<SessionRoleStateVO> loader) {
+        if (states == null) {
+            return loader.get();
+        }
+        SessionRoleStateVO cached = states.getIfPresent(key);
+        if (cached == null) {
+            cached = loader.get();
+            states.put(key, copyOf(cached));
+        }
+        return copyOf(cached);
+    }
+
+    private static SessionRoleStateVO copyOf(SessionRoleStateVO state) {
+        SessionRoleStateVO copy = new SessionRoleStateVO();
+        copy.setRoles(new ArrayList<>(state.getRoles()));
+        copy.setActiveRoleIds(new ArrayList<>(state.getActiveRoleIds()));
+        copy.setEffectiveRoleIds(new ArrayList<>(state.getEffectiveRoleIds()));
+        copy.setPermissions(new ArrayList<>(state.getPermissions()));
+        copy.setDsdConflicts(new ArrayList<>(state.getDsdConflicts()));
+        copy.setRoleVersionDigest(state.getRoleVersionDigest());
+        return copy;
+    }
+
+    /**
+     * @param activeRoleIds 规范化后的请求激活角色，保持请求顺序；null 表示默认激活
+     */
+    public record Key(Long userId, List<Long> activeRoleIds, long authVersion, long globalAuthVersion) {
+    }
+}
@@ -0,0 +1,265 @@
+package com.permacore.iam.security.authz;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.permacore.iam.domain.entity.SysSodConstraintEntity;
+import com.permacore.iam.mapper.SysSodConstraintMapper;
+import com.permacore.iam.security.handler.BusinessException;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 职责分离约束的编译索引，替代每次校验时全表读取 sys_sod_constraint 并逐条解析 role_set JSON。
+ * <p>
+ * 约束的增删改都会递增全局授权版本，快照沿用 {@link RoleGraph} 的做法以全局版本为标记，落后时整体重建。
+ * 互斥角色集合预先解析为 long[]，并建立角色 → 约束的倒排表：冲突检测只遍历用户有效角色命中的约束，
+ * 开销与有效角色数成正比，与约束总数无关。role_set 无法解析的约束单独记录，查询对应类型时报错，
+ * 与原先逐条解析时的行为一致。
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class SodConstraintIndex {
+
+    public static final byte SSD = 1;
+    public static final byte DSD = 2;
+
+    private static final int[] NO_CONSTRAINTS = new int[0];
+
+    private final SysSodConstraintMapper sodConstraintMapper;
+    private final ObjectMapper objectMapper;
+    private final AuthorizationStateCache authorizationStateCache;
+    private final ReentrantLock rebuildLock = new ReentrantLock();
+    private volatile Snapshot snapshot;
+
+    /** 按节点当前已知的全局授权版本取快照，用于会话激活等读路径。 */
+    public Snapshot current() {
+        return forVersion(authorizationStateCache.currentGlobalAuthVersion());
+    }
+
+    /** 先从数据库确认全局授权版本再取快照，用于事务内的 SSD 校验。 */
+    public Snapshot confirmed() {
+        return forVersion(authorizationStateCache.confirmedGlobalAuthVersion());
+    }
+
+    /** 取不早于指定全局授权版本的快照。 */
+    public Snapshot forVersion(long globalAuthVersion) {
+        Snapshot current = snapshot;
+        if (current != null && current.version() >= globalAuthVersion) {
+            return current;
+        }
+        rebuildLock.lock();
+        try {
+            current = snapshot;
+            if (current != null && current.version() >= globalAuthVersion) {
+                return current;
+            }
+            Snapshot rebuilt = build(globalAuthVersion, sodConstraintMapper.selectList(null), objectMapper);
+            snapshot = rebuilt;
+            log.debug("SoD约束索引已重建: version={}, constraints={}", rebuilt.version(), rebuilt.size());
+            return rebuilt;
+        } finally {
+            rebuildLock.unlock();
+        }
+    }
+
+    static Snapshot build(long version, List<SysSodConstraintEntity> rows, ObjectMapper objectMapper) {
+        List<SysSodConstraintEntity> sorted = rows == null ? List.of() : rows.stream()
+                .filter(Objects::nonNull)
+                .sorted(Comparator.comparing(SysSodConstraintEntity::getId,
+                        Comparator.nullsLast(Comparator.naturalOrder())))
+                .toList();
+        List<Constraint> constraints = new ArrayList<>(sorted.size());
+        List<Constraint> invalid = new ArrayList<>();
+        for (SysSodConstraintEntity row : sorted) {
+            long[] roleIds = parseRoleSet(row, objectMapper);
+            Constraint constraint = new Constraint(row.getId(), row.getConstraintName(),
+                    row.getConstraintType(), roleIds);
+            if (roleIds == null) {
+                invalid.add(constraint);
+            } else {
+                constraints.add(constraint);
+            }
+        }
+
+        TreeMap<Long, List<Integer>> postings = new TreeMap<>();
+        for (int i = 0; i < constraints.size(); i++) {
+            for (long roleId : constraints.get(i).roleIds) {
+                postings.computeIfAbsent(roleId, key -> new ArrayList<>(2)).add(i);
+            }
+        }
+        long[] roleKeys = new long[postings.size()];
+        int[][] constraintsByRole = new int[postings.size()][];
+        int next = 0;
+        for (var entry : postings.entrySet()) {
+            roleKeys[next] = entry.getKey();
+            constraintsByRole[next] = entry.getValue().stream().mapToInt(Integer::intValue).toArray();
+            next++;
+        }
+        return new Snapshot(version, constraints.toArray(Constraint[]::new), roleKeys, constraintsByRole,
+                invalid.toArray(Constraint[]::new));
+    }
+
+    /** 去掉空值并按首次出现去重；无法解析时返回 null。 */
+    private static long[] parseRoleSet(SysSodConstraintEntity row, ObjectMapper objectMapper) {
+        if (row.getRoleSet() == null) {
+            return null;
+        }
+        try {
+            List<Long> parsed = objectMapper.readValue(row.getRoleSet(), new TypeReference<List<Long>>() {
+            });
+            if (parsed == null) {
+                return null;
+            }
+            return parsed.stream()
+                    .filter(Objects::nonNull)
+                    .distinct()
+                    .mapToLong(Long::longValue)
+                    .toArray();
+        } catch (Exception e) {
+            log.error("解析SoD约束失败: constraintId={}", row.getId(), e);
+            return null;
+        }
+    }
+
+    /**
+     * 编译后的单条约束。
+     *
+     * @param roleIds 去重后的互斥角色，保持 role_set 中的顺序
+     */
+    public record Constraint(Long id, String name, Byte type, long[] roleIds) {
+
+        /** 按约束中的顺序返回落在给定集合内的互斥角色。 */
+        public List<Long> matchedRoleIds(Set<Long> roleIds) {
+            List<Long> matched = new ArrayList<>(2);
+            for (long roleId : this.roleIds) {
+                if (roleIds.contains(roleId)) {
+                    matched.add(roleId);
+                }
+            }
+            return matched;
+        }
+
+        public List<Long> roleIdList() {
+            return Arrays.stream(roleIds).boxed().toList();
+        }
+
+        private boolean hasType(byte expected) {
+            return type != null && type == expected;
+        }
+    }
+
+    /** 约束与用户实际命中的互斥角色（至少两个）。 */
+    public record Conflict(Constraint constraint, List<Long> roleIds) {
+    }
+
+    public static final class Snapshot {
+
+        private final long version;
+        /** 按约束 id 升序 */
+        private final Constraint[] constraints;
+        /** 倒排表：roleKeys 升序，constraintsByRole[i] 为引用 roleKeys[i] 的约束下标 */
+        private final long[] roleKeys;
+        private final int[][] constraintsByRole;
+        private final Constraint[] invalid;
+
+        private Snapshot(long version, Constraint[] constraints, long[] roleKeys, int[][] constraintsByRole,
+                Constraint[] invalid) {
+            this.version = version;
+            this.constraints = constraints;
+            this.roleKeys = roleKeys;
+            this.constraintsByRole = constraintsByRole;
+            this.invalid = invalid;
+        }
+
+        public long version() {
+            return version;
+        }
+
+        public int size() {
+            return constraints.length;
+        }
+
+        /**
+         * 给定角色集合（调用方已展开继承）违反的指定类型约束，按约束 id 升序。
+         */
+        public List<Conflict> conflicts(byte type, Set<Long> roleIds) {
+            requireValid(type);
+            if (roleIds == null || roleIds.size() < 2) {
+                return List.of();
+            }
+            int[] hits = null;
+            List<Integer> conflicting = null;
+            for (Long roleId : roleIds) {
+                for (int constraint : constraintsOf(roleId)) {
+                    if (!constraints[constraint].hasType(type)) {
+                        continue;
+                    }
+                    if (hits == null) {
+                        hits = new int[constraints.length];
+                    }
+                    if (++hits[constraint] == 2) {
+                        if (conflicting == null) {
+                            conflicting = new ArrayList<>(1);
+                        }
+                        conflicting.add(constraint);
+                    }
+                }
+            }
+            if (conflicting == null) {
+                return List.of();
+            }
+            conflicting.sort(null);
+            List<Conflict> result = new ArrayList<>(conflicting.size());
+            for (int constraint : conflicting) {
+                result.add(new Conflict(constraints[constraint], constraints[constraint].matchedRoleIds(roleIds)));
+            }
+            return result;
+        }
+
+        /** 引用了任一给定角色的指定类型约束，按约束 id 升序。 */
+        public List<Constraint> touching(byte type, Collection<Long> roleIds) {
+            requireValid(type);
+            if (roleIds == null || roleIds.isEmpty()) {
+                return List.of();
+            }
+            Set<Integer> matched = new LinkedHashSet<>();
+            for (Long roleId : roleIds) {
+                for (int constraint : constraintsOf(roleId)) {
+                    if (constraints[constraint].hasType(type)) {
+                        matched.add(constraint);
+                    }
+                }
+            }
+            return matched.stream().sorted().map(constraint -> constraints[constraint]).toList();
+        }
+
+        private int[] constraintsOf(Long roleId) {
+            if (roleId == null) {
+                return NO_CONSTRAINTS;
+            }
+            int position = Arrays.binarySearch(roleKeys, roleId);
+            return position < 0 ? NO_CONSTRAINTS : constraintsByRole[position];
+        }
+
+        private void requireValid(byte type) {
+            for (Constraint constraint : invalid) {
+                if (constraint.hasType(type)) {
+                    throw new BusinessException("SoD约束配置无效: " + constraint.id());
+                }
+            }
+        }
+    }
+}
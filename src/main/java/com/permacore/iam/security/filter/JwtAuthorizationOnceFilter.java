@@ -3,9 +3,12 @@ package com.permacore.iam.security.filter;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.permacore.iam.utils.JwtUtil;
 import com.permacore.iam.utils.RedisCacheUtil;
-import com.permacore.iam.mapper.SysUserMapper;
-import com.permacore.iam.mapper.SysPermissionMapper;
-import com.permacore.iam.domain.entity.SysUserEntity;
+import com.permacore.iam.security.authz.AuthorizationStateCache;
+import com.permacore.iam.security.authz.PermissionAuthenticationToken;
+import com.permacore.iam.security.authz.PermissionAuthorities;
+import com.permacore.iam.security.authz.PermissionCatalog;
+import com.permacore.iam.security.authz.RejectedTokenCache;
+import com.permacore.iam.security.authz.RoleGraph;
 import com.permacore.iam.domain.vo.Result;
 import com.permacore.iam.domain.vo.ResultCode;
 import io.jsonwebtoken.Claims;
@@ -18,8 +21,6 @@ import lombok.RequiredArgsConstructor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpHeaders;
-import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
-import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.lang.NonNull;
 import org.springframework.security.web.authentication.WebAuthenticationDetailsSource;
@@ -29,10 +30,7 @@ import org.springframework.web.filter.OncePerRequestFilter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Set;
-import java.util.stream.Collectors;
 
 /**
  * 统一的 JWT 授权过滤器，确保 SecurityConfig 中引用的 OncePerRequestFilter 存在。
@@ -41,13 +39,15 @@ import java.util.stream.Collectors;
 public class JwtAuthorizationOnceFilter extends OncePerRequestFilter {
 
     private static final Logger log = LoggerFactory.getLogger(JwtAuthorizationOnceFilter.class);
-    private static final String ADMIN_PERMISSION = "admin:*";
 
     private final JwtUtil jwtUtil;
     private final RedisCacheUtil redisCacheUtil;
-    private final SysUserMapper userMapper;
-    private final SysPermissionMapper permissionMapper;
+    private final AuthorizationStateCache authorizationStateCache;
+    private final PermissionCatalog permissionCatalog;
+    private final RejectedTokenCache rejectedTokenCache;
+    private final RoleGraph roleGraph;
     private final ObjectMapper objectMapper;
+    private final JwtFilterMetrics metrics;
 
     @Override
     protected void doFilterInternal(@NonNull HttpServletRequest request, @NonNull HttpServletResponse response,
@@ -61,60 +61,104 @@ public class JwtAuthorizationOnceFilter extends OncePerRequestFilter {
 
         Claims claims;
         Long userId;
+        long stageStart = metrics.start();
         try {
             claims = jwtUtil.parseToken(token);
             if (!jwtUtil.isAccessToken(claims)) {
-                throw new IllegalArgumentException("只允许使用 Access Token 访问受保护资源");
+                metrics.record(JwtFilterMetrics.Stage.PARSE, stageStart);
+                metrics.reject(JwtFilterMetrics.Rejection.NOT_ACCESS_TOKEN);
+                log.warn("JWT 认证失败: 只允许使用 Access Token 访问受保护资源");
+                SecurityContextHolder.clearContext();
+                filterChain.doFilter(request, response);
+                return;
             }
             userId = Long.parseLong(claims.getSubject());
         } catch (JwtException | IllegalArgumentException ex) {
+            metrics.record(JwtFilterMetrics.Stage.PARSE, stageStart);
+            metrics.reject(JwtFilterMetrics.Rejection.INVALID_TOKEN);
             log.warn("JWT 认证失败: {}", ex.getMessage());
             SecurityContextHolder.clearContext();
             filterChain.doFilter(request, response);
             return;
         }
+        metrics.record(JwtFilterMetrics.Stage.PARSE, stageStart);
+        if (rejectedTokenCache.isRejected(claims.getId())) {
+            metrics.reject(JwtFilterMetrics.Rejection.CACHED_REJECTION);
+            log.debug("Token 已被拒绝过，跳过会话与授权校验: userId={}", userId);
+            SecurityContextHolder.clearContext();
+            filterChain.doFilter(request, response);
+            return;
+        }
 
         try {
-            String currentVersion = redisCacheUtil.getJwtVersion(userId);
+            stageStart = metrics.start();
+            RedisCacheUtil.SessionAuthorizationState combinedState = redisCacheUtil.isAuthStateHashEnabled()
+                    ? redisCacheUtil.getSessionAuthorizationState(userId) : null;
+            String currentVersion = combinedState != null
+                    ? combinedState.sessionId() : redisCacheUtil.getJwtVersion(userId);
             String tokenSessionId = jwtUtil.getSessionId(claims);
+            metrics.record(JwtFilterMetrics.Stage.SESSION, stageStart);
             if (currentVersion == null || tokenSessionId == null || !currentVersion.equals(tokenSessionId)) {
+                metrics.reject(JwtFilterMetrics.Rejection.SESSION_MISMATCH);
+                rejectedTokenCache.reject(claims.getId(), claims.getExpiration());
                 log.warn("Token 版本失效，userId={}", userId);
                 SecurityContextHolder.clearContext();
                 filterChain.doFilter(request, response);
                 return;
             }
 
-            SysUserEntity authorizationState = userMapper.selectAuthorizationStateById(userId);
+            stageStart = metrics.start();
             Object tokenAuthVersion = claims.get("authVersion");
             Object tokenGlobalAuthVersion = claims.get("globalAuthVersion");
-            long currentAuthVersion = authorizationState == null || authorizationState.getAuthVersion() == null
-                    ? -1L : authorizationState.getAuthVersion();
+            AuthorizationStateCache.AuthorizationState authorizationState = resolveAuthorizationState(
+                    userId, combinedState, tokenAuthVersion, tokenGlobalAuthVersion);
+            long currentAuthVersion = authorizationState == null || authorizationState.authVersion() == null
+                    ? -1L : authorizationState.authVersion();
             long currentGlobalAuthVersion = authorizationState == null
-                    || authorizationState.getGlobalAuthVersion() == null
-                    ? -1L : authorizationState.getGlobalAuthVersion();
-            if (authorizationState == null
-                    || !Byte.valueOf((byte) 1).equals(authorizationState.getStatus())
-                    || Byte.valueOf((byte) 1).equals(authorizationState.getDelFlag())
-                    || !(tokenAuthVersion instanceof Number)
-                    || !(tokenGlobalAuthVersion instanceof Number)
-                    || ((Number) tokenAuthVersion).longValue() != currentAuthVersion
-                    || ((Number) tokenGlobalAuthVersion).longValue() != currentGlobalAuthVersion) {
+                    || authorizationState.globalAuthVersion() == null
+                    ? -1L : authorizationState.globalAuthVersion();
+            boolean versionsMatch = authorizationState != null
+                    && Byte.valueOf((byte) 1).equals(authorizationState.status())
+                    && !Byte.valueOf((byte) 1).equals(authorizationState.delFlag())
+                    && tokenAuthVersion instanceof Number
+                    && tokenGlobalAuthVersion instanceof Number
+                    && ((Number) tokenAuthVersion).longValue() == currentAuthVersion
+                    && ((Number) tokenGlobalAuthVersion).longValue() <= currentGlobalAuthVersion;
+            boolean roleVersionsMatch = versionsMatch && matchesRoleVersions(claims, currentGlobalAuthVersion);
+            metrics.record(JwtFilterMetrics.Stage.AUTH_STATE, stageStart);
+            if (!versionsMatch) {
+                metrics.reject(JwtFilterMetrics.Rejection.AUTH_VERSION_MISMATCH);
+                if (isPermanentlyRevoked(authorizationState, tokenAuthVersion, tokenGlobalAuthVersion)) {
+                    rejectedTokenCache.reject(claims.getId(), claims.getExpiration());
+                }
                 log.warn("Token 授权版本失效，userId={}", userId);
                 SecurityContextHolder.clearContext();
                 filterChain.doFilter(request, response);
                 return;
             }
-
-            List<SimpleGrantedAuthority> authorities = resolveAuthorities(claims);
-            if (authorities.stream().anyMatch(authority -> ADMIN_PERMISSION.equals(authority.getAuthority()))) {
-                authorities = expandAdminAuthorities(authorities);
+            if (!roleVersionsMatch) {
+                // 快照不早于令牌的全局版本且角色版本只增不减，不匹配即不可能再通过
+                metrics.reject(JwtFilterMetrics.Rejection.ROLE_VERSION_MISMATCH);
+                rejectedTokenCache.reject(claims.getId(), claims.getExpiration());
+                log.warn("Token 角色授权版本失效，userId={}", userId);
+                SecurityContextHolder.clearContext();
+                filterChain.doFilter(request, response);
+                return;
             }
 
-            UsernamePasswordAuthenticationToken authentication = new UsernamePasswordAuthenticationToken(userId, null,
-                    authorities);
+            stageStart = metrics.start();
+            List<String> permissions = resolvePermissions(claims);
+            // 只有 admin:* 需要目录展开；普通令牌仅在目录已就绪时借用其编号
+            PermissionCatalog.Snapshot catalog = permissions.contains(PermissionCatalog.ADMIN_PERMISSION)
+                    ? permissionCatalog.forVersion(currentGlobalAuthVersion)
+                    : permissionCatalog.peek(currentGlobalAuthVersion);
+            PermissionAuthorities authorities = PermissionAuthorities.of(catalog, permissions);
+            metrics.record(JwtFilterMetrics.Stage.PERMISSIONS, stageStart);
+            PermissionAuthenticationToken authentication = new PermissionAuthenticationToken(userId, authorities);
             authentication.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
             SecurityContextHolder.getContext().setAuthentication(authentication);
         } catch (RuntimeException ex) {
+            metrics.reject(JwtFilterMetrics.Rejection.DEPENDENCY_FAILURE);
             log.error("认证状态服务不可用: userId={}", userId, ex);
             SecurityContextHolder.clearContext();
             response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
@@ -126,12 +170,95 @@ public class JwtAuthorizationOnceFilter extends OncePerRequestFilter {
         filterChain.doFilter(request, response);
     }
 
+    /**
+     * Redis Hash 模式下优先使用同一次往返读到的授权字段。字段缺失，或令牌版本比缓存更新
+     * （缓存落后，只可能拒绝合法令牌）时回源，并把结果按只增不减的规则写回 Hash。
+     * Redis 中的全局版本不低于本节点已知的版本才可信：写回失败时 Redis 可能停留在旧版本，
+     * 取二者较大值，角色摘要至少按本节点已确认的角色图校验。
+     */
+    private AuthorizationStateCache.AuthorizationState resolveAuthorizationState(Long userId,
+            RedisCacheUtil.SessionAuthorizationState combinedState, Object tokenAuthVersion,
+            Object tokenGlobalAuthVersion) {
+        if (combinedState != null && combinedState.hasAuthorizationState()
+                && !isNewer(tokenAuthVersion, combinedState.authVersion())
+                && !isNewer(tokenGlobalAuthVersion, combinedState.globalAuthVersion())) {
+            long globalAuthVersion = Math.max(combinedState.globalAuthVersion(),
+                    authorizationStateCache.currentGlobalAuthVersion());
+            return new AuthorizationStateCache.AuthorizationState(combinedState.status(), combinedState.delFlag(),
+                    combinedState.authVersion(), globalAuthVersion);
+        }
+        AuthorizationStateCache.AuthorizationState state = authorizationStateCache.get(userId,
+                tokenAuthVersion instanceof Number number ? number.longValue() : null,
+                tokenGlobalAuthVersion instanceof Number number ? number.longValue() : null);
+        if (combinedState != null && state != null && state.authVersion() != null
+                && state.globalAuthVersion() != null) {
+            try {
+                redisCacheUtil.cacheUserAuthorizationStates(List.of(new RedisCacheUtil.UserAuthorizationState(
+                        userId, state.authVersion(),
+                        state.status() == null ? 0 : state.status(),
+                        state.delFlag() == null ? 1 : state.delFlag())));
+                redisCacheUtil.cacheGlobalAuthVersion(state.globalAuthVersion());
+            } catch (RuntimeException ex) {
+                log.debug("授权状态写回 Redis 失败: userId={}, error={}", userId, ex.getMessage());
+            }
+        }
+        return state;
+    }
+
+    /**
+     * 令牌有效角色的授权版本摘要须与节点当前角色图快照重新计算的值一致。全局版本前进只说明某些授权数据变了，
+     * 未使用变更角色的会话摘要不变，继续有效。
+     */
+    private boolean matchesRoleVersions(Claims claims, long currentGlobalAuthVersion) {
+        if (!(claims.get("roleVersionDigest") instanceof Number digest)) {
+            return false;
+        }
+        return roleGraph.forVersion(currentGlobalAuthVersion).roleVersionDigest(resolveRoleIds(claims))
+                == digest.longValue();
+    }
+
+    /**
+     * 版本只增不减：个人版本落后、用户已删除/禁用（禁用会递增个人版本）或令牌缺少版本声明时，
+     * 该令牌不可能再次通过。令牌版本高于当前读数只说明缓存落后，不属于永久失效。
+     */
+    private boolean isPermanentlyRevoked(AuthorizationStateCache.AuthorizationState state, Object tokenAuthVersion,
+            Object tokenGlobalAuthVersion) {
+        if (state == null || !(tokenAuthVersion instanceof Number) || !(tokenGlobalAuthVersion instanceof Number)) {
+            return true;
+        }
+        if (state.authVersion() == null || state.globalAuthVersion() == null
+                || isNewer(tokenAuthVersion, state.authVersion())
+                || isNewer(tokenGlobalAuthVersion, state.globalAuthVersion())) {
+            return false;
+        }
+        return !Byte.valueOf((byte) 1).equals(state.status())
+                || Byte.valueOf((byte) 1).equals(state.delFlag())
+                || ((Number) tokenAuthVersion).longValue() < state.authVersion();
+    }
+
+    private boolean isNewer(Object tokenVersion, Long cachedVersion) {
+        return tokenVersion instanceof Number number && number.longValue() > cachedVersion;
+    }
+
     private String resolveToken(HttpServletRequest request) {
         String bearer = request.getHeader(HttpHeaders.AUTHORIZATION);
         return bearer != null && bearer.startsWith("Bearer ") && bearer.length() > 7 ? bearer.substring(7) : null;
     }
 
-    private List<SimpleGrantedAuthority> resolveAuthorities(Claims claims) {
+    private List<Long> resolveRoleIds(Claims claims) {
+        if (!(claims.get("effectiveRoleIds") instanceof List<?> roleIds)) {
+            return Collections.emptyList();
+        }
+        List<Long> roleIdList = new ArrayList<>(roleIds.size());
+        for (Object roleId : roleIds) {
+            if (roleId instanceof Number number) {
+                roleIdList.add(number.longValue());
+            }
+        }
+        return roleIdList;
+    }
+
+    private List<String> resolvePermissions(Claims claims) {
         Object permissionsObj = claims.get("permissions");
         if (permissionsObj == null) {
             return Collections.emptyList();
@@ -152,23 +279,6 @@ public class JwtAuthorizationOnceFilter extends OncePerRequestFilter {
                         .forEach(permissionList::add);
             }
         }
-        return permissionList.stream()
-                .map(SimpleGrantedAuthority::new)
-                .collect(Collectors.toList());
-    }
-
-    private List<SimpleGrantedAuthority> expandAdminAuthorities(List<SimpleGrantedAuthority> tokenAuthorities) {
-        LinkedHashSet<String> authorityKeys = tokenAuthorities.stream()
-                .map(SimpleGrantedAuthority::getAuthority)
-                .filter(authority -> authority != null && !authority.isBlank())
-                .collect(Collectors.toCollection(LinkedHashSet::new));
-        Set<String> enabledPermissionKeys = permissionMapper.selectAllEnabledPermKeys();
-        if (enabledPermissionKeys != null) {
-            enabledPermissionKeys.stream()
-                    .filter(permission -> permission != null && !permission.isBlank())
-                    .forEach(authorityKeys::add);
-        }
-        authorityKeys.add(ADMIN_PERMISSION);
-        return authorityKeys.stream().map(SimpleGrantedAuthority::new).collect(Collectors.toList());
+        return permissionList;
     }
 }
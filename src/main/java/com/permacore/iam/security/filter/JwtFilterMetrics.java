@@ -0,0 +1,110 @@
+package com.permacore.iam.security.filter;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link JwtAuthorizationOnceFilter} 的分阶段耗时与拒绝原因指标。
+ * <p>
+ * 所有 Timer/Counter 在构造时按枚举预先注册，请求路径上只做数组下标访问，不做标签查找。
+ * 关闭时（{@link #NOOP}）不读取时钟，也不持有任何 Meter。
+ * Redis Hash 模式下会话与授权字段同一次读取，耗时全部计入 session 阶段，auth_state 只统计回源部分。
+ */
+public final class JwtFilterMetrics {
+
+    public static final JwtFilterMetrics NOOP = new JwtFilterMetrics(null);
+
+    static final String STAGE_TIMER = "iam.jwt.filter.stage";
+    static final String REJECTION_COUNTER = "iam.jwt.filter.rejections";
+
+    public enum Stage {
+        /** 令牌解析与签名校验（含已验证声明缓存） */
+        PARSE("parse"),
+        /** Redis 会话版本校验 */
+        SESSION("session"),
+        /** 用户状态与授权版本校验（节点缓存或数据库） */
+        AUTH_STATE("auth_state"),
+        /** 权限声明解析与 admin:* 目录展开 */
+        PERMISSIONS("permissions");
+
+        private final String tag;
+
+        Stage(String tag) {
+            this.tag = tag;
+        }
+    }
+
+    public enum Rejection {
+        /** 签名错误、格式错误或已过期 */
+        INVALID_TOKEN("invalid_token"),
+        /** 使用 Refresh Token 访问受保护资源 */
+        NOT_ACCESS_TOKEN("not_access_token"),
+        /** 会话已被新登录或登出替换 */
+        SESSION_MISMATCH("session_mismatch"),
+        /** 用户被禁用/删除，或授权版本已变更 */
+        AUTH_VERSION_MISMATCH("auth_version_mismatch"),
+        /** 令牌使用的某个角色授权版本已变更 */
+        ROLE_VERSION_MISMATCH("role_version_mismatch"),
+        /** 命中已拒绝令牌负缓存，未访问 Redis 与数据库 */
+        CACHED_REJECTION("cached_rejection"),
+        /** Redis 或数据库不可用，返回 503 */
+        DEPENDENCY_FAILURE("dependency_failure");
+
+        private final String tag;
+
+        Rejection(String tag) {
+            this.tag = tag;
+        }
+    }
+
+    private final Timer[] timers;
+    private final Counter[] rejections;
+
+    private JwtFilterMetrics(MeterRegistry registry) {
+        if (registry == null) {
+            this.timers = null;
+            this.rejections = null;
+            return;
+        }
+        Stage[] stages = Stage.values();
+        this.timers = new Timer[stages.length];
+        for (Stage stage : stages) {
+            timers[stage.ordinal()] = Timer.builder(STAGE_TIMER)
+                    .description("JWT 授权过滤器各阶段耗时")
+                    .tag("stage", stage.tag)
+                    .register(registry);
+        }
+        Rejection[] reasons = Rejection.values();
+        this.rejections = new Counter[reasons.length];
+        for (Rejection reason : reasons) {
+            rejections[reason.ordinal()] = Counter.builder(REJECTION_COUNTER)
+                    .description("JWT 授权过滤器拒绝次数")
+                    .tag("reason", reason.tag)
+                    .register(registry);
+        }
+    }
+
+    public static JwtFilterMetrics of(MeterRegistry registry) {
+        return registry == null ? NOOP : new JwtFilterMetrics(registry);
+    }
+
+    /** 阶段开始时间；关闭时返回 0，不读取时钟。 */
+    public long start() {
+        return timers == null ? 0L : System.nanoTime();
+    }
+
+    public void record(Stage stage, long startNanos) {
+        if (timers != null) {
+            timers[stage.ordinal()].record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public void reject(Rejection reason) {
+        if (rejections != null) {
+            rejections[reason.ordinal()].increment();
+        }
+    }
+}
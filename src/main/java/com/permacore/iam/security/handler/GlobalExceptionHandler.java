@@ -5,6 +5,7 @@ import com.permacore.iam.domain.vo.ResultCode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.converter.HttpMessageNotReadableException;
@@ -39,8 +40,11 @@ public class GlobalExceptionHandler {
     @ExceptionHandler(BusinessException.class)
     public ResponseEntity<Result<Void>> handleBusinessException(BusinessException e) {
         log.warn("业务异常: {}", e.getMessage());
-        return ResponseEntity.status(resolveHttpStatus(e.getCode()))
-                .body(Result.error(e.getCode(), e.getMessage()));
+        ResponseEntity.BodyBuilder response = ResponseEntity.status(resolveHttpStatus(e.getCode()));
+        if (e instanceof ServiceOverloadedException overloaded) {
+            response.header(HttpHeaders.RETRY_AFTER, String.valueOf(overloaded.getRetryAfterSeconds()));
+        }
+        return response.body(Result.error(e.getCode(), e.getMessage()));
     }
 
     /**
@@ -0,0 +1,17 @@
+package com.permacore.iam.security.handler;
+
+import com.permacore.iam.domain.vo.ResultCode;
+import lombok.Getter;
+
+/**
+ * 过载拒绝：返回 503，并通过 Retry-After 告知客户端多久后重试
+ */
+@Getter
+public class ServiceOverloadedException extends BusinessException {
+    private final long retryAfterSeconds;
+
+    public ServiceOverloadedException(String message, long retryAfterSeconds) {
+        super(ResultCode.SERVICE_UNAVAILABLE, message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+}
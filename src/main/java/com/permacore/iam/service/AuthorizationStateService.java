@@ -2,11 +2,24 @@ package com.permacore.iam.service;
 
 import java.util.Collection;
 
-/** Coordinates durable personal and global authorization-version invalidation. */
+/**
+ * Coordinates durable personal, per-role and global authorization-version invalidation.
+ * <p>
+ * Inside a transaction, calls are collected and written once just before commit, and caches are notified only after
+ * commit. Outside a transaction they take effect immediately.
+ */
 public interface AuthorizationStateService {
-    /** Invalidates every issued token with a single global version increment. */
-    void invalidateAllUsers();
-
     /** Invalidates tokens for the specified users by incrementing personal versions. */
     void invalidateUsers(Collection<Long> userIds);
+
+    /**
+     * Invalidates the sessions whose effective roles include any of the given roles by incrementing those role
+     * versions, then increments the global version so every node reloads its role graph, SoD index and permission
+     * catalog. Tokens that use none of the roles stay valid. An empty collection revokes nothing and only moves the
+     * global version, for changes such as a new permission that admin:* expands to.
+     * <p>
+     * The caller must already hold {@code SysRoleMapper#lockGraphEpoch()} in the current transaction; that row lock
+     * serializes role invalidations and keeps the version writes deadlock-free.
+     */
+    void invalidateRoles(Collection<Long> roleIds);
 }
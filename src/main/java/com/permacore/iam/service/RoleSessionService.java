@@ -1,5 +1,6 @@
 package com.permacore.iam.service;
 
+import com.permacore.iam.domain.entity.SysUserEntity;
 import com.permacore.iam.domain.vo.SessionRoleStateVO;
 
 import java.util.Collection;
@@ -12,6 +13,15 @@ public interface RoleSessionService {
 
     SessionRoleStateVO buildState(Long userId, Collection<Long> activeRoleIds);
 
+    /**
+     * 与 {@link #buildDefaultState(Long)} 相同，但按用户行上的 authVersion/globalAuthVersion 复用已计算的状态。
+     * user 必须是本事务内从数据库读到的行。
+     */
+    SessionRoleStateVO buildDefaultState(SysUserEntity user);
+
+    /** 与 {@link #buildState(Long, Collection)} 相同，但按用户行上的两个授权版本复用已计算的状态。 */
+    SessionRoleStateVO buildState(SysUserEntity user, Collection<Long> activeRoleIds);
+
     Set<Long> resolveEffectiveRoleIds(Collection<Long> directRoleIds);
 
     Set<String> getPermissionsByEffectiveRoleIds(Set<Long> effectiveRoleIds);
@@ -20,5 +30,8 @@ public interface RoleSessionService {
 
     Map<String, Object> buildJwtClaims(Long userId, String username, String nickname, SessionRoleStateVO state);
 
+    /** 令牌中的角色版本摘要是否仍与其有效角色的当前授权版本一致。 */
+    boolean matchesRoleVersions(Map<String, Object> claims, long globalAuthVersion);
+
     void appendSessionState(Map<String, Object> response, SessionRoleStateVO state);
 }
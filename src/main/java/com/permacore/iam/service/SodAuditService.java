@@ -0,0 +1,28 @@
+package com.permacore.iam.service;
+
+import com.permacore.iam.domain.vo.SodAuditPageVO;
+import com.permacore.iam.domain.vo.SodViolationVO;
+
+import java.util.function.Consumer;
+
+/**
+ * 全量 SSD 合规审计：迁移或批量导入后按当前约束与继承图复核所有未删除用户。
+ */
+public interface SodAuditService {
+
+    /**
+     * 流式审计 user_id 大于 afterUserId 的用户，userLimit 为空时审计到末尾。
+     * 违规按用户 id 升序在调用线程中逐条交给 sink，内存占用与用户总数无关。
+     */
+    Summary audit(long afterUserId, Integer userLimit, Consumer<SodViolationVO> sink);
+
+    /** 按持有角色的用户做 keyset 分页审计。 */
+    SodAuditPageVO auditPage(Long afterUserId, Integer limit);
+
+    /**
+     * @param lastUserId        本次审计到的最后一个用户，没有用户时为 null
+     * @param globalAuthVersion 审计所用约束与继承图的全局授权版本
+     */
+    record Summary(long usersScanned, long violationCount, Long lastUserId, long globalAuthVersion) {
+    }
+}
@@ -3,6 +3,7 @@ package com.permacore.iam.service;
 import com.permacore.iam.domain.entity.SysRoleInheritanceEntity;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -20,4 +21,10 @@ public interface SysRoleInheritanceService extends IService<SysRoleInheritanceEn
     void addInheritance(Long childId, Long parentId);
 
     void removeInheritance(Long childId, Long parentId);
+
+    /**
+     * 按当前直接继承边重建给定后代角色的闭包行，用于删除角色等会切断继承路径的变更。
+     * 必须在已持有 lockGraphEpoch 的事务内调用。
+     */
+    void rebuildClosure(Collection<Long> descendantIds);
 }
@@ -4,6 +4,7 @@ import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.service.IService;
 import com.permacore.iam.domain.entity.SysPermissionEntity;
 import com.permacore.iam.domain.entity.SysRoleEntity;
+import com.permacore.iam.domain.vo.RoleDescendantVO;
 
 import java.util.List;
 
@@ -37,4 +38,9 @@ public interface SysRoleService extends IService<SysRoleEntity> {
     List<SysPermissionEntity> getRolePermissions(Long roleId);
 
     List<Long> getDescendantRoleIds(Long roleId);
+
+    /**
+     * 获取角色的全部后代及其继承深度，按深度、角色ID升序
+     */
+    List<RoleDescendantVO> getDescendantTree(Long roleId);
 }
@@ -1,51 +1,222 @@
 package com.permacore.iam.service.impl;
 
+import com.permacore.iam.mapper.SysRoleMapper;
 import com.permacore.iam.mapper.SysUserMapper;
+import com.permacore.iam.domain.entity.SysUserEntity;
+import com.permacore.iam.security.authz.AuthorizationStateCache;
+import com.permacore.iam.utils.RedisCacheUtil;
 import com.permacore.iam.service.AuthorizationStateService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.util.Collection;
-import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Objects;
+import java.util.TreeSet;
 
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class AuthorizationStateServiceImpl implements AuthorizationStateService {
 
+    private static final int BATCH_SIZE = 500;
+
     private final SysUserMapper userMapper;
+    private final AuthorizationStateCache authorizationStateCache;
+    private final RedisCacheUtil redisCacheUtil;
+    private final SysRoleMapper roleMapper;
 
+    /**
+     * 角色版本决定哪些令牌失效，全局版本只通知各节点重建角色图、SoD 索引与权限目录快照。
+     * 调用方须已在当前事务内通过 {@link SysRoleMapper#lockGraphEpoch()} 锁定全局单例行，
+     * 事务内多次调用合并为一次全局递增，在提交前随其他失效一并写入。
+     */
     @Override
-    public void invalidateAllUsers() {
-        int updated = userMapper.incrementGlobalAuthVersion();
-        if (updated != 1) {
-            throw new IllegalStateException("全局授权版本单例行不存在");
+    public void invalidateRoles(Collection<Long> roleIds) {
+        PendingInvalidation pending = pendingInvalidation();
+        if (roleIds != null) {
+            roleIds.stream().filter(Objects::nonNull).forEach(pending.roleIds::add);
         }
-        log.info("全部授权状态已失效: globalAuthVersionIncremented=true");
+        pending.global = true;
+        flushIfNoTransaction(pending);
     }
 
     @Override
     public void invalidateUsers(Collection<Long> userIds) {
-        if (userIds == null || userIds.isEmpty()) {
+        if (userIds == null || userIds.stream().allMatch(Objects::isNull)) {
             return;
         }
-        LinkedHashSet<Long> distinctIds = new LinkedHashSet<>();
-        userIds.stream().filter(Objects::nonNull).forEach(distinctIds::add);
-        List<Long> ids = List.copyOf(distinctIds);
-        if (ids.isEmpty()) {
+        PendingInvalidation pending = pendingInvalidation();
+        userIds.stream().filter(Objects::nonNull).forEach(pending.userIds::add);
+        flushIfNoTransaction(pending);
+    }
+
+    /**
+     * 事务内的失效先收集到绑定在当前事务上的集合，提交前按 id 升序一次写入，缩短版本行锁的持有时间；
+     * 无事务时立即写入并通知。
+     */
+    private PendingInvalidation pendingInvalidation() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return new PendingInvalidation(false);
+        }
+        PendingInvalidation pending =
+                (PendingInvalidation) TransactionSynchronizationManager.getResource(PendingInvalidation.class);
+        if (pending != null) {
+            return pending;
+        }
+        PendingInvalidation created = new PendingInvalidation(true);
+        TransactionSynchronizationManager.bindResource(PendingInvalidation.class, created);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void suspend() {
+                // REQUIRES_NEW 的内层事务有自己的收集器，不能并入外层
+                TransactionSynchronizationManager.unbindResourceIfPossible(PendingInvalidation.class);
+            }
+
+            @Override
+            public void resume() {
+                TransactionSynchronizationManager.bindResource(PendingInvalidation.class, created);
+            }
+
+            @Override
+            public void beforeCommit(boolean readOnly) {
+                writePending(created);
+            }
+
+            @Override
+            public void afterCommit() {
+                publishPending(created);
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                TransactionSynchronizationManager.unbindResourceIfPossible(PendingInvalidation.class);
+            }
+        });
+        return created;
+    }
+
+    private void flushIfNoTransaction(PendingInvalidation pending) {
+        if (!pending.transactional) {
+            writePending(pending);
+            publishPending(pending);
+        }
+    }
+
+    /**
+     * 失效角色的事务已先经 {@link SysRoleMapper#lockGraphEpoch()} 锁定全局单例行，彼此串行，
+     * 因此实际加锁顺序是全局单例行、角色行、用户行，递增全局版本时该行已由本事务持有。
+     * 只失效用户的事务在此只锁用户行；各组内按 id 升序，并发事务不会交叉等待。
+     */
+    private void writePending(PendingInvalidation pending) {
+        List<Long> roleIds = List.copyOf(pending.roleIds);
+        for (int start = 0; start < roleIds.size(); start += BATCH_SIZE) {
+            roleMapper.incrementAuthVersions(roleIds.subList(start, Math.min(start + BATCH_SIZE, roleIds.size())));
+        }
+        if (pending.global) {
+            int updated = userMapper.incrementGlobalAuthVersion();
+            if (updated != 1) {
+                throw new IllegalStateException("全局授权版本单例行不存在");
+            }
+            // 单例行已被本事务锁定，读到的就是本次提交后的版本
+            Long committedVersion = userMapper.selectGlobalAuthVersion();
+            if (committedVersion == null) {
+                throw new IllegalStateException("全局授权版本单例行不存在");
+            }
+            pending.committedGlobalVersion = committedVersion;
+            redisCacheUtil.evictGlobalAuthVersion();
+            log.info("角色授权版本已失效: roleIds={}, globalAuthVersion={}", roleIds, committedVersion);
+        }
+        List<Long> userIds = List.copyOf(pending.userIds);
+        if (userIds.isEmpty()) {
             return;
         }
         int updated = 0;
-        for (int start = 0; start < ids.size(); start += 500) {
-            int end = Math.min(start + 500, ids.size());
-            updated += userMapper.incrementAuthVersions(ids.subList(start, end));
+        for (int start = 0; start < userIds.size(); start += BATCH_SIZE) {
+            updated += userMapper.incrementAuthVersions(
+                    userIds.subList(start, Math.min(start + BATCH_SIZE, userIds.size())));
+        }
+        if (updated != userIds.size()) {
+            log.warn("部分用户授权版本未更新: requested={}, updated={}", userIds.size(), updated);
         }
-        if (updated != ids.size()) {
-            log.warn("部分用户授权版本未更新: requested={}, updated={}", ids.size(), updated);
+        redisCacheUtil.evictUserAuthorizationStates(userIds);
+        log.info("授权状态已失效: userCount={}", userIds.size());
+    }
+
+    /**
+     * 节点缓存只能在新版本对其他连接可见后驱逐，否则并发请求可能把提交前的旧版本重新载入缓存。
+     */
+    private void publishPending(PendingInvalidation pending) {
+        if (pending.committedGlobalVersion != null) {
+            authorizationStateCache.publishGlobal(pending.committedGlobalVersion);
+            writeThroughGlobalVersion(pending.committedGlobalVersion);
+        }
+        if (!pending.userIds.isEmpty()) {
+            List<Long> userIds = List.copyOf(pending.userIds);
+            authorizationStateCache.evictUsers(userIds);
+            writeThroughUserStates(userIds);
+        }
+    }
+
+    /**
+     * Redis Hash 模式下把提交后的新版本写回。事务内已先删除旧字段，期间请求回源 MySQL；
+     * 写回采用只增不减的版本比较，提交前读到旧版本的并发回源写入会被这里覆盖。
+     * 写回失败时改为再删除一次，不让并发回源写入的旧版本留在 Redis；删除也失败时旧值最多存活一个 TTL。
+     */
+    private void writeThroughUserStates(List<Long> ids) {
+        if (!redisCacheUtil.isAuthStateHashEnabled()) {
+            return;
+        }
+        try {
+            for (int start = 0; start < ids.size(); start += BATCH_SIZE) {
+                List<SysUserEntity> rows = userMapper.selectAuthorizationStatesByIds(
+                        ids.subList(start, Math.min(start + BATCH_SIZE, ids.size())));
+                redisCacheUtil.cacheUserAuthorizationStates(rows.stream()
+                        .filter(row -> row.getAuthVersion() != null)
+                        .map(row -> new RedisCacheUtil.UserAuthorizationState(row.getId(), row.getAuthVersion(),
+                                row.getStatus() == null ? 0 : row.getStatus(),
+                                row.getDelFlag() == null ? 1 : row.getDelFlag()))
+                        .toList());
+            }
+        } catch (RuntimeException e) {
+            log.error("授权状态写回 Redis 失败，改为删除: userCount={}", ids.size(), e);
+            try {
+                redisCacheUtil.evictUserAuthorizationStates(ids);
+            } catch (RuntimeException evictFailure) {
+                log.error("授权状态删除失败，Redis 旧值将在 TTL 后过期: userCount={}", ids.size(), evictFailure);
+            }
+        }
+    }
+
+    private void writeThroughGlobalVersion(long globalAuthVersion) {
+        if (!redisCacheUtil.isAuthStateHashEnabled()) {
+            return;
+        }
+        try {
+            redisCacheUtil.cacheGlobalAuthVersion(globalAuthVersion);
+        } catch (RuntimeException e) {
+            log.error("全局授权版本写回 Redis 失败，改为删除", e);
+            try {
+                redisCacheUtil.evictGlobalAuthVersion();
+            } catch (RuntimeException evictFailure) {
+                log.error("全局授权版本删除失败，Redis 旧值将在 TTL 后过期", evictFailure);
+            }
+        }
+    }
+
+    /** 一个事务内累积的失效，TreeSet 同时完成去重与升序。 */
+    private static final class PendingInvalidation {
+        private final boolean transactional;
+        private final TreeSet<Long> roleIds = new TreeSet<>();
+        private final TreeSet<Long> userIds = new TreeSet<>();
+        private boolean global;
+        private Long committedGlobalVersion;
+
+        private PendingInvalidation(boolean transactional) {
+            this.transactional = transactional;
         }
-        log.info("授权状态已失效: userCount={}", ids.size());
     }
 }
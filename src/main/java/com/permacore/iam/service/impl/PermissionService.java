@@ -1,8 +1,9 @@
 package com.permacore.iam.service.impl;
 
 import com.permacore.iam.mapper.SysPermissionMapper;
-import com.permacore.iam.mapper.SysRoleInheritanceMapper;
 import com.permacore.iam.mapper.SysRolePermissionMapper;
+import com.permacore.iam.security.authz.PermissionCatalog;
+import com.permacore.iam.security.authz.RoleGraph;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
@@ -21,7 +22,8 @@ public class PermissionService {
 
     private final SysRolePermissionMapper rolePermissionMapper;
     private final SysPermissionMapper permissionMapper;
-    private final SysRoleInheritanceMapper roleInheritanceMapper;
+    private final RoleGraph roleGraph;
+    private final PermissionCatalog permissionCatalog;
 
     public Set<String> getPermissionsByRoleIds(Set<Long> roleIds) {
         if (roleIds == null || roleIds.isEmpty()) {
@@ -43,10 +45,8 @@ public class PermissionService {
             return roleIds;
         }
 
-        Set<Long> inheritedRoleIds = roleInheritanceMapper.selectAllAncestorIdsByDescendantIds(roleIds);
-        if (inheritedRoleIds != null && !inheritedRoleIds.isEmpty()) {
-            roleIds.addAll(inheritedRoleIds);
-        }
+        // SSD 校验在写事务内执行，先回源确认全局版本，避免用到其他节点尚未推送过来的旧继承图
+        roleIds.addAll(roleGraph.confirmed().ancestorsOf(roleIds, false));
         return roleIds;
     }
 
@@ -56,10 +56,7 @@ public class PermissionService {
             return result;
         }
 
-        Set<String> allEnabledPermissions = permissionMapper.selectAllEnabledPermKeys();
-        if (allEnabledPermissions != null && !allEnabledPermissions.isEmpty()) {
-            result.addAll(allEnabledPermissions);
-        }
+        result.addAll(permissionCatalog.current().permissionKeys());
         return result;
     }
 }
@@ -1,22 +1,22 @@
 package com.permacore.iam.service.impl;
 
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.permacore.iam.domain.entity.SysPermissionEntity;
 import com.permacore.iam.domain.entity.SysRoleEntity;
-import com.permacore.iam.domain.entity.SysSodConstraintEntity;
+import com.permacore.iam.domain.entity.SysUserEntity;
 import com.permacore.iam.domain.vo.DsdConflictVO;
 import com.permacore.iam.domain.vo.SessionRoleStateVO;
 import com.permacore.iam.domain.vo.SessionRoleVO;
 import com.permacore.iam.mapper.SysPermissionMapper;
-import com.permacore.iam.mapper.SysRoleInheritanceMapper;
 import com.permacore.iam.mapper.SysRoleMapper;
 import com.permacore.iam.mapper.SysRolePermissionMapper;
 import com.permacore.iam.mapper.SysUserRoleMapper;
+import com.permacore.iam.security.authz.PermissionCatalog;
+import com.permacore.iam.security.authz.RoleGraph;
+import com.permacore.iam.security.authz.SessionRoleStateCache;
+import com.permacore.iam.security.authz.SodConstraintIndex;
 import com.permacore.iam.security.handler.BusinessException;
 import com.permacore.iam.service.RoleSessionService;
-import com.permacore.iam.service.SysSodConstraintService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
@@ -35,6 +35,7 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 @Slf4j
@@ -43,6 +44,7 @@ import java.util.stream.Collectors;
 public class RoleSessionServiceImpl implements RoleSessionService {
 
     private static final String ADMIN_PERMISSION = "admin:*";
+    private static final String ROLE_VERSION_DIGEST_CLAIM = "roleVersionDigest";
     private static final int MAX_JWT_PERMISSION_COUNT = 256;
     private static final int MAX_JWT_PERMISSION_BYTES = 2048;
 
@@ -50,39 +52,98 @@ public class RoleSessionServiceImpl implements RoleSessionService {
     private final SysRoleMapper roleMapper;
     private final SysRolePermissionMapper rolePermissionMapper;
     private final SysPermissionMapper permissionMapper;
-    private final SysRoleInheritanceMapper roleInheritanceMapper;
-    private final SysSodConstraintService sodConstraintService;
-    private final ObjectMapper objectMapper;
+    private final PermissionCatalog permissionCatalog;
+    private final RoleGraph roleGraph;
+    private final SodConstraintIndex sodConstraintIndex;
+    private final SessionRoleStateCache sessionRoleStateCache;
 
     @Override
     public SessionRoleStateVO buildDefaultState(Long userId) {
+        return buildDefaultState(userId, roleGraph.current(), sodConstraintIndex.current());
+    }
+
+    @Override
+    public SessionRoleStateVO buildState(Long userId, Collection<Long> activeRoleIds) {
+        return buildState(userId, normalizeRoleIds(activeRoleIds), roleGraph.current(),
+                sodConstraintIndex.current());
+    }
+
+    @Override
+    public SessionRoleStateVO buildDefaultState(SysUserEntity user) {
+        return cachedState(user, null);
+    }
+
+    @Override
+    public SessionRoleStateVO buildState(SysUserEntity user, Collection<Long> activeRoleIds) {
+        return cachedState(user, List.copyOf(normalizeRoleIds(activeRoleIds)));
+    }
+
+    /**
+     * 状态只取决于用户的角色分配与全局角色/权限/SoD 数据，两者分别由 authVersion 与 globalAuthVersion 覆盖。
+     * 快照按用户行上的全局版本取，节点版本落后时先重建，保证写入缓存的状态不早于键中的版本。
+     */
+    private SessionRoleStateVO cachedState(SysUserEntity user, List<Long> activeRoleIds) {
+        if (user.getGlobalAuthVersion() == null) {
+            throw new IllegalStateException("全局授权版本未初始化");
+        }
+        long globalAuthVersion = user.getGlobalAuthVersion();
+        long authVersion = user.getAuthVersion() == null ? 0L : user.getAuthVersion();
+        SessionRoleStateCache.Key key = new SessionRoleStateCache.Key(
+                user.getId(), activeRoleIds, authVersion, globalAuthVersion);
+        return sessionRoleStateCache.get(key, () -> {
+            RoleGraph.Snapshot graph = roleGraph.forVersion(globalAuthVersion);
+            SodConstraintIndex.Snapshot sod = sodConstraintIndex.forVersion(globalAuthVersion);
+            return activeRoleIds == null
+                    ? buildDefaultState(user.getId(), graph, sod)
+                    : buildState(user.getId(), activeRoleIds, graph, sod);
+        });
+    }
+
+    /**
+     * 按排序依次尝试激活已分配角色，跳过会与已选角色构成动态互斥的角色。
+     * <p>
+     * 整个贪心过程只取一次角色图与 SoD 索引快照：已选角色的有效集合增量维护，候选角色只追加自身及其启用祖先，
+     * 冲突时回退本次追加的部分。登录与刷新时的查询数因此与用户角色数无关。
+     */
+    private SessionRoleStateVO buildDefaultState(Long userId, RoleGraph.Snapshot graph,
+            SodConstraintIndex.Snapshot sod) {
         List<SysRoleEntity> assignableRoles = getAssignableRoles(userId);
-        validateStaticSod(userId, assignableRoles);
+        validateStaticSod(userId, assignableRoles, graph, sod);
         LinkedHashSet<Long> selectedRoleIds = new LinkedHashSet<>();
-        List<DsdConflictVO> lastConflicts = new ArrayList<>();
+        Set<Long> effectiveRoleIds = new HashSet<>();
+        List<SodConstraintIndex.Conflict> lastConflicts = List.of();
 
         for (SysRoleEntity role : assignableRoles) {
-            LinkedHashSet<Long> candidate = new LinkedHashSet<>(selectedRoleIds);
-            candidate.add(role.getId());
-            Set<Long> effectiveRoleIds = resolveEffectiveRoleIds(candidate);
-            List<DsdConflictVO> conflicts = findDsdConflicts(effectiveRoleIds);
+            List<Long> added = new ArrayList<>();
+            if (effectiveRoleIds.add(role.getId())) {
+                added.add(role.getId());
+            }
+            for (Long ancestorId : graph.ancestorsOf(List.of(role.getId()), true)) {
+                if (effectiveRoleIds.add(ancestorId)) {
+                    added.add(ancestorId);
+                }
+            }
+            List<SodConstraintIndex.Conflict> conflicts = added.isEmpty()
+                    ? List.of()
+                    : sod.conflicts(SodConstraintIndex.DSD, effectiveRoleIds);
             if (conflicts.isEmpty()) {
                 selectedRoleIds.add(role.getId());
             } else {
+                effectiveRoleIds.removeAll(added);
                 lastConflicts = conflicts;
             }
         }
 
-        SessionRoleStateVO state = buildValidState(userId, assignableRoles, selectedRoleIds);
-        state.setDsdConflicts(lastConflicts);
+        SessionRoleStateVO state = buildValidState(userId, assignableRoles, selectedRoleIds, effectiveRoleIds,
+                graph, sod);
+        state.setDsdConflicts(toConflictVOs(lastConflicts, assignableRoles));
         return state;
     }
 
-    @Override
-    public SessionRoleStateVO buildState(Long userId, Collection<Long> activeRoleIds) {
+    private SessionRoleStateVO buildState(Long userId, Collection<Long> normalizedActiveRoleIds,
+            RoleGraph.Snapshot graph, SodConstraintIndex.Snapshot sod) {
         List<SysRoleEntity> assignableRoles = getAssignableRoles(userId);
-        validateStaticSod(userId, assignableRoles);
-        LinkedHashSet<Long> normalizedActiveRoleIds = normalizeRoleIds(activeRoleIds);
+        validateStaticSod(userId, assignableRoles, graph, sod);
         Set<Long> assignableRoleIds = assignableRoles.stream()
                 .map(SysRoleEntity::getId)
                 .collect(Collectors.toSet());
@@ -94,32 +155,22 @@ public class RoleSessionServiceImpl implements RoleSessionService {
             throw new BusinessException("只能激活当前用户已分配且启用的角色: " + illegalRoleIds);
         }
 
-        return buildValidState(userId, assignableRoles, normalizedActiveRoleIds);
+        return buildValidState(userId, assignableRoles, normalizedActiveRoleIds,
+                resolveEffectiveRoleIds(normalizedActiveRoleIds, graph), graph, sod);
     }
 
     @Override
     public Set<Long> resolveEffectiveRoleIds(Collection<Long> directRoleIds) {
-        LinkedHashSet<Long> effectiveRoleIds = normalizeRoleIds(directRoleIds);
-        if (effectiveRoleIds.isEmpty()) {
-            return effectiveRoleIds;
-        }
-
-        Set<Long> inheritedRoleIds = roleInheritanceMapper.selectAncestorIdsByDescendantIds(effectiveRoleIds);
-        if (inheritedRoleIds != null && !inheritedRoleIds.isEmpty()) {
-            List<SysRoleEntity> enabledAncestors = roleMapper.selectList(
-                    new LambdaQueryWrapper<SysRoleEntity>()
-                            .in(SysRoleEntity::getId, inheritedRoleIds)
-                            .eq(SysRoleEntity::getStatus, (byte) 1)
-                            .eq(SysRoleEntity::getDelFlag, (byte) 0));
-            if (enabledAncestors != null) {
-                enabledAncestors.stream().map(SysRoleEntity::getId).forEach(effectiveRoleIds::add);
-            }
-        }
-        return effectiveRoleIds;
+        return resolveEffectiveRoleIds(directRoleIds, roleGraph.current());
     }
 
     @Override
     public Set<String> getPermissionsByEffectiveRoleIds(Set<Long> effectiveRoleIds) {
+        return getPermissionsByEffectiveRoleIds(effectiveRoleIds, permissionCatalog::current);
+    }
+
+    private Set<String> getPermissionsByEffectiveRoleIds(Set<Long> effectiveRoleIds,
+            Supplier<PermissionCatalog.Snapshot> catalog) {
         if (CollectionUtils.isEmpty(effectiveRoleIds)) {
             return new TreeSet<>();
         }
@@ -128,7 +179,7 @@ public class RoleSessionServiceImpl implements RoleSessionService {
             return new TreeSet<>();
         }
         Set<String> permissions = permissionMapper.selectPermKeysByIds(permissionIds);
-        return expandAdminPermission(permissions);
+        return expandAdminPermission(permissions, catalog);
     }
 
     @Override
@@ -167,9 +218,25 @@ public class RoleSessionServiceImpl implements RoleSessionService {
         claims.put("activeRoleIds", state.getActiveRoleIds());
         claims.put("effectiveRoleIds", state.getEffectiveRoleIds());
         claims.put("permissions", compactPermissionsForJwt(state.getPermissions()));
+        claims.put(ROLE_VERSION_DIGEST_CLAIM, state.getRoleVersionDigest());
         return claims;
     }
 
+    /**
+     * 调用方持有授权图共享锁，按用户行上的全局版本取到的快照即本事务看到的角色版本。
+     * 令牌缺少摘要（升级前签发）时视为不匹配。
+     */
+    @Override
+    public boolean matchesRoleVersions(Map<String, Object> claims, long globalAuthVersion) {
+        Object digest = claims.get(ROLE_VERSION_DIGEST_CLAIM);
+        if (!(digest instanceof Number)) {
+            return false;
+        }
+        List<Long> effectiveRoleIds = parseRoleIdsClaim(claims.get("effectiveRoleIds"));
+        return roleGraph.forVersion(globalAuthVersion).roleVersionDigest(effectiveRoleIds)
+                == ((Number) digest).longValue();
+    }
+
     @Override
     public void appendSessionState(Map<String, Object> response, SessionRoleStateVO state) {
         response.put("activeRoleIds", state.getActiveRoleIds());
@@ -180,29 +247,41 @@ public class RoleSessionServiceImpl implements RoleSessionService {
     }
 
     private SessionRoleStateVO buildValidState(Long userId, List<SysRoleEntity> assignableRoles,
-            Collection<Long> activeRoleIds) {
+            Collection<Long> activeRoleIds, Set<Long> effectiveRoleIds, RoleGraph.Snapshot graph,
+            SodConstraintIndex.Snapshot sod) {
         LinkedHashSet<Long> activeIdSet = normalizeRoleIds(activeRoleIds);
-        Set<Long> effectiveRoleIds = resolveEffectiveRoleIds(activeIdSet);
-        List<DsdConflictVO> conflicts = findDsdConflicts(effectiveRoleIds);
+        List<SodConstraintIndex.Conflict> conflicts = sod.conflicts(SodConstraintIndex.DSD, effectiveRoleIds);
         if (!conflicts.isEmpty()) {
             String names = conflicts.stream()
-                    .map(DsdConflictVO::getConstraintName)
+                    .map(conflict -> conflict.constraint().name())
                     .collect(Collectors.joining(", "));
             throw new BusinessException("会话角色激活违反动态职责分离约束: " + names);
         }
 
-        Set<String> permissions = getPermissionsByEffectiveRoleIds(effectiveRoleIds);
+        Set<String> permissions = getPermissionsByEffectiveRoleIds(effectiveRoleIds,
+                () -> permissionCatalog.forVersion(graph.version()));
         SessionRoleStateVO state = new SessionRoleStateVO();
         state.setActiveRoleIds(new ArrayList<>(activeIdSet));
         state.setEffectiveRoleIds(effectiveRoleIds.stream().sorted().collect(Collectors.toList()));
         state.setPermissions(new ArrayList<>(permissions));
         state.setRoles(buildRoleVOs(assignableRoles, activeIdSet, effectiveRoleIds));
-        state.setDsdConflicts(conflicts);
+        state.setDsdConflicts(new ArrayList<>());
+        state.setRoleVersionDigest(graph.roleVersionDigest(effectiveRoleIds));
         log.debug("Build role session state: userId={}, active={}, effective={}, permissionCount={}",
                 userId, activeIdSet, effectiveRoleIds, permissions.size());
         return state;
     }
 
+    private Set<Long> resolveEffectiveRoleIds(Collection<Long> directRoleIds, RoleGraph.Snapshot graph) {
+        LinkedHashSet<Long> effectiveRoleIds = normalizeRoleIds(directRoleIds);
+        if (effectiveRoleIds.isEmpty()) {
+            return effectiveRoleIds;
+        }
+
+        effectiveRoleIds.addAll(graph.ancestorsOf(effectiveRoleIds, true));
+        return effectiveRoleIds;
+    }
+
     private List<SysRoleEntity> getAssignableRoles(Long userId) {
         List<Long> roleIds = userRoleMapper.selectRoleIdsByUserId(userId);
         if (roleIds == null || roleIds.isEmpty()) {
@@ -240,64 +319,50 @@ public class RoleSessionServiceImpl implements RoleSessionService {
         }).collect(Collectors.toList());
     }
 
-    private List<DsdConflictVO> findDsdConflicts(Set<Long> effectiveRoleIds) {
-        if (CollectionUtils.isEmpty(effectiveRoleIds)) {
-            return List.of();
-        }
-
-        List<SysSodConstraintEntity> constraints = sodConstraintService.list(
-                new LambdaQueryWrapper<SysSodConstraintEntity>()
-                        .eq(SysSodConstraintEntity::getConstraintType, (byte) 2));
-        if (constraints == null || constraints.isEmpty()) {
-            return List.of();
+    /** 冲突角色名称优先取自已加载的可分配角色，只有继承来的祖先角色才回查一次。 */
+    private List<DsdConflictVO> toConflictVOs(List<SodConstraintIndex.Conflict> matches,
+            List<SysRoleEntity> assignableRoles) {
+        if (matches.isEmpty()) {
+            return new ArrayList<>();
         }
 
-        Map<Long, SysRoleEntity> roleMap = loadRoleMap(effectiveRoleIds);
-        List<DsdConflictVO> conflicts = new ArrayList<>();
-        for (SysSodConstraintEntity constraint : constraints) {
-            List<Long> mutexRoleIds = parseRoleSet(constraint);
-            List<Long> matchedRoleIds = mutexRoleIds.stream()
-                    .filter(effectiveRoleIds::contains)
-                    .distinct()
-                    .collect(Collectors.toList());
-            if (matchedRoleIds.size() >= 2) {
-                DsdConflictVO conflict = new DsdConflictVO();
-                conflict.setConstraintId(constraint.getId());
-                conflict.setConstraintName(constraint.getConstraintName());
-                conflict.setRoleIds(matchedRoleIds);
-                conflict.setRoleNames(matchedRoleIds.stream()
-                        .map(roleMap::get)
-                        .filter(Objects::nonNull)
-                        .map(SysRoleEntity::getRoleName)
-                        .collect(Collectors.toList()));
-                conflicts.add(conflict);
-            }
+        Map<Long, SysRoleEntity> roleMap = new HashMap<>();
+        assignableRoles.forEach(role -> roleMap.put(role.getId(), role));
+        Set<Long> missingRoleIds = matches.stream()
+                .flatMap(match -> match.roleIds().stream())
+                .filter(roleId -> !roleMap.containsKey(roleId))
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+        loadRoleMap(missingRoleIds).forEach(roleMap::putIfAbsent);
+
+        List<DsdConflictVO> conflicts = new ArrayList<>(matches.size());
+        for (SodConstraintIndex.Conflict match : matches) {
+            DsdConflictVO conflict = new DsdConflictVO();
+            conflict.setConstraintId(match.constraint().id());
+            conflict.setConstraintName(match.constraint().name());
+            conflict.setRoleIds(new ArrayList<>(match.roleIds()));
+            conflict.setRoleNames(match.roleIds().stream()
+                    .map(roleMap::get)
+                    .filter(Objects::nonNull)
+                    .map(SysRoleEntity::getRoleName)
+                    .collect(Collectors.toList()));
+            conflicts.add(conflict);
         }
         return conflicts;
     }
 
-    private void validateStaticSod(Long userId, List<SysRoleEntity> assignableRoles) {
+    private void validateStaticSod(Long userId, List<SysRoleEntity> assignableRoles,
+            RoleGraph.Snapshot graph, SodConstraintIndex.Snapshot sod) {
         if (assignableRoles == null || assignableRoles.isEmpty()) {
             return;
         }
         Set<Long> effectiveAssignedRoles = resolveEffectiveRoleIds(assignableRoles.stream()
                 .map(SysRoleEntity::getId)
-                .collect(Collectors.toSet()));
-        List<SysSodConstraintEntity> constraints = sodConstraintService.list(
-                new LambdaQueryWrapper<SysSodConstraintEntity>()
-                        .eq(SysSodConstraintEntity::getConstraintType, (byte) 1));
-        if (constraints == null) {
-            return;
-        }
-        for (SysSodConstraintEntity constraint : constraints) {
-            List<Long> conflicts = parseRoleSet(constraint).stream()
-                    .filter(effectiveAssignedRoles::contains)
-                    .distinct()
-                    .toList();
-            if (conflicts.size() >= 2) {
-                throw new BusinessException("用户角色违反静态职责分离约束: userId=" + userId
-                        + ", 约束=" + constraint.getConstraintName());
-            }
+                .collect(Collectors.toSet()), graph);
+        List<SodConstraintIndex.Conflict> conflicts = sod
+                .conflicts(SodConstraintIndex.SSD, effectiveAssignedRoles);
+        if (!conflicts.isEmpty()) {
+            throw new BusinessException("用户角色违反静态职责分离约束: userId=" + userId
+                    + ", 约束=" + conflicts.get(0).constraint().name());
         }
     }
 
@@ -312,16 +377,6 @@ public class RoleSessionServiceImpl implements RoleSessionService {
         return roles.stream().collect(Collectors.toMap(SysRoleEntity::getId, role -> role, (a, b) -> a));
     }
 
-    private List<Long> parseRoleSet(SysSodConstraintEntity constraint) {
-        try {
-            return objectMapper.readValue(constraint.getRoleSet(), new TypeReference<List<Long>>() {
-            }).stream().filter(Objects::nonNull).distinct().toList();
-        } catch (Exception e) {
-            log.error("Invalid SoD role set: constraintId={}", constraint.getId(), e);
-            throw new BusinessException("SoD约束配置无效: " + constraint.getId());
-        }
-    }
-
     private LinkedHashSet<Long> normalizeRoleIds(Collection<Long> roleIds) {
         if (roleIds == null) {
             return new LinkedHashSet<>();
@@ -345,16 +400,13 @@ public class RoleSessionServiceImpl implements RoleSessionService {
         }
     }
 
-    private Set<String> expandAdminPermission(Set<String> permissions) {
+    private Set<String> expandAdminPermission(Set<String> permissions, Supplier<PermissionCatalog.Snapshot> catalog) {
         TreeSet<String> result = permissions == null ? new TreeSet<>() : new TreeSet<>(permissions);
         if (!result.contains(ADMIN_PERMISSION)) {
             return result;
         }
 
-        Set<String> allEnabledPermissions = permissionMapper.selectAllEnabledPermKeys();
-        if (allEnabledPermissions != null && !allEnabledPermissions.isEmpty()) {
-            result.addAll(allEnabledPermissions);
-        }
+        result.addAll(catalog.get().permissionKeys());
         return result;
     }
 
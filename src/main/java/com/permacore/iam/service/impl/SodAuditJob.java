@@ -0,0 +1,125 @@
+package com.permacore.iam.service.impl;
+
+import com.permacore.iam.domain.vo.SodAuditJobVO;
+import com.permacore.iam.domain.vo.SodViolationVO;
+import com.permacore.iam.security.handler.BusinessException;
+import com.permacore.iam.service.SodAuditService;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 后台全量 SSD 审计，供迁移或批量导入后手动触发。同一节点同时只运行一个任务；
+ * 任务只保留按约束汇总的计数与前若干条样例，完整明细由调用方通过分页或 NDJSON 接口获取。
+ */
+@Slf4j
+@Component
+public class SodAuditJob {
+
+    static final String RUNNING = "RUNNING";
+    static final String SUCCEEDED = "SUCCEEDED";
+    static final String FAILED = "FAILED";
+    private static final int SAMPLE_SIZE = 100;
+
+    private final SodAuditService sodAuditService;
+    private final ExecutorService runner = Executors.newSingleThreadExecutor(
+            Thread.ofPlatform().name("sod-audit-job").daemon().factory());
+    private final AtomicReference<Run> latest = new AtomicReference<>();
+
+    public SodAuditJob(SodAuditService sodAuditService) {
+        this.sodAuditService = sodAuditService;
+    }
+
+    public SodAuditJobVO start() {
+        Run previous = latest.get();
+        Run run = new Run(UUID.randomUUID().toString());
+        if ((previous != null && RUNNING.equals(previous.status)) || !latest.compareAndSet(previous, run)) {
+            throw new BusinessException("已有SoD合规审计任务在运行，请稍后再试");
+        }
+        runner.execute(() -> run.execute(sodAuditService));
+        log.info("SSD合规审计任务已启动: jobId={}", run.jobId);
+        return run.toVO();
+    }
+
+    /** 最近一次任务，从未运行过时返回 null。 */
+    public SodAuditJobVO latest() {
+        Run run = latest.get();
+        return run == null ? null : run.toVO();
+    }
+
+    @PreDestroy
+    void stop() {
+        runner.shutdownNow();
+    }
+
+    private static final class Run {
+
+        private final String jobId;
+        private final LocalDateTime startTime = LocalDateTime.now();
+        private final LongAdder violationCount = new LongAdder();
+        private final Map<Long, LongAdder> violationsByConstraint = new ConcurrentHashMap<>();
+        private final List<SodViolationVO> sampleViolations = new CopyOnWriteArrayList<>();
+        private final AtomicLong usersScanned = new AtomicLong();
+        private volatile String status = RUNNING;
+        private volatile LocalDateTime finishTime;
+        private volatile Long globalAuthVersion;
+        private volatile String errorMessage;
+
+        private Run(String jobId) {
+            this.jobId = jobId;
+        }
+
+        private void execute(SodAuditService sodAuditService) {
+            try {
+                SodAuditService.Summary summary = sodAuditService.audit(0L, null, this::record);
+                usersScanned.set(summary.usersScanned());
+                globalAuthVersion = summary.globalAuthVersion();
+                status = SUCCEEDED;
+            } catch (RuntimeException e) {
+                log.error("SSD合规审计任务失败: jobId={}", jobId, e);
+                errorMessage = e.getMessage();
+                status = FAILED;
+            } finally {
+                finishTime = LocalDateTime.now();
+            }
+        }
+
+        private void record(SodViolationVO violation) {
+            violationCount.increment();
+            violationsByConstraint.computeIfAbsent(violation.getConstraintId(), id -> new LongAdder()).increment();
+            if (sampleViolations.size() < SAMPLE_SIZE) {
+                sampleViolations.add(violation);
+            }
+        }
+
+        private SodAuditJobVO toVO() {
+            SodAuditJobVO vo = new SodAuditJobVO();
+            vo.setJobId(jobId);
+            vo.setStatus(status);
+            vo.setStartTime(startTime);
+            vo.setFinishTime(finishTime);
+            vo.setUsersScanned(usersScanned.get());
+            vo.setViolationCount(violationCount.sum());
+            vo.setGlobalAuthVersion(globalAuthVersion);
+            Map<Long, Long> byConstraint = new TreeMap<>();
+            violationsByConstraint.forEach((id, count) -> byConstraint.put(id, count.sum()));
+            vo.getViolationsByConstraint().putAll(byConstraint);
+            vo.getSampleViolations().addAll(sampleViolations);
+            vo.setErrorMessage(errorMessage);
+            return vo;
+        }
+    }
+}
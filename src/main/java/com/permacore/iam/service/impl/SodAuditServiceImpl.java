@@ -0,0 +1,202 @@
+package com.permacore.iam.service.impl;
+
+import com.permacore.iam.domain.entity.SysUserRoleEntity;
+import com.permacore.iam.domain.vo.SodAuditPageVO;
+import com.permacore.iam.domain.vo.SodViolationVO;
+import com.permacore.iam.mapper.SysUserRoleMapper;
+import com.permacore.iam.security.authz.RoleGraph;
+import com.permacore.iam.security.authz.SodConstraintIndex;
+import com.permacore.iam.security.handler.BusinessException;
+import com.permacore.iam.service.SodAuditService;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.ibatis.cursor.Cursor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+
+/**
+ * 全量 SSD 审计。
+ * <p>
+ * 调用线程用游标按 (user_id, role_id) 顺序读取 sys_user_role，按用户聚合成批提交到专用 ForkJoinPool，
+ * 各批在编译好的 {@link SodConstraintIndex} 与 {@link RoleGraph} 快照上并行求值。在途批次数有上限，
+ * 调用线程按提交顺序取回结果再交给 sink，因此输出按用户 id 有序、内存只与并行度和批大小相关。
+ * 大量用户共享相同的直接角色组合，组合 → 冲突的结果在一次审计内复用。
+ */
+@Slf4j
+@Service
+public class SodAuditServiceImpl implements SodAuditService {
+
+    private static final int USERS_PER_BATCH = 512;
+    private static final int DEFAULT_PAGE_SIZE = 1000;
+    private static final int MAX_PAGE_SIZE = 10000;
+    private static final int MAX_MEMOIZED_ROLE_SETS = 10000;
+
+    private final SysUserRoleMapper userRoleMapper;
+    private final RoleGraph roleGraph;
+    private final SodConstraintIndex sodConstraintIndex;
+    private final ForkJoinPool auditPool;
+    private final int maxBatchesInFlight;
+
+    public SodAuditServiceImpl(SysUserRoleMapper userRoleMapper, RoleGraph roleGraph,
+            SodConstraintIndex sodConstraintIndex,
+            @Value("${app.security.sod-audit.parallelism:0}") int parallelism) {
+        this.userRoleMapper = userRoleMapper;
+        this.roleGraph = roleGraph;
+        this.sodConstraintIndex = sodConstraintIndex;
+        int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        this.auditPool = new ForkJoinPool(threads, pool -> {
+            var worker = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            worker.setName("sod-audit-" + worker.getPoolIndex());
+            return worker;
+        }, null, false);
+        this.maxBatchesInFlight = threads * 2;
+    }
+
+    @PreDestroy
+    void shutdown() {
+        auditPool.shutdownNow();
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public Summary audit(long afterUserId, Integer userLimit, Consumer<SodViolationVO> sink) {
+        // 写事务内的 SSD 校验同样以数据库确认的版本为准
+        RoleGraph.Snapshot graph = roleGraph.confirmed();
+        SodConstraintIndex.Snapshot sod = sodConstraintIndex.forVersion(graph.version());
+        // 约束配置无效时在打开游标前报错
+        sod.conflicts(SodConstraintIndex.SSD, Set.of());
+        Evaluator evaluator = new Evaluator(graph, sod);
+
+        ArrayDeque<ForkJoinTask<List<SodViolationVO>>> inFlight = new ArrayDeque<>();
+        List<UserRoles> batch = new ArrayList<>(USERS_PER_BATCH);
+        long usersScanned = 0;
+        long violationCount = 0;
+        Long currentUserId = null;
+        List<Long> currentRoleIds = null;
+        try (Cursor<SysUserRoleEntity> rows = userRoleMapper.streamUserRolesAfter(afterUserId, userLimit)) {
+            for (SysUserRoleEntity row : rows) {
+                if (!row.getUserId().equals(currentUserId)) {
+                    if (currentUserId != null) {
+                        batch.add(new UserRoles(currentUserId, currentRoleIds));
+                        if (batch.size() == USERS_PER_BATCH) {
+                            inFlight.add(submit(evaluator, batch));
+                            batch = new ArrayList<>(USERS_PER_BATCH);
+                            violationCount += drain(inFlight, maxBatchesInFlight, sink);
+                        }
+                    }
+                    currentUserId = row.getUserId();
+                    currentRoleIds = new ArrayList<>(4);
+                    usersScanned++;
+                }
+                currentRoleIds.add(row.getRoleId());
+            }
+            if (currentUserId != null) {
+                batch.add(new UserRoles(currentUserId, currentRoleIds));
+            }
+            if (!batch.isEmpty()) {
+                inFlight.add(submit(evaluator, batch));
+            }
+            violationCount += drain(inFlight, 0, sink);
+        } catch (IOException e) {
+            throw new UncheckedIOException("关闭用户角色游标失败", e);
+        } finally {
+            inFlight.forEach(task -> task.cancel(true));
+        }
+        log.info("SSD合规审计完成: afterUserId={}, users={}, violations={}, globalAuthVersion={}",
+                afterUserId, usersScanned, violationCount, graph.version());
+        return new Summary(usersScanned, violationCount, currentUserId, graph.version());
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public SodAuditPageVO auditPage(Long afterUserId, Integer limit) {
+        int pageSize = limit == null ? DEFAULT_PAGE_SIZE : limit;
+        if (pageSize < 1 || pageSize > MAX_PAGE_SIZE) {
+            throw new BusinessException("审计分页大小必须在1到" + MAX_PAGE_SIZE + "之间");
+        }
+        SodAuditPageVO page = new SodAuditPageVO();
+        Summary summary = audit(afterUserId == null ? 0L : afterUserId, pageSize, page.getViolations()::add);
+        page.setUsersScanned(summary.usersScanned());
+        page.setGlobalAuthVersion(summary.globalAuthVersion());
+        page.setNextAfterUserId(summary.usersScanned() == pageSize ? summary.lastUserId() : null);
+        return page;
+    }
+
+    private ForkJoinTask<List<SodViolationVO>> submit(Evaluator evaluator, List<UserRoles> batch) {
+        return auditPool.submit(() -> evaluator.evaluate(batch));
+    }
+
+    /** 按提交顺序取回结果，直到在途批次不超过 keep。 */
+    private long drain(ArrayDeque<ForkJoinTask<List<SodViolationVO>>> inFlight, int keep,
+            Consumer<SodViolationVO> sink) {
+        long emitted = 0;
+        while (inFlight.size() > keep) {
+            for (SodViolationVO violation : inFlight.poll().join()) {
+                sink.accept(violation);
+                emitted++;
+            }
+        }
+        return emitted;
+    }
+
+    private record UserRoles(Long userId, List<Long> roleIds) {
+    }
+
+    /** 同一次审计内共享，可被多个工作线程并发调用。 */
+    private static final class Evaluator {
+
+        private final RoleGraph.Snapshot graph;
+        private final SodConstraintIndex.Snapshot sod;
+        private final Map<List<Long>, List<SodConstraintIndex.Conflict>> conflictsByRoleSet =
+                new ConcurrentHashMap<>();
+
+        private Evaluator(RoleGraph.Snapshot graph, SodConstraintIndex.Snapshot sod) {
+            this.graph = graph;
+            this.sod = sod;
+        }
+
+        private List<SodViolationVO> evaluate(List<UserRoles> batch) {
+            List<SodViolationVO> violations = new ArrayList<>();
+            for (UserRoles user : batch) {
+                for (SodConstraintIndex.Conflict conflict : conflictsOf(user.roleIds())) {
+                    SodViolationVO violation = new SodViolationVO();
+                    violation.setUserId(user.userId());
+                    violation.setConstraintId(conflict.constraint().id());
+                    violation.setConstraintName(conflict.constraint().name());
+                    violation.setRoleIds(new ArrayList<>(conflict.roleIds()));
+                    violations.add(violation);
+                }
+            }
+            return violations;
+        }
+
+        /** roleIds 来自按 role_id 排序的游标，可直接作为组合的键。 */
+        private List<SodConstraintIndex.Conflict> conflictsOf(List<Long> roleIds) {
+            List<SodConstraintIndex.Conflict> cached = conflictsByRoleSet.get(roleIds);
+            if (cached != null) {
+                return cached;
+            }
+            Set<Long> potentialRoleIds = new HashSet<>(roleIds);
+            potentialRoleIds.addAll(graph.ancestorsOf(roleIds, false));
+            List<SodConstraintIndex.Conflict> conflicts = sod.conflicts(SodConstraintIndex.SSD, potentialRoleIds);
+            if (conflictsByRoleSet.size() < MAX_MEMOIZED_ROLE_SETS) {
+                conflictsByRoleSet.putIfAbsent(roleIds, conflicts);
+            }
+            return conflicts;
+        }
+    }
+}
@@ -2,32 +2,32 @@ package com.permacore.iam.service.impl;
 
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.permacore.iam.domain.entity.SysRoleEntity;
 import com.permacore.iam.domain.entity.SysRoleInheritanceEntity;
-import com.permacore.iam.domain.entity.SysSodConstraintEntity;
-import com.permacore.iam.domain.entity.SysUserEntity;
 import com.permacore.iam.domain.entity.SysUserRoleEntity;
 import com.permacore.iam.mapper.SysRoleInheritanceMapper;
 import com.permacore.iam.mapper.SysRoleMapper;
-import com.permacore.iam.mapper.SysUserMapper;
 import com.permacore.iam.mapper.SysUserRoleMapper;
+import com.permacore.iam.security.authz.SodConstraintIndex;
 import com.permacore.iam.security.handler.BusinessException;
 import com.permacore.iam.service.SysRoleInheritanceService;
-import com.permacore.iam.service.SysSodConstraintService;
 import com.permacore.iam.service.AuthorizationStateService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.ibatis.cursor.Cursor;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
@@ -48,18 +48,18 @@ import java.util.stream.Collectors;
 @RequiredArgsConstructor
 public class SysRoleInheritanceServiceImpl extends ServiceImpl<SysRoleInheritanceMapper, SysRoleInheritanceEntity> implements SysRoleInheritanceService {
 
+    private static final int CLOSURE_INSERT_BATCH_SIZE = 500;
+
     private final SysRoleInheritanceMapper roleInheritanceMapper;
     private final SysRoleMapper roleMapper;
     private final SysUserRoleMapper userRoleMapper;
-    private final SysUserMapper userMapper;
-    private final SysSodConstraintService sodConstraintService;
-    private final ObjectMapper objectMapper;
+    private final SodConstraintIndex sodConstraintIndex;
     private final AuthorizationStateService authorizationStateService;
 
     @Override
     @Transactional
     public void updateParentRoles(Long roleId, List<Long> parentRoleIds) {
-        roleMapper.lockAllRoleIds();
+        roleMapper.lockGraphEpoch();
         if (roleId == null) {
             throw new BusinessException("角色ID不能为空");
         }
@@ -71,9 +71,17 @@ public class SysRoleInheritanceServiceImpl extends ServiceImpl<SysRoleInheritanc
         }
         validateParentRolesExist(normalizedParentIds);
 
-        Map<Long, Set<Long>> proposedParentMap = buildProposedParentMap(roleId, normalizedParentIds);
-        validateNoCycle(roleId, normalizedParentIds, proposedParentMap);
-        validateExistingUsersAgainstSsd(proposedParentMap);
+        validateNoCycle(roleId, normalizedParentIds);
+        // 只有目标角色及其后代的祖先集合会变化；其余角色的闭包不受影响，也无需加载
+        Set<Long> affectedRoleIds = new LinkedHashSet<>();
+        affectedRoleIds.add(roleId);
+        affectedRoleIds.addAll(roleInheritanceMapper.selectDescendantIds(roleId));
+        Map<Long, Set<Long>> proposedParentMap = loadScopedParentMap(affectedRoleIds, normalizedParentIds);
+        Set<Long> previousAncestorIds = collectAncestors(roleId, proposedParentMap);
+        proposedParentMap.put(roleId, new LinkedHashSet<>(normalizedParentIds));
+        Set<Long> gainedAncestorIds = new LinkedHashSet<>(collectAncestors(roleId, proposedParentMap));
+        gainedAncestorIds.removeAll(previousAncestorIds);
+        validateExistingUsersAgainstSsd(affectedRoleIds, gainedAncestorIds, proposedParentMap);
 
         roleInheritanceMapper.delete(
                 new LambdaQueryWrapper<SysRoleInheritanceEntity>()
@@ -86,14 +94,26 @@ public class SysRoleInheritanceServiceImpl extends ServiceImpl<SysRoleInheritanc
             inheritance.setDepth(1);
             roleInheritanceMapper.insert(inheritance);
         }
-        authorizationStateService.invalidateAllUsers();
+        writeClosure(affectedRoleIds, proposedParentMap);
+        // 只有有效角色含目标角色的会话会增减祖先：后代会话经由它继承时同样含有它
+        authorizationStateService.invalidateRoles(List.of(roleId));
         log.info("角色继承更新完成: roleId={}, parents={}", roleId, normalizedParentIds);
     }
 
+    @Override
+    @Transactional
+    public void rebuildClosure(Collection<Long> descendantIds) {
+        if (descendantIds == null || descendantIds.isEmpty()) {
+            return;
+        }
+        Set<Long> affectedRoleIds = new LinkedHashSet<>(descendantIds);
+        writeClosure(affectedRoleIds, loadScopedParentMap(affectedRoleIds, List.of()));
+    }
+
     @Override
     @Transactional
     public void addInheritance(Long childId, Long parentId) {
-        roleMapper.lockAllRoleIds();
+        roleMapper.lockGraphEpoch();
         List<Long> parents = getDirectParentIds(childId);
         if (parentId != null && !parents.contains(parentId)) {
             parents.add(parentId);
@@ -104,7 +124,7 @@ public class SysRoleInheritanceServiceImpl extends ServiceImpl<SysRoleInheritanc
     @Override
     @Transactional
     public void removeInheritance(Long childId, Long parentId) {
-        roleMapper.lockAllRoleIds();
+        roleMapper.lockGraphEpoch();
         List<Long> parents = getDirectParentIds(childId).stream()
                 .filter(id -> !Objects.equals(id, parentId))
                 .collect(Collectors.toCollection(ArrayList::new));
@@ -160,36 +180,90 @@ public class SysRoleInheritanceServiceImpl extends ServiceImpl<SysRoleInheritanc
         }
     }
 
-    private Map<Long, Set<Long>> buildProposedParentMap(Long roleId, List<Long> parentRoleIds) {
-        List<SysRoleInheritanceEntity> currentEdges = roleInheritanceMapper.selectList(
-                new LambdaQueryWrapper<SysRoleInheritanceEntity>()
-                        .eq(SysRoleInheritanceEntity::getDepth, 1));
-        if (currentEdges == null) {
-            currentEdges = List.of();
+    /**
+     * 加载受影响角色及新父角色向上可达范围内的直接继承边。闭包表给出这些角色的全部祖先，
+     * 范围对"向上"封闭：范围内任一角色的父角色也在范围内，因此在局部图上展开祖先与全图结果一致。
+     */
+    private Map<Long, Set<Long>> loadScopedParentMap(Set<Long> affectedRoleIds, List<Long> parentRoleIds) {
+        Set<Long> scope = new LinkedHashSet<>(affectedRoleIds);
+        scope.addAll(parentRoleIds);
+        List<SysRoleInheritanceEntity> closure = roleInheritanceMapper.selectClosureByDescendantIds(scope);
+        if (closure != null) {
+            closure.stream()
+                    .map(SysRoleInheritanceEntity::getAncestorId)
+                    .filter(Objects::nonNull)
+                    .forEach(scope::add);
         }
 
+        List<SysRoleInheritanceEntity> edges = roleInheritanceMapper.selectDirectEdgesByDescendantIds(scope);
         Map<Long, Set<Long>> parentMap = new HashMap<>();
-        for (SysRoleInheritanceEntity edge : currentEdges) {
-            if (Objects.equals(edge.getDescendantId(), roleId)) {
-                continue;
-            }
+        if (edges == null) {
+            return parentMap;
+        }
+        for (SysRoleInheritanceEntity edge : edges) {
             if (edge.getDescendantId() == null || edge.getAncestorId() == null) {
                 continue;
             }
             parentMap.computeIfAbsent(edge.getDescendantId(), key -> new LinkedHashSet<>())
                     .add(edge.getAncestorId());
         }
-        parentMap.put(roleId, new LinkedHashSet<>(parentRoleIds));
         return parentMap;
     }
 
-    private void validateNoCycle(Long roleId, List<Long> parentRoleIds, Map<Long, Set<Long>> parentMap) {
-        for (Long parentId : parentRoleIds) {
-            Set<Long> ancestors = collectAncestors(parentId, parentMap);
-            if (ancestors.contains(roleId)) {
-                throw new BusinessException("角色继承关系会形成环: roleId=" + roleId + ", parentId=" + parentId);
+    /**
+     * 按直接继承边重写给定角色的间接闭包行：每个可达祖先一行，depth 取最短路径长度。
+     * 调用方已持有 lockGraphEpoch 排他锁，闭包与直接边在同一事务内保持一致。
+     */
+    private void writeClosure(Set<Long> descendantIds, Map<Long, Set<Long>> parentMap) {
+        roleInheritanceMapper.deleteIndirectByDescendantIds(descendantIds);
+        List<SysRoleInheritanceEntity> rows = new ArrayList<>();
+        for (Long descendantId : descendantIds) {
+            ancestorDepths(descendantId, parentMap).forEach((ancestorId, depth) -> {
+                if (depth > 1) {
+                    SysRoleInheritanceEntity row = new SysRoleInheritanceEntity();
+                    row.setAncestorId(ancestorId);
+                    row.setDescendantId(descendantId);
+                    row.setDepth(depth);
+                    rows.add(row);
+                }
+            });
+        }
+        for (int from = 0; from < rows.size(); from += CLOSURE_INSERT_BATCH_SIZE) {
+            roleInheritanceMapper.insertBatch(
+                    rows.subList(from, Math.min(rows.size(), from + CLOSURE_INSERT_BATCH_SIZE)));
+        }
+    }
+
+    private Map<Long, Integer> ancestorDepths(Long roleId, Map<Long, Set<Long>> parentMap) {
+        Map<Long, Integer> depths = new LinkedHashMap<>();
+        Deque<Long> queue = new ArrayDeque<>();
+        queue.add(roleId);
+        while (!queue.isEmpty()) {
+            Long current = queue.poll();
+            int depth = depths.getOrDefault(current, 0) + 1;
+            for (Long parentId : parentMap.getOrDefault(current, Collections.emptySet())) {
+                if (parentId != null && !parentId.equals(roleId) && depths.putIfAbsent(parentId, depth) == null) {
+                    queue.add(parentId);
+                }
             }
         }
+        return depths;
+    }
+
+    /**
+     * 新增 parent -> role 成环当且仅当 parent 已是 role 的后代。闭包表随每次变更维护，
+     * 判断只需在 uk_ancestor_descendant 上做一次点查，不再加载全部继承边做 DFS。
+     */
+    private void validateNoCycle(Long roleId, List<Long> parentRoleIds) {
+        if (parentRoleIds.isEmpty()) {
+            return;
+        }
+        Set<Long> descendantParents = roleInheritanceMapper.selectDescendantIdsAmong(roleId, parentRoleIds);
+        if (descendantParents == null || descendantParents.isEmpty()) {
+            return;
+        }
+        Long parentId = parentRoleIds.stream().filter(descendantParents::contains).findFirst().orElseThrow();
+        throw new BusinessException("角色继承关系会形成环: roleId=" + roleId + ", parentId=" + parentId);
     }
 
     private Set<Long> collectAncestors(Long roleId, Map<Long, Set<Long>> parentMap) {
@@ -208,83 +282,88 @@ public class SysRoleInheritanceServiceImpl extends ServiceImpl<SysRoleInheritanc
         return ancestors;
     }
 
-    private void validateExistingUsersAgainstSsd(Map<Long, Set<Long>> parentMap) {
-        List<SysUserEntity> users = userMapper.selectList(
-                new LambdaQueryWrapper<SysUserEntity>()
-                        .eq(SysUserEntity::getDelFlag, (byte) 0));
-        if (users == null || users.isEmpty()) {
+    /**
+     * 变更前所有用户都满足 SSD；变更后若出现冲突，冲突角色中必有一个是目标角色新获得的祖先，
+     * 且只有直接持有受影响角色的用户能获得它。因此只检查涉及新祖先的约束与这部分用户。
+     * 用户角色按 user_id 顺序流式读取，内存中只保留当前用户命中的互斥角色。
+     */
+    private void validateExistingUsersAgainstSsd(Set<Long> affectedRoleIds, Set<Long> gainedAncestorIds,
+            Map<Long, Set<Long>> parentMap) {
+        if (gainedAncestorIds.isEmpty()) {
             return;
         }
-        Set<Long> userIds = users.stream()
-                .map(SysUserEntity::getId)
-                .filter(Objects::nonNull)
-                .collect(Collectors.toSet());
-        if (userIds.isEmpty()) {
+        List<SodConstraintIndex.Constraint> rules = sodConstraintIndex.confirmed()
+                .touching(SodConstraintIndex.SSD, gainedAncestorIds);
+        if (rules.isEmpty()) {
             return;
         }
 
-        List<SysUserRoleEntity> userRoles = userRoleMapper.selectList(new LambdaQueryWrapper<>());
-        if (userRoles == null || userRoles.isEmpty()) {
-            return;
-        }
-        Map<Long, Set<Long>> directRolesByUser = new HashMap<>();
-        for (SysUserRoleEntity userRole : userRoles) {
-            if (userRole.getUserId() == null || userRole.getRoleId() == null || !userIds.contains(userRole.getUserId())) {
-                continue;
+        Map<Long, Set<Long>> mutexRolesByRole = mapMutexRolesByHolderRole(rules, affectedRoleIds, parentMap);
+        try (Cursor<SysUserRoleEntity> userRoles = userRoleMapper.streamActiveUserRolesOfHolders(
+                affectedRoleIds, mutexRolesByRole.keySet())) {
+            Long currentUserId = null;
+            Set<Long> matchedRoleIds = new HashSet<>();
+            for (SysUserRoleEntity userRole : userRoles) {
+                if (!Objects.equals(userRole.getUserId(), currentUserId)) {
+                    checkSsdRules(currentUserId, matchedRoleIds, rules);
+                    currentUserId = userRole.getUserId();
+                    matchedRoleIds = new HashSet<>();
+                }
+                matchedRoleIds.addAll(mutexRolesByRole.getOrDefault(userRole.getRoleId(), Collections.emptySet()));
             }
-            directRolesByUser.computeIfAbsent(userRole.getUserId(), key -> new LinkedHashSet<>())
-                    .add(userRole.getRoleId());
-        }
-        if (directRolesByUser.isEmpty()) {
-            return;
+            checkSsdRules(currentUserId, matchedRoleIds, rules);
+        } catch (IOException e) {
+            throw new UncheckedIOException("关闭用户角色游标失败", e);
         }
+    }
 
-        List<SysSodConstraintEntity> ssdConstraints = sodConstraintService.list(
-                new LambdaQueryWrapper<SysSodConstraintEntity>()
-                        .eq(SysSodConstraintEntity::getConstraintType, (byte) 1));
-        if (ssdConstraints == null || ssdConstraints.isEmpty()) {
-            return;
+    /**
+     * 直接持有某角色时会带来的互斥角色（自身或祖先）。未受影响角色的祖先不变，按闭包表反查互斥角色的后代；
+     * 受影响角色按变更后的局部图展开，覆盖闭包表中的旧值。不会带来任何互斥角色的角色不出现在结果中。
+     */
+    private Map<Long, Set<Long>> mapMutexRolesByHolderRole(List<SodConstraintIndex.Constraint> rules, Set<Long> affectedRoleIds,
+            Map<Long, Set<Long>> parentMap) {
+        Set<Long> mutexRoleIds = rules.stream()
+                .flatMap(rule -> rule.roleIdList().stream())
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+        Map<Long, Set<Long>> mutexRolesByRole = new HashMap<>();
+        for (Long mutexRoleId : mutexRoleIds) {
+            mutexRolesByRole.computeIfAbsent(mutexRoleId, key -> new HashSet<>()).add(mutexRoleId);
         }
-
-        for (Map.Entry<Long, Set<Long>> entry : directRolesByUser.entrySet()) {
-            Set<Long> effectiveRoleIds = expandEffectiveRoles(entry.getValue(), parentMap);
-            for (SysSodConstraintEntity constraint : ssdConstraints) {
-                List<Long> mutexRoleIds = parseRoleSet(constraint);
-                List<Long> conflictRoleIds = mutexRoleIds.stream()
-                        .filter(effectiveRoleIds::contains)
-                        .distinct()
-                        .collect(Collectors.toList());
-                if (conflictRoleIds.size() >= 2) {
-                    throw new BusinessException("修改角色继承会导致已有用户违反静态职责分离约束: 用户ID="
-                            + entry.getKey()
-                            + ", 约束=" + constraint.getConstraintName()
-                            + ", 冲突角色ID=" + conflictRoleIds);
+        List<SysRoleInheritanceEntity> closure = roleInheritanceMapper.selectClosureByAncestorIds(mutexRoleIds);
+        if (closure != null) {
+            for (SysRoleInheritanceEntity row : closure) {
+                if (row.getDescendantId() != null && row.getAncestorId() != null) {
+                    mutexRolesByRole.computeIfAbsent(row.getDescendantId(), key -> new HashSet<>())
+                            .add(row.getAncestorId());
                 }
             }
         }
-    }
-
-    private Set<Long> expandEffectiveRoles(Collection<Long> directRoleIds, Map<Long, Set<Long>> parentMap) {
-        Set<Long> effectiveRoleIds = new LinkedHashSet<>();
-        for (Long roleId : directRoleIds) {
-            if (roleId == null) {
-                continue;
+        for (Long roleId : affectedRoleIds) {
+            Set<Long> reachable = new HashSet<>(collectAncestors(roleId, parentMap));
+            reachable.add(roleId);
+            reachable.retainAll(mutexRoleIds);
+            if (reachable.isEmpty()) {
+                mutexRolesByRole.remove(roleId);
+            } else {
+                mutexRolesByRole.put(roleId, reachable);
             }
-            effectiveRoleIds.add(roleId);
-            effectiveRoleIds.addAll(collectAncestors(roleId, parentMap));
         }
-        return effectiveRoleIds;
+        return mutexRolesByRole;
     }
 
-    private List<Long> parseRoleSet(SysSodConstraintEntity constraint) {
-        try {
-            return objectMapper.readValue(
-                    constraint.getRoleSet(),
-                    new TypeReference<List<Long>>() {
-                    }).stream().filter(Objects::nonNull).distinct().toList();
-        } catch (Exception e) {
-            log.error("解析SSD约束失败: constraintId={}", constraint.getId(), e);
-            throw new BusinessException("SoD约束配置无效: " + constraint.getId());
+    private void checkSsdRules(Long userId, Set<Long> matchedRoleIds, List<SodConstraintIndex.Constraint> rules) {
+        if (userId == null || matchedRoleIds.size() < 2) {
+            return;
+        }
+        for (SodConstraintIndex.Constraint rule : rules) {
+            List<Long> conflictRoleIds = rule.matchedRoleIds(matchedRoleIds);
+            if (conflictRoleIds.size() >= 2) {
+                throw new BusinessException("修改角色继承会导致已有用户违反静态职责分离约束: 用户ID="
+                        + userId
+                        + ", 约束=" + rule.name()
+                        + ", 冲突角色ID=" + conflictRoleIds);
+            }
         }
     }
 }
@@ -3,21 +3,21 @@ package com.permacore.iam.service.impl;
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.permacore.iam.domain.entity.SysPermissionEntity;
 import com.permacore.iam.domain.entity.SysRoleEntity;
 import com.permacore.iam.domain.entity.SysRoleInheritanceEntity;
 import com.permacore.iam.domain.entity.SysRolePermissionEntity;
-import com.permacore.iam.domain.entity.SysSodConstraintEntity;
+import com.permacore.iam.domain.vo.RoleDescendantVO;
 import com.permacore.iam.mapper.SysPermissionMapper;
 import com.permacore.iam.mapper.SysRoleInheritanceMapper;
 import com.permacore.iam.mapper.SysRoleMapper;
 import com.permacore.iam.mapper.SysRolePermissionMapper;
+import com.permacore.iam.mapper.SysSodConstraintRoleMapper;
 import com.permacore.iam.mapper.SysUserRoleMapper;
-import com.permacore.iam.mapper.SysSodConstraintMapper;
+import com.permacore.iam.security.authz.RoleGraph;
 import com.permacore.iam.security.handler.BusinessException;
 import com.permacore.iam.service.AuthorizationStateService;
+import com.permacore.iam.service.SysRoleInheritanceService;
 import com.permacore.iam.service.SysRoleService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -48,14 +48,15 @@ public class SysRoleServiceImpl extends ServiceImpl<SysRoleMapper, SysRoleEntity
     private final SysPermissionMapper permissionMapper;
     private final SysRoleInheritanceMapper roleInheritanceMapper;
     private final SysUserRoleMapper userRoleMapper;
-    private final SysSodConstraintMapper sodConstraintMapper;
-    private final ObjectMapper objectMapper;
+    private final SysSodConstraintRoleMapper sodConstraintRoleMapper;
     private final AuthorizationStateService authorizationStateService;
+    private final RoleGraph roleGraph;
+    private final SysRoleInheritanceService roleInheritanceService;
 
     @Override
     @Transactional
     public boolean saveRole(SysRoleEntity role) {
-        roleMapper.lockAllRoleIds();
+        roleMapper.lockGraphEpoch();
         validateNewRole(role);
         role.setId(null);
         role.setDelFlag((byte) 0);
@@ -68,7 +69,7 @@ public class SysRoleServiceImpl extends ServiceImpl<SysRoleMapper, SysRoleEntity
     @Override
     @Transactional
     public boolean updateRole(SysRoleEntity role) {
-        roleMapper.lockAllRoleIds();
+        roleMapper.lockGraphEpoch();
         validateRoleUpdate(role);
         SysRoleEntity existing = super.getById(role.getId());
         if (existing == null) {
@@ -80,7 +81,13 @@ public class SysRoleServiceImpl extends ServiceImpl<SysRoleMapper, SysRoleEntity
         }
         boolean updated = super.updateById(role);
         if (updated) {
-            authorizationStateService.invalidateAllUsers();
+            List<Long> changedRoleIds = new ArrayList<>(List.of(role.getId()));
+            if (role.getStatus() != null && !role.getStatus().equals(existing.getStatus())) {
+                // 启停会截断或恢复后代会话经由该角色的继承路径。后代取自闭包表：本事务已写入角色状态，
+                // 此时重建共享角色图快照会把未提交的状态带给其他请求
+                changedRoleIds.addAll(roleInheritanceMapper.selectDescendantIds(role.getId()));
+            }
+            authorizationStateService.invalidateRoles(changedRoleIds);
         }
         return updated;
     }
@@ -103,7 +110,7 @@ public class SysRoleServiceImpl extends ServiceImpl<SysRoleMapper, SysRoleEntity
     @Override
     @Transactional
     public void deleteRoleCascade(Long id) {
-        roleMapper.lockAllRoleIds();
+        roleMapper.lockGraphEpoch();
         SysRoleEntity role = super.getById(id);
         if (role == null) {
             throw new BusinessException("角色不存在: " + id);
@@ -115,6 +122,8 @@ public class SysRoleServiceImpl extends ServiceImpl<SysRoleMapper, SysRoleEntity
         // 删除角色权限关联
         rolePermissionMapper.deleteByRoleId(id);
         userRoleMapper.deleteByRoleId(id);
+        // 经由该角色继承的后代需要重建闭包，先在删除前从闭包表取出
+        Set<Long> descendantIds = roleInheritanceMapper.selectDescendantIds(id);
         // 删除角色继承关系（作为后代角色）
         LambdaQueryWrapper<SysRoleInheritanceEntity> descendantWrapper = new LambdaQueryWrapper<>();
         descendantWrapper.eq(SysRoleInheritanceEntity::getDescendantId, id);
@@ -123,9 +132,11 @@ public class SysRoleServiceImpl extends ServiceImpl<SysRoleMapper, SysRoleEntity
         LambdaQueryWrapper<SysRoleInheritanceEntity> ancestorWrapper = new LambdaQueryWrapper<>();
         ancestorWrapper.eq(SysRoleInheritanceEntity::getAncestorId, id);
         roleInheritanceMapper.delete(ancestorWrapper);
+        roleInheritanceService.rebuildClosure(descendantIds);
         // 删除角色
         super.removeById(id);
-        authorizationStateService.invalidateAllUsers();
+        // 经由该角色继承的后代会话有效角色中同样含有它，递增它自身的版本即可
+        authorizationStateService.invalidateRoles(List.of(id));
         log.info("级联删除角色完成: roleId={}", id);
     }
 
@@ -138,7 +149,7 @@ public class SysRoleServiceImpl extends ServiceImpl<SysRoleMapper, SysRoleEntity
         if (permissionIds != null && permissionIds.stream().anyMatch(Objects::isNull)) {
             throw new BusinessException("权限ID不能为空");
         }
-        roleMapper.lockAllRoleIds();
+        roleMapper.lockGraphEpoch();
         SysRoleEntity role = super.getById(roleId);
         if (role == null || Byte.valueOf((byte) 1).equals(role.getDelFlag())) {
             throw new BusinessException("角色不存在: " + roleId);
@@ -160,7 +171,7 @@ public class SysRoleServiceImpl extends ServiceImpl<SysRoleMapper, SysRoleEntity
                     .collect(Collectors.toList());
             rolePermissionMapper.insertBatch(records);
         }
-        authorizationStateService.invalidateAllUsers();
+        authorizationStateService.invalidateRoles(List.of(roleId));
         log.info("权限分配完成: roleId={}, permissionIds={}", roleId, normalizedPermissionIds);
     }
 
@@ -207,20 +218,9 @@ public class SysRoleServiceImpl extends ServiceImpl<SysRoleMapper, SysRoleEntity
     }
 
     private void rejectRoleReferencedBySod(Long roleId) {
-        List<SysSodConstraintEntity> constraints = sodConstraintMapper.selectList(null);
-        for (SysSodConstraintEntity constraint : constraints) {
-            try {
-                List<Long> roleIds = objectMapper.readValue(
-                        constraint.getRoleSet(), new TypeReference<List<Long>>() {
-                        });
-                if (roleIds.stream().anyMatch(roleId::equals)) {
-                    throw new BusinessException("角色仍被SoD约束引用，不能删除: " + constraint.getConstraintName());
-                }
-            } catch (BusinessException e) {
-                throw e;
-            } catch (Exception e) {
-                throw new BusinessException("SoD约束配置无效，无法安全删除角色: " + constraint.getId());
-            }
+        List<String> constraintNames = sodConstraintRoleMapper.selectConstraintNamesByRoleId(roleId);
+        if (constraintNames != null && !constraintNames.isEmpty()) {
+            throw new BusinessException("角色仍被SoD约束引用，不能删除: " + constraintNames.get(0));
         }
     }
 
@@ -241,26 +241,24 @@ public class SysRoleServiceImpl extends ServiceImpl<SysRoleMapper, SysRoleEntity
 
     @Override
     public List<Long> getDescendantRoleIds(Long roleId) {
-        Set<Long> descendants = new HashSet<>();
-        Queue<Long> queue = new LinkedList<>();
-        queue.add(roleId);
-        
-        while (!queue.isEmpty()) {
-            Long currentId = queue.poll();
-            // 查询以当前角色为祖先角色的所有后代角色
-            LambdaQueryWrapper<SysRoleInheritanceEntity> wrapper = new LambdaQueryWrapper<>();
-            wrapper.eq(SysRoleInheritanceEntity::getAncestorId, currentId);
-            List<SysRoleInheritanceEntity> children = roleInheritanceMapper.selectList(wrapper);
-            
-            for (SysRoleInheritanceEntity child : children) {
-                Long descendantId = child.getDescendantId();
-                if (!descendants.contains(descendantId)) {
-                    descendants.add(descendantId);
-                    queue.add(descendantId);
-                }
-            }
-        }
-        return new ArrayList<>(descendants);
+        return roleGraph.current().descendantsOf(roleId, false);
+    }
+
+    @Override
+    public List<RoleDescendantVO> getDescendantTree(Long roleId) {
+        RoleGraph.Snapshot graph = roleGraph.current();
+        Map<Long, Integer> depths = graph.descendantDepths(roleId);
+        List<RoleDescendantVO> tree = new ArrayList<>(depths.size());
+        depths.forEach((descendantId, depth) -> {
+            RoleDescendantVO vo = new RoleDescendantVO();
+            vo.setRoleId(descendantId);
+            vo.setDepth(depth);
+            vo.setParentIds(graph.parentsOf(descendantId).stream()
+                    .filter(parentId -> parentId.equals(roleId) || depths.containsKey(parentId))
+                    .toList());
+            tree.add(vo);
+        });
+        return tree;
     }
 }
 
@@ -1,16 +1,14 @@
 package com.permacore.iam.service.impl;
 
-import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.permacore.iam.domain.entity.SysRoleEntity;
 import com.permacore.iam.domain.entity.SysSodConstraintEntity;
-import com.permacore.iam.domain.entity.SysUserEntity;
 import com.permacore.iam.domain.vo.SodConstraintVO;
 import com.permacore.iam.mapper.SysRoleMapper;
 import com.permacore.iam.mapper.SysSodConstraintMapper;
-import com.permacore.iam.mapper.SysUserMapper;
+import com.permacore.iam.mapper.SysSodConstraintRoleMapper;
 import com.permacore.iam.mapper.SysUserRoleMapper;
 import com.permacore.iam.security.handler.BusinessException;
 import com.permacore.iam.service.AuthorizationStateService;
@@ -33,15 +31,14 @@ public class SysSodConstraintServiceImpl extends ServiceImpl<SysSodConstraintMap
 
     private final ObjectMapper objectMapper;
     private final SysRoleMapper roleMapper;
-    private final SysUserMapper userMapper;
     private final SysUserRoleMapper userRoleMapper;
-    private final PermissionService permissionService;
+    private final SysSodConstraintRoleMapper sodConstraintRoleMapper;
     private final AuthorizationStateService authorizationStateService;
 
     @Override
     @Transactional
     public void createConstraint(SodConstraintVO vo) {
-        roleMapper.lockAllRoleIds();
+        roleMapper.lockGraphEpoch();
         List<Long> roleIds = validateAndNormalizeRoleSet(vo);
         validateExistingAssignments(vo.getConstraintType(), roleIds);
 
@@ -49,32 +46,66 @@ public class SysSodConstraintServiceImpl extends ServiceImpl<SysSodConstraintMap
         apply(entity, vo, roleIds);
         entity.setCreateTime(LocalDateTime.now());
         save(entity);
-        authorizationStateService.invalidateAllUsers();
+        sodConstraintRoleMapper.insertBatch(entity.getId(), roleIds);
+        authorizationStateService.invalidateRoles(sessionRoleIds(vo.getConstraintType(), roleIds));
     }
 
     @Override
     @Transactional
     public void updateConstraint(Long id, SodConstraintVO vo) {
-        roleMapper.lockAllRoleIds();
+        roleMapper.lockGraphEpoch();
         SysSodConstraintEntity entity = getById(id);
         if (entity == null) {
             throw new BusinessException("SoD约束不存在: " + id);
         }
         List<Long> roleIds = validateAndNormalizeRoleSet(vo);
         validateExistingAssignments(vo.getConstraintType(), roleIds);
+        Set<Long> changedRoleIds = new LinkedHashSet<>(sessionRoleIds(entity.getConstraintType(),
+                parseRoleSet(entity.getRoleSet())));
         apply(entity, vo, roleIds);
         updateById(entity);
-        authorizationStateService.invalidateAllUsers();
+        sodConstraintRoleMapper.deleteByConstraintId(id);
+        sodConstraintRoleMapper.insertBatch(id, roleIds);
+        changedRoleIds.addAll(sessionRoleIds(vo.getConstraintType(), roleIds));
+        authorizationStateService.invalidateRoles(changedRoleIds);
     }
 
     @Override
     @Transactional
     public void deleteConstraint(Long id) {
-        roleMapper.lockAllRoleIds();
+        roleMapper.lockGraphEpoch();
+        SysSodConstraintEntity entity = getById(id);
+        if (entity == null) {
+            throw new BusinessException("SoD约束不存在: " + id);
+        }
+        sodConstraintRoleMapper.deleteByConstraintId(id);
         if (!removeById(id)) {
             throw new BusinessException("SoD约束不存在: " + id);
         }
-        authorizationStateService.invalidateAllUsers();
+        authorizationStateService.invalidateRoles(
+                sessionRoleIds(entity.getConstraintType(), parseRoleSet(entity.getRoleSet())));
+    }
+
+    /**
+     * 只有 DSD 约束参与会话角色校验，其角色版本需要递增；SSD 只约束用户角色分配，
+     * 返回空集合，仅推进全局版本让各节点重建 SoD 索引。
+     */
+    private List<Long> sessionRoleIds(Byte constraintType, List<Long> roleIds) {
+        return Byte.valueOf((byte) 2).equals(constraintType) ? roleIds : List.of();
+    }
+
+    /** 解析已落库的 role_set；历史脏数据按空集合处理，由全局版本兜底刷新快照。 */
+    private List<Long> parseRoleSet(String roleSet) {
+        if (roleSet == null || roleSet.isBlank()) {
+            return List.of();
+        }
+        try {
+            List<Long> parsed = objectMapper.readValue(roleSet, new TypeReference<List<Long>>() {
+            });
+            return parsed == null ? List.of() : parsed.stream().filter(Objects::nonNull).toList();
+        } catch (Exception e) {
+            return List.of();
+        }
     }
 
     private List<Long> validateAndNormalizeRoleSet(SodConstraintVO vo) {
@@ -114,17 +145,10 @@ public class SysSodConstraintServiceImpl extends ServiceImpl<SysSodConstraintMap
         if (!Byte.valueOf((byte) 1).equals(constraintType)) {
             return;
         }
-        List<SysUserEntity> users = userMapper.selectList(
-                new LambdaQueryWrapper<SysUserEntity>()
-                        .select(SysUserEntity::getId)
-                        .eq(SysUserEntity::getDelFlag, (byte) 0));
-        for (SysUserEntity user : users) {
-            List<Long> directRoleIds = userRoleMapper.selectRoleIdsByUserId(user.getId());
-            Set<Long> effectiveRoleIds = permissionService.getPotentialRoleIdsWithInheritance(directRoleIds);
-            long conflictCount = mutexRoleIds.stream().distinct().filter(effectiveRoleIds::contains).count();
-            if (conflictCount >= 2) {
-                throw new BusinessException("该SSD约束会使现有用户违反职责分离: userId=" + user.getId());
-            }
+        // 闭包表已含全部祖先，一次分组查询替代逐个用户展开继承
+        Long violatingUserId = userRoleMapper.selectFirstUserHoldingAtLeastTwo(mutexRoleIds);
+        if (violatingUserId != null) {
+            throw new BusinessException("该SSD约束会使现有用户违反职责分离: userId=" + violatingUserId);
         }
     }
 
@@ -3,18 +3,15 @@ package com.permacore.iam.service.impl;
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.permacore.iam.domain.entity.SysRoleEntity;
-import com.permacore.iam.domain.entity.SysSodConstraintEntity;
 import com.permacore.iam.domain.entity.SysUserEntity;
 import com.permacore.iam.domain.entity.SysUserRoleEntity;
 import com.permacore.iam.mapper.SysRoleMapper;
 import com.permacore.iam.mapper.SysUserMapper;
 import com.permacore.iam.mapper.SysUserRoleMapper;
+import com.permacore.iam.security.authz.SodConstraintIndex;
 import com.permacore.iam.security.handler.BusinessException;
 import com.permacore.iam.service.AuthorizationStateService;
-import com.permacore.iam.service.SysSodConstraintService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
@@ -41,8 +38,7 @@ public class UserServiceImpl extends ServiceImpl<SysUserMapper, SysUserEntity>
     private final SysUserRoleMapper userRoleMapper;
     private final SysRoleMapper roleMapper;
     private final PermissionService permissionService;
-    private final SysSodConstraintService sodConstraintService;
-    private final ObjectMapper objectMapper;
+    private final SodConstraintIndex sodConstraintIndex;
     private final AuthorizationStateService authorizationStateService;
 
     public boolean usernameExists(String username) {
@@ -66,7 +62,7 @@ public class UserServiceImpl extends ServiceImpl<SysUserMapper, SysUserEntity>
         }
         // Lock order is always role graph -> target user. A shared graph lock keeps
         // role validation consistent while allowing assignments for other users.
-        roleMapper.lockAllRoleIdsShared();
+        roleMapper.lockGraphEpochShared();
         SysUserEntity targetUser = userMapper.selectByIdForUpdate(userId);
         if (targetUser == null) {
             throw new BusinessException("用户不存在: " + userId);
@@ -122,7 +118,7 @@ public class UserServiceImpl extends ServiceImpl<SysUserMapper, SysUserEntity>
      * opposite orders.
      */
     private void deleteUsersInLockOrder(List<Long> userIds) {
-        roleMapper.lockAllRoleIdsShared();
+        roleMapper.lockGraphEpochShared();
         for (Long userId : userIds) {
             if (userMapper.selectByIdForUpdate(userId) == null) {
                 throw new BusinessException("用户不存在: " + userId);
@@ -160,40 +156,14 @@ public class UserServiceImpl extends ServiceImpl<SysUserMapper, SysUserEntity>
      * 如果要分配的角色集合违反了任何SSD约束，则抛出异常
      */
     private void checkSsdConstraints(List<Long> roleIds) {
-        // 获取所有静态互斥约束 (constraint_type = 1)
-        List<SysSodConstraintEntity> ssdConstraints = sodConstraintService.list(
-                new LambdaQueryWrapper<SysSodConstraintEntity>()
-                        .eq(SysSodConstraintEntity::getConstraintType, (byte) 1));
-
         Set<Long> roleIdSet = permissionService.getPotentialRoleIdsWithInheritance(roleIds);
-
-        for (SysSodConstraintEntity constraint : ssdConstraints) {
-            try {
-                // 解析互斥角色ID集合 (JSON数组格式)
-                List<Long> mutexRoleIds = objectMapper.readValue(
-                        constraint.getRoleSet(),
-                        new TypeReference<List<Long>>() {
-                        });
-
-                // 计算交集数量
-                long conflictCount = mutexRoleIds.stream()
-                        .distinct()
-                        .filter(roleIdSet::contains)
-                        .count();
-
-                // 如果用户要分配的角色中有2个或更多互斥角色，则违反约束
-                if (conflictCount >= 2) {
-                    log.warn("SSD约束冲突: constraint={}, conflictRoles={}",
-                            constraint.getConstraintName(),
-                            mutexRoleIds.stream().filter(roleIdSet::contains).collect(Collectors.toList()));
-                    throw new BusinessException("角色分配违反职责分离约束: " + constraint.getConstraintName());
-                }
-            } catch (RuntimeException e) {
-                throw e;
-            } catch (Exception e) {
-                log.error("解析SoD约束失败: constraintId={}, error={}", constraint.getId(), e.getMessage());
-                throw new BusinessException("SoD约束配置无效: " + constraint.getId());
-            }
+        List<SodConstraintIndex.Conflict> conflicts = sodConstraintIndex.confirmed()
+                .conflicts(SodConstraintIndex.SSD, roleIdSet);
+        if (!conflicts.isEmpty()) {
+            SodConstraintIndex.Conflict conflict = conflicts.get(0);
+            log.warn("SSD约束冲突: constraint={}, conflictRoles={}",
+                    conflict.constraint().name(), conflict.roleIds());
+            throw new BusinessException("角色分配违反职责分离约束: " + conflict.constraint().name());
         }
     }
 
@@ -1,8 +1,12 @@
 package com.permacore.iam.utils;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
 import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.ExpiredJwtException;
 import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.io.Decoders;
 import io.jsonwebtoken.security.Keys;
@@ -15,14 +19,21 @@ import org.springframework.stereotype.Component;
 
 import javax.crypto.SecretKey;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 /**
  * JWT 生成与校验工具。Access Token 与 Refresh Token 使用显式类型声明，
  * 并共享一个可撤销的 sessionId。
+ * <p>
+ * 同一令牌在有效期内会被反复提交，验签成功的 Claims 按令牌摘要缓存至其 exp，
+ * 后续解析跳过 HMAC 校验与 JSON 反序列化。缓存只是解析结果，会话及授权版本仍由过滤器逐次校验。
  */
 @Component
 public class JwtUtil {
@@ -45,7 +56,13 @@ public class JwtUtil {
     @Value("${jwt.refresh-expiration}")
     private Long refreshExpiration;
 
+    /** 0 关闭已验签 Claims 缓存。 */
+    @Value("${jwt.claims-cache.max-size:10000}")
+    private long claimsCacheMaxSize = 10_000;
+
     private volatile SecretKey secretKey;
+    private volatile JwtParser jwtParser;
+    private volatile Cache<String, VerifiedClaims> verifiedClaims;
 
     @PostConstruct
     public void initializeSecretKey() {
@@ -59,6 +76,30 @@ public class JwtUtil {
             throw new IllegalStateException("JWT_SECRET 至少需要 32 字节");
         }
         secretKey = Keys.hmacShaKeyFor(keyBytes);
+        jwtParser = Jwts.parser().verifyWith(secretKey).build();
+        // 密钥变化后旧缓存不再可信
+        verifiedClaims = claimsCacheMaxSize > 0 ? Caffeine.newBuilder()
+                .maximumSize(claimsCacheMaxSize)
+                .expireAfter(new Expiry<String, VerifiedClaims>() {
+                    @Override
+                    public long expireAfterCreate(String key, VerifiedClaims value, long currentTime) {
+                        return TimeUnit.MILLISECONDS.toNanos(
+                                Math.max(0, value.expiresAtMillis() - System.currentTimeMillis()));
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, VerifiedClaims value, long currentTime,
+                            long currentDuration) {
+                        return expireAfterCreate(key, value, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, VerifiedClaims value, long currentTime,
+                            long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .build() : null;
     }
 
     public String generateAccessToken(Map<String, Object> claims, String sessionId) {
@@ -99,12 +140,27 @@ public class JwtUtil {
         if (token == null || token.isBlank()) {
             throw new IllegalArgumentException("Token 不能为空");
         }
+        if (!isWellFormed(token)) {
+            throw new IllegalArgumentException("Token 格式无效");
+        }
+        Cache<String, VerifiedClaims> cache = verifiedClaims();
+        String digest = cache == null ? null : digest(token);
+        if (digest != null) {
+            VerifiedClaims cached = cache.getIfPresent(digest);
+            if (cached != null) {
+                if (System.currentTimeMillis() < cached.expiresAtMillis()) {
+                    return cached.claims();
+                }
+                cache.invalidate(digest);
+                throw new IllegalArgumentException("Token 已过期，请重新登录");
+            }
+        }
         try {
-            return Jwts.parser()
-                    .verifyWith(getSecretKey())
-                    .build()
-                    .parseSignedClaims(token)
-                    .getPayload();
+            Claims claims = parser().parseSignedClaims(token).getPayload();
+            if (digest != null && claims.getExpiration() != null) {
+                cache.put(digest, new VerifiedClaims(claims, claims.getExpiration().getTime()));
+            }
+            return claims;
         } catch (ExpiredJwtException e) {
             log.debug("Token 已过期");
             throw new IllegalArgumentException("Token 已过期，请重新登录", e);
@@ -150,4 +206,57 @@ public class JwtUtil {
         }
         return secretKey;
     }
+
+    private JwtParser parser() {
+        if (jwtParser == null) {
+            initializeSecretKey();
+        }
+        return jwtParser;
+    }
+
+    private Cache<String, VerifiedClaims> verifiedClaims() {
+        if (jwtParser == null) {
+            initializeSecretKey();
+        }
+        return verifiedClaims;
+    }
+
+    /**
+     * 在摘要与验签之前做的廉价结构检查：长度不超过签发上限、恰好三段、仅含 base64url 字符。
+     * 本系统签发的令牌一定满足，超长或畸形的输入直接拒绝，不消耗哈希与 HMAC。
+     */
+    static boolean isWellFormed(String token) {
+        int length = token.length();
+        if (length > MAX_COMPACT_TOKEN_BYTES) {
+            return false;
+        }
+        int dots = 0;
+        int segmentStart = 0;
+        for (int i = 0; i < length; i++) {
+            char c = token.charAt(i);
+            if (c == '.') {
+                if (i == segmentStart || ++dots > 2) {
+                    return false;
+                }
+                segmentStart = i + 1;
+            } else if (!(c >= 'A' && c <= 'Z' || c >= 'a' && c <= 'z' || c >= '0' && c <= '9'
+                    || c == '-' || c == '_')) {
+                return false;
+            }
+        }
+        return dots == 2 && segmentStart < length;
+    }
+
+    /** 以完整令牌的 SHA-256 作为键，避免缓存中长期保存令牌原文。 */
+    private static String digest(String token) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.US_ASCII));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(hash);
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+
+    private record VerifiedClaims(Claims claims, long expiresAtMillis) {
+    }
 }
@@ -2,29 +2,57 @@ package com.permacore.iam.utils;
 
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.Scheduler;
+import com.github.benmanes.caffeine.cache.Ticker;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.lang.NonNull;
 import org.springframework.stereotype.Component;
 import jakarta.annotation.PostConstruct;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 /**
  * 会话版本存储。启用 Redis 时始终以 Redis 为唯一事实源；
  * 未启用 Redis 的单机开发环境使用带独立过期时间的本地缓存。
+ * <p>
+ * 开启 app.redis.auth-state-hash 后，会话版本改存于每用户一个的 Hash，并在同一个 Hash 中
+ * 缓存 authVersion/status/delFlag，全局授权版本另存一个键。过滤器用一次流水线读取二者，
+ * 不再串行访问 Redis 与 MySQL。授权字段只会被更大的版本覆盖，并发回源写入的旧值无法回退缓存；
+ * 字段缺失时仍以 MySQL 为准。授权字段与全局版本都只在 auth-state-ttl-seconds 内有效，
+ * 写回失败或进程崩溃留下的旧值最多存活一个 TTL。切换该模式会使已有会话失效。
  */
 @Component
 public class RedisCacheUtil {
 
     private static final String JWT_VERSION_KEY = "jwt:version:user:";
+    private static final String AUTH_STATE_KEY = "auth:state:user:";
+    private static final String GLOBAL_AUTH_VERSION_KEY = "auth:state:global";
+    private static final String FIELD_SESSION_ID = "sid";
+    private static final String FIELD_AUTH_VERSION = "av";
+    private static final String FIELD_STATUS = "st";
+    private static final String FIELD_DEL_FLAG = "df";
+    private static final String FIELD_EXPIRES_AT = "exp";
+    private static final int STATES_PER_SCRIPT = 500;
 
     @Value("${app.redis.enabled:false}")
     private boolean redisEnabled;
 
+    @Value("${app.redis.auth-state-hash:false}")
+    private boolean authStateHashEnabled;
+
+    @Value("${app.redis.auth-state-ttl-seconds:5}")
+    private long authStateTtlSeconds = 5;
+
     @Autowired(required = false)
     private StringRedisTemplate stringRedisTemplate;
 
@@ -36,10 +64,92 @@ public class RedisCacheUtil {
             return 0
             """, Long.class);
 
-    private final Cache<String, ExpiringValue> localSessionVersions = Caffeine.newBuilder()
-            .initialCapacity(100)
-            .maximumSize(10_000)
-            .build();
+    private static final DefaultRedisScript<Long> SET_SESSION_HASH_SCRIPT = new DefaultRedisScript<>("""
+            redis.call('HSET', KEYS[1], 'sid', ARGV[1])
+            redis.call('EXPIRE', KEYS[1], ARGV[2])
+            return 1
+            """, Long.class);
+
+    private static final DefaultRedisScript<Long> ROTATE_SESSION_HASH_SCRIPT = new DefaultRedisScript<>("""
+            if redis.call('HGET', KEYS[1], 'sid') == ARGV[1] then
+                redis.call('HSET', KEYS[1], 'sid', ARGV[2])
+                redis.call('EXPIRE', KEYS[1], ARGV[3])
+                return 1
+            end
+            return 0
+            """, Long.class);
+
+    /**
+     * 只写入已有会话的 Hash，且 authVersion 不回退；ARGV[1] 为 TTL 毫秒，之后每个用户占 3 个 ARGV：av, st, df。
+     * Hash 字段不能单独过期，exp 按 Redis 服务器时钟记录截止时刻，读取时与同一时钟比较。
+     */
+    private static final DefaultRedisScript<Long> CACHE_USER_STATES_SCRIPT = new DefaultRedisScript<>("""
+            local now = redis.call('TIME')
+            local expiresAt = string.format('%d',
+                    tonumber(now[1]) * 1000 + math.floor(tonumber(now[2]) / 1000) + tonumber(ARGV[1]))
+            local written = 0
+            for i, key in ipairs(KEYS) do
+                local base = 1 + (i - 1) * 3
+                if redis.call('EXISTS', key) == 1 then
+                    local current = redis.call('HGET', key, 'av')
+                    if not current or tonumber(current) <= tonumber(ARGV[base + 1]) then
+                        redis.call('HSET', key, 'av', ARGV[base + 1], 'st', ARGV[base + 2], 'df', ARGV[base + 3],
+                                'exp', expiresAt)
+                        written = written + 1
+                    end
+                end
+            end
+            return written
+            """, Long.class);
+
+    private static final DefaultRedisScript<Long> CACHE_GLOBAL_VERSION_SCRIPT = new DefaultRedisScript<>("""
+            local current = redis.call('GET', KEYS[1])
+            if current and tonumber(current) >= tonumber(ARGV[1]) then
+                return 0
+            end
+            redis.call('SET', KEYS[1], ARGV[1], 'PX', ARGV[2])
+            return 1
+            """, Long.class);
+
+    /**
+     * 未启用 Redis 时的本地会话表。每个条目按自身的绝对截止时刻过期，并由系统调度器主动清理，
+     * 过期会话不会占用容量上限；写入与轮换均为单键原子操作，不同用户之间互不竞争。
+     * 轮换失败时 compute 原样返回旧值，Caffeine 仍视为一次更新，截止时刻不变因此不会续期。
+     */
+    private final Cache<String, LocalSessionVersion> localSessionVersions;
+    private final Ticker ticker;
+
+    public RedisCacheUtil() {
+        this(Ticker.systemTicker());
+    }
+
+    RedisCacheUtil(Ticker ticker) {
+        this.ticker = ticker;
+        this.localSessionVersions = Caffeine.newBuilder()
+                .initialCapacity(100)
+                .maximumSize(10_000)
+                .expireAfter(new Expiry<String, LocalSessionVersion>() {
+                    @Override
+                    public long expireAfterCreate(String key, LocalSessionVersion value, long currentTime) {
+                        return Math.max(0L, value.deadlineNanos() - currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, LocalSessionVersion value, long currentTime,
+                            long currentDuration) {
+                        return Math.max(0L, value.deadlineNanos() - currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, LocalSessionVersion value, long currentTime,
+                            long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .scheduler(Scheduler.systemScheduler())
+                .ticker(ticker)
+                .build();
+    }
 
     @PostConstruct
     void validateConfiguration() {
@@ -50,19 +160,16 @@ public class RedisCacheUtil {
 
     public String getJwtVersion(Long userId) {
         String key = JWT_VERSION_KEY + userId;
+        if (isAuthStateHashEnabled()) {
+            Object sessionId = redisTemplate().opsForHash().get(AUTH_STATE_KEY + userId, FIELD_SESSION_ID);
+            return sessionId == null ? null : sessionId.toString();
+        }
         if (redisEnabled) {
             return redisTemplate().opsForValue().get(key);
         }
 
-        ExpiringValue localValue = localSessionVersions.getIfPresent(key);
-        if (localValue != null) {
-            if (!localValue.isExpired()) {
-                return localValue.value();
-            }
-            localSessionVersions.invalidate(key);
-        }
-
-        return null;
+        LocalSessionVersion localValue = localSessionVersions.getIfPresent(key);
+        return localValue == null ? null : localValue.value();
     }
 
     public void setJwtVersion(Long userId, @NonNull String version, long timeout, @NonNull TimeUnit unit) {
@@ -73,14 +180,17 @@ public class RedisCacheUtil {
             return;
         }
 
+        if (isAuthStateHashEnabled()) {
+            redisTemplate().execute(SET_SESSION_HASH_SCRIPT, Collections.singletonList(AUTH_STATE_KEY + userId),
+                    version, Long.toString(Math.max(1L, unit.toSeconds(timeout))));
+            return;
+        }
         if (redisEnabled) {
             redisTemplate().opsForValue().set(key, version, timeout, unit);
             localSessionVersions.invalidate(key);
             return;
         }
-        synchronized (localSessionVersions) {
-            localSessionVersions.put(key, new ExpiringValue(version, System.currentTimeMillis() + ttlMillis));
-        }
+        localSessionVersions.put(key, localSessionVersion(version, TimeUnit.MILLISECONDS.toNanos(ttlMillis)));
     }
 
     /**
@@ -95,7 +205,15 @@ public class RedisCacheUtil {
         }
 
         boolean rotated;
-        if (redisEnabled) {
+        if (isAuthStateHashEnabled()) {
+            Long result = redisTemplate().execute(
+                    ROTATE_SESSION_HASH_SCRIPT,
+                    Collections.singletonList(AUTH_STATE_KEY + userId),
+                    expectedVersion,
+                    newVersion,
+                    Long.toString(ttlSeconds));
+            rotated = Long.valueOf(1L).equals(result);
+        } else if (redisEnabled) {
             Long result = redisTemplate().execute(
                     ROTATE_SESSION_SCRIPT,
                     Collections.singletonList(key),
@@ -104,14 +222,17 @@ public class RedisCacheUtil {
                     Long.toString(ttlSeconds));
             rotated = Long.valueOf(1L).equals(result);
         } else {
-            synchronized (localSessionVersions) {
-                ExpiringValue current = localSessionVersions.getIfPresent(key);
-                rotated = current != null && !current.isExpired() && expectedVersion.equals(current.value());
-                if (rotated) {
-                    localSessionVersions.put(key,
-                            new ExpiringValue(newVersion, System.currentTimeMillis() + unit.toMillis(timeout)));
+            // 已过期的条目在 compute 中视为不存在，过期会话无法被轮换复活
+            boolean[] swapped = new boolean[1];
+            LocalSessionVersion replacement = localSessionVersion(newVersion, unit.toNanos(timeout));
+            localSessionVersions.asMap().compute(key, (ignored, current) -> {
+                if (current != null && expectedVersion.equals(current.value())) {
+                    swapped[0] = true;
+                    return replacement;
                 }
-            }
+                return current;
+            });
+            rotated = swapped[0];
         }
 
         if (rotated && redisEnabled) {
@@ -122,13 +243,130 @@ public class RedisCacheUtil {
 
     public void deleteJwtVersion(Long userId) {
         String key = JWT_VERSION_KEY + userId;
+        if (isAuthStateHashEnabled()) {
+            redisTemplate().delete(AUTH_STATE_KEY + userId);
+            return;
+        }
         if (redisEnabled) {
             localSessionVersions.invalidate(key);
             redisTemplate().delete(key);
             return;
         }
-        synchronized (localSessionVersions) {
-            localSessionVersions.invalidate(key);
+        localSessionVersions.invalidate(key);
+    }
+
+    public boolean isAuthStateHashEnabled() {
+        return redisEnabled && authStateHashEnabled;
+    }
+
+    /**
+     * 一次流水线读取会话版本、用户授权字段、全局授权版本与 Redis 服务器时间。仅在 Hash 模式下可用。
+     * 授权字段已过截止时刻时按缺失处理。
+     */
+    public SessionAuthorizationState getSessionAuthorizationState(Long userId) {
+        byte[] userKey = bytes(AUTH_STATE_KEY + userId);
+        byte[] globalKey = bytes(GLOBAL_AUTH_VERSION_KEY);
+        List<Object> results = redisTemplate().executePipelined((RedisCallback<Object>) connection -> {
+            connection.hashCommands().hMGet(userKey, bytes(FIELD_SESSION_ID), bytes(FIELD_AUTH_VERSION),
+                    bytes(FIELD_STATUS), bytes(FIELD_DEL_FLAG), bytes(FIELD_EXPIRES_AT));
+            connection.stringCommands().get(globalKey);
+            connection.serverCommands().time(TimeUnit.MILLISECONDS);
+            return null;
+        });
+        List<?> fields = !results.isEmpty() && results.get(0) instanceof List<?> list ? list : List.of();
+        Long expiresAt = parseLong(stringAt(fields, 4));
+        Long serverTime = parseLong(stringAt(results, 2));
+        boolean fresh = expiresAt != null && serverTime != null && serverTime < expiresAt;
+        return new SessionAuthorizationState(
+                stringAt(fields, 0),
+                fresh ? parseLong(stringAt(fields, 1)) : null,
+                fresh ? parseByte(stringAt(fields, 2)) : null,
+                fresh ? parseByte(stringAt(fields, 3)) : null,
+                parseLong(stringAt(results, 1)));
+    }
+
+    /** 写入用户授权字段；没有会话 Hash 的用户直接跳过。Hash 模式关闭时不做任何事。 */
+    public void cacheUserAuthorizationStates(Collection<UserAuthorizationState> states) {
+        if (!isAuthStateHashEnabled() || states == null || states.isEmpty()) {
+            return;
+        }
+        List<UserAuthorizationState> all = List.copyOf(states);
+        for (int start = 0; start < all.size(); start += STATES_PER_SCRIPT) {
+            List<UserAuthorizationState> batch = all.subList(start, Math.min(start + STATES_PER_SCRIPT, all.size()));
+            List<String> keys = new ArrayList<>(batch.size());
+            List<String> args = new ArrayList<>(batch.size() * 3 + 1);
+            args.add(Long.toString(authStateTtlMillis()));
+            for (UserAuthorizationState state : batch) {
+                keys.add(AUTH_STATE_KEY + state.userId());
+                args.add(Long.toString(state.authVersion()));
+                args.add(Byte.toString(state.status()));
+                args.add(Byte.toString(state.delFlag()));
+            }
+            redisTemplate().execute(CACHE_USER_STATES_SCRIPT, keys, args.toArray());
+        }
+    }
+
+    /** 删除用户授权字段但保留会话，之后的请求回源 MySQL。Hash 模式关闭时不做任何事。 */
+    public void evictUserAuthorizationStates(Collection<Long> userIds) {
+        if (!isAuthStateHashEnabled() || userIds == null || userIds.isEmpty()) {
+            return;
+        }
+        byte[][] fields = {bytes(FIELD_AUTH_VERSION), bytes(FIELD_STATUS), bytes(FIELD_DEL_FLAG),
+                bytes(FIELD_EXPIRES_AT)};
+        redisTemplate().executePipelined((RedisCallback<Object>) connection -> {
+            for (Long userId : userIds) {
+                connection.hashCommands().hDel(bytes(AUTH_STATE_KEY + userId), fields);
+            }
+            return null;
+        });
+    }
+
+    public void evictGlobalAuthVersion() {
+        if (!isAuthStateHashEnabled()) {
+            return;
+        }
+        redisTemplate().delete(GLOBAL_AUTH_VERSION_KEY);
+    }
+
+    /** 写入全局授权版本，只会前进不会回退，TTL 后过期。Hash 模式关闭时不做任何事。 */
+    public void cacheGlobalAuthVersion(long globalAuthVersion) {
+        if (!isAuthStateHashEnabled()) {
+            return;
+        }
+        redisTemplate().execute(CACHE_GLOBAL_VERSION_SCRIPT, Collections.singletonList(GLOBAL_AUTH_VERSION_KEY),
+                Long.toString(globalAuthVersion), Long.toString(authStateTtlMillis()));
+    }
+
+    private long authStateTtlMillis() {
+        return TimeUnit.SECONDS.toMillis(Math.max(1L, authStateTtlSeconds));
+    }
+
+    private LocalSessionVersion localSessionVersion(String value, long ttlNanos) {
+        return new LocalSessionVersion(value, ticker.read() + ttlNanos);
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String stringAt(List<?> values, int index) {
+        Object value = index < values.size() ? values.get(index) : null;
+        return value == null ? null : value.toString();
+    }
+
+    private static Long parseLong(String value) {
+        try {
+            return value == null ? null : Long.valueOf(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static Byte parseByte(String value) {
+        try {
+            return value == null ? null : Byte.valueOf(value);
+        } catch (NumberFormatException e) {
+            return null;
         }
     }
 
@@ -139,9 +377,17 @@ public class RedisCacheUtil {
         return stringRedisTemplate;
     }
 
-    private record ExpiringValue(String value, long expiresAtMillis) {
-        private boolean isExpired() {
-            return System.currentTimeMillis() >= expiresAtMillis;
+    /** Hash 模式下一次读取的结果；任一授权字段缺失时需回源 MySQL。 */
+    public record SessionAuthorizationState(String sessionId, Long authVersion, Byte status, Byte delFlag,
+            Long globalAuthVersion) {
+        public boolean hasAuthorizationState() {
+            return authVersion != null && status != null && delFlag != null && globalAuthVersion != null;
         }
     }
+
+    public record UserAuthorizationState(Long userId, long authVersion, byte status, byte delFlag) {
+    }
+
+    private record LocalSessionVersion(String value, long deadlineNanos) {
+    }
 }
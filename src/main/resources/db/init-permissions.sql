@@ -270,6 +270,17 @@ SELECT '经理与HR动态互斥', CONCAT('[', @role_manager_id, ',', @role_hr_id
 FROM DUAL WHERE @role_manager_id IS NOT NULL AND @role_hr_id IS NOT NULL
 AND NOT EXISTS (SELECT 1 FROM sys_sod_constraint WHERE constraint_name = '经理与HR动态互斥');
 
+-- 基线约束同步写入规范化子表；INSERT IGNORE 保证重复执行幂等。
+INSERT IGNORE INTO sys_sod_constraint_role (constraint_id, role_id)
+SELECT sc.id, roles_in_constraint.role_id
+FROM sys_sod_constraint sc
+INNER JOIN JSON_TABLE(
+  sc.role_set,
+  '$[*]' COLUMNS (role_id BIGINT PATH '$')
+) roles_in_constraint
+INNER JOIN sys_role r ON r.id = roles_in_constraint.role_id
+WHERE sc.constraint_name IN ('审计员与开发人员互斥', '财务与审计互斥', '经理与HR动态互斥');
+
 -- 任何既有用户若违反 SSD，使用 CHECK 守卫让脚本失败并回滚，禁止把脏分配静默带入新基线。
 CREATE TEMPORARY TABLE permacore_ssd_guard (
   ok TINYINT NOT NULL,
@@ -0,0 +1,35 @@
+-- Existing databases must run this once before starting a backend that
+-- validates tokens against per-role authorization versions. Tokens carry a
+-- digest of the versions of their effective roles, so a role change only
+-- revokes the sessions that actually use that role. The script is
+-- idempotent on MySQL 8.
+USE permacore_iam;
+
+SET @has_role_auth_version = (
+    SELECT COUNT(*)
+    FROM information_schema.COLUMNS
+    WHERE TABLE_SCHEMA = DATABASE()
+      AND TABLE_NAME = 'sys_role'
+      AND COLUMN_NAME = 'auth_version'
+);
+SET @migration_sql = IF(
+    @has_role_auth_version = 0,
+    'ALTER TABLE sys_role ADD COLUMN auth_version BIGINT NOT NULL DEFAULT 0 COMMENT ''角色授权版本，影响使用该角色的会话时递增'' AFTER status',
+    'SELECT 1'
+);
+PREPARE migration_statement FROM @migration_sql;
+EXECUTE migration_statement;
+DEALLOCATE PREPARE migration_statement;
+
+-- Repair half-applied variants of the column instead of trusting its name alone.
+UPDATE sys_role SET auth_version = 0 WHERE auth_version IS NULL;
+ALTER TABLE sys_role
+    MODIFY COLUMN auth_version BIGINT NOT NULL DEFAULT 0
+    COMMENT '角色授权版本，影响使用该角色的会话时递增';
+
+-- Tokens issued before this migration carry no role version digest and are
+-- rejected; moving the global version also makes every node reload its role
+-- graph with the new column.
+UPDATE sys_authorization_state
+SET global_auth_version = global_auth_version + 1
+WHERE id = 1;
@@ -0,0 +1,41 @@
+-- Existing databases must run this once before starting a backend that keeps
+-- sys_role_inheritance as a closure table. Earlier versions stored only direct
+-- edges (depth = 1); the application now also stores every indirect
+-- ancestor/descendant pair with its shortest path length and maintains those
+-- rows in the same transaction as each inheritance change.
+-- The script is idempotent on MySQL 8: indirect rows are always rebuilt from
+-- the direct edges, which are never modified.
+USE permacore_iam;
+
+-- Rows written before the column was populated default to direct edges.
+UPDATE sys_role_inheritance SET depth = 1 WHERE depth IS NULL;
+
+START TRANSACTION;
+
+-- Same exclusive graph lock the application takes before changing the role
+-- graph (the authorization state singleton row), so no inheritance update can
+-- interleave with the rebuild.
+SELECT global_auth_version FROM sys_authorization_state WHERE id = 1 FOR UPDATE;
+
+DELETE FROM sys_role_inheritance WHERE depth > 1;
+
+-- The application rejects cycles. If legacy data still contains one, the
+-- recursion stops at cte_max_recursion_depth with an error and nothing is
+-- committed; remove the offending edge and rerun.
+INSERT INTO sys_role_inheritance (ancestor_id, descendant_id, depth)
+WITH RECURSIVE role_paths (ancestor_id, descendant_id, depth) AS (
+    SELECT ancestor_id, descendant_id, 1
+    FROM sys_role_inheritance
+    WHERE depth = 1
+    UNION DISTINCT
+    SELECT edge.ancestor_id, role_paths.descendant_id, role_paths.depth + 1
+    FROM role_paths
+    INNER JOIN sys_role_inheritance edge
+        ON edge.descendant_id = role_paths.ancestor_id AND edge.depth = 1
+)
+SELECT ancestor_id, descendant_id, MIN(depth)
+FROM role_paths
+GROUP BY ancestor_id, descendant_id
+HAVING MIN(depth) > 1;
+
+COMMIT;
@@ -0,0 +1,39 @@
+-- Existing databases must run this once before starting a backend that keeps
+-- sys_sod_constraint_role in sync with sys_sod_constraint.role_set. The child
+-- table lets MySQL answer "which constraints reference role X" and compute
+-- conflicts with a grouped index lookup instead of parsing every JSON array.
+-- The script is idempotent on MySQL 8: the table is created if missing and
+-- the rows are always rebuilt from role_set, which remains the source of
+-- truth for the constraint definition.
+USE permacore_iam;
+
+CREATE TABLE IF NOT EXISTS sys_sod_constraint_role (
+    constraint_id BIGINT NOT NULL COMMENT '约束ID',
+    role_id       BIGINT NOT NULL COMMENT '互斥角色ID',
+    PRIMARY KEY (constraint_id, role_id),
+    KEY idx_sod_constraint_role_role (role_id, constraint_id),
+    CONSTRAINT fk_sod_constraint_role_constraint FOREIGN KEY (constraint_id) REFERENCES sys_sod_constraint (id),
+    CONSTRAINT fk_sod_constraint_role_role FOREIGN KEY (role_id) REFERENCES sys_role (id)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='职责分离约束角色表';
+
+START TRANSACTION;
+
+-- Same exclusive graph lock the application takes before changing
+-- constraints: the authorization state singleton row.
+SELECT global_auth_version FROM sys_authorization_state WHERE id = 1 FOR UPDATE;
+
+DELETE FROM sys_sod_constraint_role;
+
+-- A role_set that is not a JSON array of ids makes JSON_TABLE fail and
+-- nothing is committed; fix the row and rerun. Ids of roles that no longer
+-- exist are skipped, as no user can hold them.
+INSERT INTO sys_sod_constraint_role (constraint_id, role_id)
+SELECT DISTINCT sc.id, roles_in_constraint.role_id
+FROM sys_sod_constraint sc
+INNER JOIN JSON_TABLE(
+    sc.role_set,
+    '$[*]' COLUMNS (role_id BIGINT PATH '$')
+) roles_in_constraint
+INNER JOIN sys_role r ON r.id = roles_in_constraint.role_id;
+
+COMMIT;
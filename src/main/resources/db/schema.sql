@@ -69,6 +69,7 @@ CREATE TABLE IF NOT EXISTS sys_role (
     role_type   TINYINT      DEFAULT 2                COMMENT '角色类型：1-系统角色 2-自定义角色',
     sort_order  INT          DEFAULT 0                COMMENT '排序',
     status      TINYINT      DEFAULT 1                COMMENT '状态：1-启用 0-禁用',
+    auth_version BIGINT      NOT NULL DEFAULT 0       COMMENT '角色授权版本，影响使用该角色的会话时递增',
     create_by   BIGINT       DEFAULT NULL             COMMENT '创建人',
     create_time DATETIME     DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
     update_by   BIGINT       DEFAULT NULL             COMMENT '更新人',
@@ -124,7 +125,7 @@ CREATE TABLE IF NOT EXISTS sys_role_inheritance (
     id            BIGINT NOT NULL AUTO_INCREMENT COMMENT 'ID',
     ancestor_id   BIGINT NOT NULL                 COMMENT '祖先角色ID',
     descendant_id BIGINT NOT NULL                 COMMENT '后代角色ID',
-    depth         INT    DEFAULT 1                COMMENT '继承深度',
+    depth         INT    DEFAULT 1                COMMENT '继承深度：1为直接继承，大于1为闭包中的最短路径长度',
     PRIMARY KEY (id),
     UNIQUE KEY uk_ancestor_descendant (ancestor_id, descendant_id),
     KEY idx_role_inheritance_desc_anc (descendant_id, ancestor_id),
@@ -143,6 +144,16 @@ CREATE TABLE IF NOT EXISTS sys_sod_constraint (
     PRIMARY KEY (id)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='职责分离约束表';
 
+-- role_set 的规范化副本，由应用在同一事务内维护，供按角色反查约束与分组冲突查询使用
+CREATE TABLE IF NOT EXISTS sys_sod_constraint_role (
+    constraint_id BIGINT NOT NULL COMMENT '约束ID',
+    role_id       BIGINT NOT NULL COMMENT '互斥角色ID',
+    PRIMARY KEY (constraint_id, role_id),
+    KEY idx_sod_constraint_role_role (role_id, constraint_id),
+    CONSTRAINT fk_sod_constraint_role_constraint FOREIGN KEY (constraint_id) REFERENCES sys_sod_constraint (id),
+    CONSTRAINT fk_sod_constraint_role_role FOREIGN KEY (role_id) REFERENCES sys_role (id)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='职责分离约束角色表';
+
 -- 9. 登录日志表
 CREATE TABLE IF NOT EXISTS sys_login_log (
     id          BIGINT       NOT NULL AUTO_INCREMENT COMMENT '日志ID',
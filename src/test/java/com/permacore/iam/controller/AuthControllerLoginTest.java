@@ -0,0 +1,144 @@
+package com.permacore.iam.controller;
+
+import com.permacore.iam.domain.entity.SysLoginLogEntity;
+import com.permacore.iam.domain.entity.SysUserEntity;
+import com.permacore.iam.domain.vo.LoginVO;
+import com.permacore.iam.domain.vo.Result;
+import com.permacore.iam.domain.vo.ResultCode;
+import com.permacore.iam.domain.vo.SessionRoleStateVO;
+import com.permacore.iam.mapper.SysRoleMapper;
+import com.permacore.iam.mapper.SysUserMapper;
+import com.permacore.iam.security.authn.PasswordVerifier;
+import com.permacore.iam.security.handler.BusinessException;
+import com.permacore.iam.service.AuthorizationStateService;
+import com.permacore.iam.service.RoleSessionService;
+import com.permacore.iam.service.SysLoginLogService;
+import com.permacore.iam.utils.JwtUtil;
+import com.permacore.iam.utils.RedisCacheUtil;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class AuthControllerLoginTest {
+
+    @Mock
+    private SysUserMapper userMapper;
+    @Mock
+    private SysLoginLogService loginLogService;
+    @Mock
+    private AuthorizationStateService authorizationStateService;
+    @Mock
+    private PasswordEncoder passwordEncoder;
+    @Mock
+    private PasswordVerifier passwordVerifier;
+    @Mock
+    private RoleSessionService roleSessionService;
+    @Mock
+    private SysRoleMapper roleMapper;
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private AuthController controller;
+
+    @BeforeEach
+    void setUp() {
+        JwtUtil jwtUtil = new JwtUtil();
+        ReflectionTestUtils.setField(jwtUtil, "secret", "0123456789abcdef0123456789abcdef");
+        ReflectionTestUtils.setField(jwtUtil, "expiration", 3600L);
+        ReflectionTestUtils.setField(jwtUtil, "refreshExpiration", 7200L);
+        jwtUtil.initializeSecretKey();
+
+        RedisCacheUtil cache = new RedisCacheUtil();
+        ReflectionTestUtils.setField(cache, "redisEnabled", false);
+        controller = new AuthController(jwtUtil, cache, userMapper, loginLogService, passwordEncoder,
+                passwordVerifier, roleSessionService, authorizationStateService, roleMapper,
+                new TransactionTemplate(transactionManager));
+    }
+
+    @Test
+    void verifiesThePasswordBeforeOpeningTheTransactionOrTakingTheGraphLock() {
+        SysUserEntity user = user((byte) 1, "hash");
+        when(userMapper.selectAuthenticationStateByUsername("alice")).thenReturn(user);
+        when(userMapper.selectAuthenticationStateById(1L)).thenReturn(user((byte) 1, "hash"));
+        when(passwordVerifier.matches("secret-password", "hash")).thenReturn(true);
+        when(roleSessionService.buildDefaultState(any(SysUserEntity.class))).thenReturn(new SessionRoleStateVO());
+        when(roleSessionService.buildJwtClaims(anyLong(), any(), any(), any()))
+                .thenReturn(new HashMap<>(Map.of("userId", 1L)));
+
+        Result<Map<String, Object>> result = controller.login(login(), new MockHttpServletRequest());
+
+        assertThat(result.getCode()).isEqualTo(200);
+        assertThat(result.getData().get("accessToken")).isNotNull();
+        InOrder order = inOrder(userMapper, passwordVerifier, transactionManager, roleMapper);
+        order.verify(userMapper).selectAuthenticationStateByUsername("alice");
+        order.verify(passwordVerifier).matches("secret-password", "hash");
+        order.verify(transactionManager).getTransaction(any());
+        order.verify(roleMapper).lockGraphEpochShared();
+        order.verify(userMapper).selectAuthenticationStateById(1L);
+    }
+
+    @Test
+    void rejectsAUserWhosePasswordChangedWhileTheCheckWasQueued() {
+        when(userMapper.selectAuthenticationStateByUsername("alice")).thenReturn(user((byte) 1, "old-hash"));
+        when(userMapper.selectAuthenticationStateById(1L)).thenReturn(user((byte) 1, "new-hash"));
+        when(passwordVerifier.matches("secret-password", "old-hash")).thenReturn(true);
+
+        assertThatThrownBy(() -> controller.login(login(), new MockHttpServletRequest()))
+                .isInstanceOfSatisfying(BusinessException.class,
+                        e -> assertThat(e.getCode()).isEqualTo(ResultCode.UNAUTHORIZED.getCode()));
+        verify(roleSessionService, never()).buildDefaultState(any(SysUserEntity.class));
+        verify(loginLogService).save(argThat((SysLoginLogEntity log) -> log.getStatus() == 0));
+    }
+
+    @Test
+    void wrongPasswordNeverOpensATransaction() {
+        when(userMapper.selectAuthenticationStateByUsername("alice")).thenReturn(user((byte) 1, "hash"));
+        when(passwordVerifier.matches("secret-password", "hash")).thenReturn(false);
+
+        assertThatThrownBy(() -> controller.login(login(), new MockHttpServletRequest()))
+                .isInstanceOf(BusinessException.class);
+        verify(transactionManager, never()).getTransaction(any());
+        verify(roleMapper, never()).lockGraphEpochShared();
+    }
+
+    private LoginVO login() {
+        LoginVO login = new LoginVO();
+        login.setUsername("alice");
+        login.setPassword("secret-password");
+        return login;
+    }
+
+    private SysUserEntity user(byte status, String passwordHash) {
+        SysUserEntity user = new SysUserEntity();
+        user.setId(1L);
+        user.setUsername("alice");
+        user.setPassword(passwordHash);
+        user.setStatus(status);
+        user.setDelFlag((byte) 0);
+        user.setAuthVersion(0L);
+        user.setGlobalAuthVersion(0L);
+        return user;
+    }
+}
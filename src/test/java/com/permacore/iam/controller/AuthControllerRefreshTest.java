@@ -6,6 +6,7 @@ import com.permacore.iam.domain.vo.SessionRoleStateVO;
 import com.permacore.iam.domain.vo.RoleSessionUpdateVO;
 import com.permacore.iam.mapper.SysUserMapper;
 import com.permacore.iam.mapper.SysRoleMapper;
+import com.permacore.iam.security.authn.PasswordVerifier;
 import com.permacore.iam.security.handler.BusinessException;
 import com.permacore.iam.service.RoleSessionService;
 import com.permacore.iam.service.SysLoginLogService;
@@ -19,6 +20,8 @@ import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.mock.web.MockHttpServletRequest;
 
 import java.util.HashMap;
@@ -30,6 +33,8 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.never;
@@ -46,6 +51,8 @@ class AuthControllerRefreshTest {
     @Mock
     private PasswordEncoder passwordEncoder;
     @Mock
+    private PasswordVerifier passwordVerifier;
+    @Mock
     private RoleSessionService roleSessionService;
     @Mock
     private SysRoleMapper roleMapper;
@@ -66,7 +73,8 @@ class AuthControllerRefreshTest {
         cache = new RedisCacheUtil();
         ReflectionTestUtils.setField(cache, "redisEnabled", false);
         controller = new AuthController(jwtUtil, cache, userMapper,
-                loginLogService, passwordEncoder, roleSessionService, authorizationStateService, roleMapper);
+                loginLogService, passwordEncoder, passwordVerifier, roleSessionService, authorizationStateService, roleMapper,
+                new TransactionTemplate(mock(PlatformTransactionManager.class)));
 
         activeUser = new SysUserEntity();
         activeUser.setId(1L);
@@ -80,8 +88,9 @@ class AuthControllerRefreshTest {
 
     @Test
     void refreshRotatesSessionAndRejectsReplayAndAccessToken() {
+        when(roleSessionService.matchesRoleVersions(any(), anyLong())).thenReturn(true);
         when(roleSessionService.parseRoleIdsClaim(any())).thenReturn(List.of());
-        when(roleSessionService.buildDefaultState(anyLong())).thenReturn(new SessionRoleStateVO());
+        when(roleSessionService.buildDefaultState(activeUser)).thenReturn(new SessionRoleStateVO());
         when(roleSessionService.buildJwtClaims(anyLong(), any(), any(), any())).thenAnswer(invocation -> {
             Map<String, Object> claims = new HashMap<>();
             claims.put("userId", invocation.getArgument(0));
@@ -121,8 +130,9 @@ class AuthControllerRefreshTest {
     @Test
     void refreshPreservesAnExplicitlyEmptyActiveRoleSet() {
         SessionRoleStateVO emptyState = new SessionRoleStateVO();
+        when(roleSessionService.matchesRoleVersions(any(), anyLong())).thenReturn(true);
         when(roleSessionService.parseRoleIdsClaim(any())).thenReturn(List.of());
-        when(roleSessionService.buildState(1L, List.of())).thenReturn(emptyState);
+        when(roleSessionService.buildState(activeUser, List.of())).thenReturn(emptyState);
         when(roleSessionService.buildJwtClaims(anyLong(), any(), any(), any()))
                 .thenReturn(new HashMap<>(Map.of("userId", 1L)));
         cache.setJwtVersion(1L, "empty-role-session", 2, TimeUnit.HOURS);
@@ -133,8 +143,8 @@ class AuthControllerRefreshTest {
 
         controller.refresh(Map.of("refreshToken", refresh));
 
-        verify(roleSessionService).buildState(1L, List.of());
-        verify(roleSessionService, never()).buildDefaultState(1L);
+        verify(roleSessionService).buildState(activeUser, List.of());
+        verify(roleSessionService, never()).buildDefaultState(any(SysUserEntity.class));
     }
 
     @Test
@@ -167,12 +177,13 @@ class AuthControllerRefreshTest {
                 .isInstanceOf(BusinessException.class)
                 .extracting(error -> ((BusinessException) error).getCode())
                 .isEqualTo(401);
-        verify(roleSessionService, never()).buildState(anyLong(), any());
+        verify(roleSessionService, never()).buildState(any(SysUserEntity.class), any());
     }
 
     @Test
-    void refreshRejectsAStaleGlobalAuthorizationVersion() {
+    void refreshRejectsARoleVersionChangeBehindAnAdvancedGlobalVersion() {
         activeUser.setGlobalAuthVersion(9L);
+        when(roleSessionService.matchesRoleVersions(any(), eq(9L))).thenReturn(false);
         cache.setJwtVersion(1L, "stale-global-session", 2, TimeUnit.HOURS);
         String refresh = jwtUtil.generateRefreshToken(
                 Map.of("userId", 1L, "authVersion", 0L, "globalAuthVersion", 8L),
@@ -181,6 +192,6 @@ class AuthControllerRefreshTest {
         assertThatThrownBy(() -> controller.refresh(Map.of("refreshToken", refresh)))
                 .isInstanceOf(BusinessException.class)
                 .hasMessageContaining("RefreshToken");
-        verify(roleSessionService, never()).buildDefaultState(1L);
+        verify(roleSessionService, never()).buildDefaultState(any(SysUserEntity.class));
     }
 }
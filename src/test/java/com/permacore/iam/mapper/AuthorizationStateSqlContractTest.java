@@ -5,6 +5,7 @@ import org.junit.jupiter.api.Test;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -35,6 +36,28 @@ class AuthorizationStateSqlContractTest {
         assertThat(mapperXml).doesNotContain("incrementAllActiveAuthVersions");
     }
 
+    @Test
+    void graphEpochLocksTouchOnlyTheSingletonRow() throws IOException {
+        String mapperXml = readResource("mapper/SysRoleMapper.xml");
+        String exclusive = element(mapperXml, "<select id=\"lockGraphEpoch\"", "</select>");
+        String shared = element(mapperXml, "<select id=\"lockGraphEpochShared\"", "</select>");
+
+        assertThat(exclusive)
+                .contains("FROM sys_authorization_state WHERE id = 1 FOR UPDATE")
+                .doesNotContain("sys_role");
+        assertThat(shared)
+                .contains("FROM sys_authorization_state WHERE id = 1 FOR SHARE")
+                .doesNotContain("sys_role");
+        // 在线执行的回填脚本必须与应用争用同一把锁
+        for (String migration : List.of("db/migrations/20261017_role_inheritance_closure.sql",
+                "db/migrations/20261017_sod_constraint_role.sql")) {
+            assertThat(readResource(migration))
+                    .as(migration)
+                    .contains("SELECT global_auth_version FROM sys_authorization_state WHERE id = 1 FOR UPDATE")
+                    .doesNotContain("FROM sys_role ORDER BY id FOR UPDATE");
+        }
+    }
+
     @Test
     void freshAndExistingDatabasesCreateTheSameSingletonAndInitUsesIt() throws IOException {
         String schema = readResource("db/schema.sql");
@@ -0,0 +1,81 @@
+package com.permacore.iam.mapper;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SodConstraintRoleSqlContractTest {
+
+    @Test
+    void referencingQueryReadsTheNormalizedRoleRows() throws IOException {
+        String mapperXml = readResource("mapper/SysSodConstraintRoleMapper.xml");
+        String referencing = element(mapperXml, "<select id=\"selectConstraintNamesByRoleId\"", "</select>");
+
+        assertThat(referencing)
+                .contains("WHERE scr.role_id = #{roleId}")
+                .doesNotContain("role_set");
+    }
+
+    @Test
+    void existingUserCheckExpandsInheritanceThroughTheClosureTable() throws IOException {
+        String mapperXml = readResource("mapper/SysUserRoleMapper.xml");
+        String select = element(mapperXml, "<select id=\"selectFirstUserHoldingAtLeastTwo\"", "</select>");
+
+        assertThat(select)
+                .contains("UNION")
+                .contains("INNER JOIN sys_user_role ur ON ur.role_id = ri.descendant_id")
+                .contains("u.del_flag = 0")
+                .contains("HAVING COUNT(*) &gt;= 2")
+                .contains("LIMIT 1");
+    }
+
+    @Test
+    void auditStreamsUserRolesInIndexOrderWithKeysetPages() throws IOException {
+        String mapperXml = readResource("mapper/SysUserRoleMapper.xml");
+        String select = element(mapperXml, "<select id=\"streamUserRolesAfter\"", "</select>");
+
+        assertThat(select)
+                .contains("fetchSize=\"-2147483648\"")
+                .contains("user_id &gt; #{afterUserId}")
+                .contains("LIMIT #{userLimit}")
+                .contains("del_flag = 0")
+                .contains("ORDER BY ur.user_id, ur.role_id")
+                .doesNotContain("OFFSET");
+    }
+
+    @Test
+    void freshAndExistingDatabasesCreateTheChildTableAndBackfillIt() throws IOException {
+        String schema = readResource("db/schema.sql");
+        String migration = readResource("db/migrations/20261017_sod_constraint_role.sql");
+        String init = readResource("db/init-permissions.sql");
+
+        assertThat(schema)
+                .contains("CREATE TABLE IF NOT EXISTS sys_sod_constraint_role")
+                .contains("PRIMARY KEY (constraint_id, role_id)")
+                .contains("KEY idx_sod_constraint_role_role (role_id, constraint_id)");
+        assertThat(migration)
+                .contains("CREATE TABLE IF NOT EXISTS sys_sod_constraint_role")
+                .contains("DELETE FROM sys_sod_constraint_role")
+                .contains("JSON_TABLE(");
+        assertThat(init).contains("INSERT IGNORE INTO sys_sod_constraint_role");
+    }
+
+    private String readResource(String path) throws IOException {
+        try (InputStream input = Thread.currentThread().getContextClassLoader().getResourceAsStream(path)) {
+            assertThat(input).as("classpath resource %s", path).isNotNull();
+            return new String(input.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private String element(String xml, String startMarker, String endMarker) {
+        int start = xml.indexOf(startMarker);
+        assertThat(start).as("start marker %s", startMarker).isGreaterThanOrEqualTo(0);
+        int end = xml.indexOf(endMarker, start);
+        assertThat(end).as("end marker %s", endMarker).isGreaterThan(start);
+        return xml.substring(start, end + endMarker.length());
+    }
+}
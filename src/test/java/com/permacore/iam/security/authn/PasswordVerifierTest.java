@@ -0,0 +1,145 @@
+package com.permacore.iam.security.authn;
+
+import com.permacore.iam.security.handler.ServiceOverloadedException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class PasswordVerifierTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final PasswordEncoder passwordEncoder = mock(PasswordEncoder.class);
+    private PasswordVerifier verifier;
+
+    @AfterEach
+    void tearDown() {
+        if (verifier != null) {
+            verifier.stop();
+        }
+    }
+
+    @Test
+    void verifiesOnTheDedicatedPoolAndRecordsQueueWait() {
+        when(passwordEncoder.matches("secret", "hash")).thenAnswer(invocation -> {
+            assertThat(Thread.currentThread().getName()).startsWith("password-verifier-");
+            return true;
+        });
+        verifier = verifier(2, 4);
+
+        assertThat(verifier.matches("secret", "hash")).isTrue();
+        assertThat(verifier.matches("wrong", "hash")).isFalse();
+        assertThat(registry.get(PasswordVerifier.WAIT_TIMER).timer().count()).isEqualTo(2);
+        assertThat(registry.get(PasswordVerifier.QUEUE_GAUGE).gauge().value()).isZero();
+    }
+
+    @Test
+    void rejectsImmediatelyWhenTheQueueIsFull() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(passwordEncoder.matches("slow", "hash")).thenAnswer(invocation -> {
+            started.countDown();
+            return release.await(5, TimeUnit.SECONDS);
+        });
+        verifier = verifier(1, 1);
+
+        CompletableFuture<Boolean> running = CompletableFuture.supplyAsync(() -> verifier.matches("slow", "hash"));
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+        CompletableFuture<Boolean> queued = CompletableFuture.supplyAsync(() -> verifier.matches("slow", "hash"));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (registry.get(PasswordVerifier.QUEUE_GAUGE).gauge().value() < 1 && System.nanoTime() < deadline) {
+            Thread.onSpinWait();
+        }
+
+        assertThatThrownBy(() -> verifier.matches("slow", "hash"))
+                .isInstanceOfSatisfying(ServiceOverloadedException.class,
+                        e -> assertThat(e.getRetryAfterSeconds()).isEqualTo(3));
+        assertThat(registry.get(PasswordVerifier.REJECTION_COUNTER).counter().count()).isEqualTo(1);
+
+        release.countDown();
+        assertThat(running.get(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(queued.get(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    void hashesNewPasswordsOnTheSamePoolAndRejectsWhenItIsFull() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(passwordEncoder.encode("new-secret")).thenAnswer(invocation -> {
+            assertThat(Thread.currentThread().getName()).startsWith("password-verifier-");
+            return "new-hash";
+        });
+        when(passwordEncoder.matches("slow", "hash")).thenAnswer(invocation -> {
+            started.countDown();
+            return release.await(5, TimeUnit.SECONDS);
+        });
+        verifier = verifier(1, 1);
+
+        assertThat(verifier.encode("new-secret")).isEqualTo("new-hash");
+        assertThat(registry.get(PasswordVerifier.WAIT_TIMER).timer().count()).isEqualTo(1);
+
+        CompletableFuture<Boolean> running = CompletableFuture.supplyAsync(() -> verifier.matches("slow", "hash"));
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+        CompletableFuture<String> queued = CompletableFuture.supplyAsync(() -> verifier.encode("new-secret"));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (registry.get(PasswordVerifier.QUEUE_GAUGE).gauge().value() < 1 && System.nanoTime() < deadline) {
+            Thread.onSpinWait();
+        }
+
+        assertThatThrownBy(() -> verifier.encode("new-secret"))
+                .isInstanceOfSatisfying(ServiceOverloadedException.class,
+                        e -> assertThat(e.getRetryAfterSeconds()).isEqualTo(3));
+        assertThat(registry.get(PasswordVerifier.REJECTION_COUNTER).counter().count()).isEqualTo(1);
+
+        release.countDown();
+        assertThat(running.get(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(queued.get(5, TimeUnit.SECONDS)).isEqualTo("new-hash");
+    }
+
+    @Test
+    void admittedLoginsNeverExceedTheConnectionPool() {
+        verifier = verifier(4, 0, 10);
+        assertThat(queueCapacity(verifier)).isEqualTo(6);
+        verifier.stop();
+
+        verifier = verifier(4, 100, 10);
+        assertThat(queueCapacity(verifier)).isEqualTo(6);
+        verifier.stop();
+
+        verifier = verifier(32, 0, 10);
+        ThreadPoolExecutor executor = executor(verifier);
+        assertThat(executor.getMaximumPoolSize() + queueCapacity(verifier)).isEqualTo(10);
+    }
+
+    private PasswordVerifier verifier(int threads, int queueCapacity) {
+        return verifier(threads, queueCapacity, 20);
+    }
+
+    @SuppressWarnings("unchecked")
+    private PasswordVerifier verifier(int threads, int queueCapacity, int connectionPoolSize) {
+        ObjectProvider<MeterRegistry> provider = mock(ObjectProvider.class);
+        when(provider.getIfAvailable()).thenReturn(registry);
+        return new PasswordVerifier(passwordEncoder, provider, threads, queueCapacity, 3, connectionPoolSize);
+    }
+
+    private ThreadPoolExecutor executor(PasswordVerifier verifier) {
+        return (ThreadPoolExecutor) ReflectionTestUtils.getField(verifier, "executor");
+    }
+
+    private int queueCapacity(PasswordVerifier verifier) {
+        return executor(verifier).getQueue().remainingCapacity();
+    }
+}
@@ -0,0 +1,113 @@
+package com.permacore.iam.security.authz;
+
+import com.permacore.iam.domain.entity.SysUserEntity;
+import com.permacore.iam.mapper.SysUserMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class AuthorizationStateCacheTest {
+
+    @Test
+    void servesRepeatedLookupsFromMemoryUntilTheUserIsInvalidated() {
+        SysUserMapper userMapper = mock(SysUserMapper.class);
+        when(userMapper.selectUserAuthorizationStateById(5L))
+                .thenReturn(row(5L, 1L, null))
+                .thenReturn(row(5L, 2L, null));
+        when(userMapper.selectGlobalAuthVersion()).thenReturn(3L);
+        AuthorizationStateCache cache = cache(userMapper, false, null);
+
+        assertThat(cache.get(5L).authVersion()).isEqualTo(1L);
+        assertThat(cache.get(5L).authVersion()).isEqualTo(1L);
+        verify(userMapper, times(1)).selectUserAuthorizationStateById(5L);
+
+        cache.evictUsers(List.of(5L));
+
+        assertThat(cache.get(5L).authVersion()).isEqualTo(2L);
+        verify(userMapper, times(2)).selectUserAuthorizationStateById(5L);
+        verify(userMapper, never()).selectAuthorizationStateById(5L);
+    }
+
+    @Test
+    void globalVersionIsAdvancedByCommitsAndPushesWithoutReloading() {
+        SysUserMapper userMapper = mock(SysUserMapper.class);
+        when(userMapper.selectUserAuthorizationStateById(5L)).thenReturn(row(5L, 1L, null));
+        when(userMapper.selectGlobalAuthVersion()).thenReturn(3L);
+        AuthorizationStateCache cache = cache(userMapper, false, null);
+        assertThat(cache.get(5L).globalAuthVersion()).isEqualTo(3L);
+
+        cache.publishGlobal(4L);
+        assertThat(cache.get(5L).globalAuthVersion()).isEqualTo(4L);
+
+        cache.onMessage(new DefaultMessage(new byte[0], "g:6".getBytes(StandardCharsets.UTF_8)), null);
+        cache.onMessage(new DefaultMessage(new byte[0], "g:5".getBytes(StandardCharsets.UTF_8)), null);
+        AuthorizationStateCache.AuthorizationState state = cache.get(5L);
+        assertThat(state.authVersion()).isEqualTo(1L);
+        assertThat(state.globalAuthVersion()).isEqualTo(6L);
+        assertThat(cache.currentGlobalAuthVersion()).isEqualTo(6L);
+        verify(userMapper, times(1)).selectUserAuthorizationStateById(5L);
+        verify(userMapper, times(1)).selectGlobalAuthVersion();
+    }
+
+    @Test
+    void watcherRereadsTheDatabaseOnceTheStalenessBoundIsExceeded() {
+        SysUserMapper userMapper = mock(SysUserMapper.class);
+        when(userMapper.selectGlobalAuthVersion()).thenReturn(2L, 3L);
+        GlobalAuthVersionWatcher watcher = new GlobalAuthVersionWatcher(userMapper, 60_000L, 0L);
+
+        assertThat(watcher.current()).isEqualTo(2L);
+        assertThat(watcher.current()).isEqualTo(2L);
+        verify(userMapper, times(1)).selectGlobalAuthVersion();
+
+        watcher.invalidate();
+        assertThat(watcher.current()).isEqualTo(3L);
+        watcher.confirm(1L, System.currentTimeMillis());
+        assertThat(watcher.current()).isEqualTo(3L);
+        verify(userMapper, times(2)).selectGlobalAuthVersion();
+    }
+
+    @Test
+    void bypassesTheCacheWhileRedisInvalidationsCannotBeReceived() {
+        SysUserMapper userMapper = mock(SysUserMapper.class);
+        when(userMapper.selectAuthorizationStateById(5L)).thenReturn(row(5L, 1L, 3L));
+        RedisMessageListenerContainer container = mock(RedisMessageListenerContainer.class);
+        when(container.isRunning()).thenReturn(true);
+        when(container.isListening()).thenReturn(false);
+        AuthorizationStateCache cache = cache(userMapper, true, container);
+
+        cache.get(5L);
+        cache.get(5L);
+
+        verify(userMapper, times(2)).selectAuthorizationStateById(5L);
+    }
+
+    @SuppressWarnings("unchecked")
+    private AuthorizationStateCache cache(SysUserMapper userMapper, boolean redisEnabled,
+            RedisMessageListenerContainer container) {
+        ObjectProvider<RedisMessageListenerContainer> containerProvider = mock(ObjectProvider.class);
+        when(containerProvider.getIfAvailable()).thenReturn(container);
+        return new AuthorizationStateCache(userMapper, new GlobalAuthVersionWatcher(userMapper, 60_000L, 0L),
+                mock(ObjectProvider.class), containerProvider, redisEnabled, 60_000L, 100L);
+    }
+
+    private SysUserEntity row(Long id, Long authVersion, Long globalAuthVersion) {
+        SysUserEntity user = new SysUserEntity();
+        user.setId(id);
+        user.setStatus((byte) 1);
+        user.setDelFlag((byte) 0);
+        user.setAuthVersion(authVersion);
+        user.setGlobalAuthVersion(globalAuthVersion);
+        return user;
+    }
+}
@@ -0,0 +1,37 @@
+package com.permacore.iam.security.authz;
+
+import com.permacore.iam.mapper.SysPermissionMapper;
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class PermissionCatalogTest {
+
+    @Test
+    void reusesOneSnapshotUntilTheGlobalAuthorizationVersionAdvances() {
+        SysPermissionMapper permissionMapper = mock(SysPermissionMapper.class);
+        when(permissionMapper.selectAllEnabledPermKeys())
+                .thenReturn(Set.of("system:user:query"))
+                .thenReturn(Set.of("system:user:query", "role:add"));
+        PermissionCatalog catalog = new PermissionCatalog(permissionMapper, mock(AuthorizationStateCache.class));
+
+        PermissionCatalog.Snapshot first = catalog.forVersion(3L);
+        assertThat(catalog.forVersion(3L)).isSameAs(first);
+        assertThat(catalog.forVersion(2L)).isSameAs(first);
+        assertThat(first.adminAuthorities())
+                .extracting("authority")
+                .containsExactly("admin:*", "system:user:query");
+
+        PermissionCatalog.Snapshot second = catalog.forVersion(4L);
+
+        assertThat(second.version()).isEqualTo(4L);
+        assertThat(second.permissionKeys()).containsExactly("admin:*", "role:add", "system:user:query");
+        verify(permissionMapper, times(2)).selectAllEnabledPermKeys();
+    }
+}
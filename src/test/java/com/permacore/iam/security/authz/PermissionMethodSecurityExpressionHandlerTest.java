@@ -0,0 +1,67 @@
+package com.permacore.iam.security.authz;
+
+import com.permacore.iam.mapper.SysPermissionMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.expression.EvaluationContext;
+import org.springframework.security.access.expression.ExpressionUtils;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.util.SimpleMethodInvocation;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class PermissionMethodSecurityExpressionHandlerTest {
+
+    private final PermissionMethodSecurityExpressionHandler handler = new PermissionMethodSecurityExpressionHandler();
+
+    @Test
+    void answersAuthorityChecksFromTheRequestPermissionBitset() {
+        PermissionCatalog.Snapshot catalog = catalog("system:user:query", "role:add", "user:delete");
+        Authentication user = new PermissionAuthenticationToken(7L,
+                PermissionAuthorities.of(catalog, List.of("system:user:query")));
+        Authentication admin = new PermissionAuthenticationToken(1L,
+                PermissionAuthorities.of(catalog, List.of("admin:*")));
+
+        assertThat(evaluate("hasAuthority('system:user:query')", user)).isTrue();
+        assertThat(evaluate("hasAuthority('role:add')", user)).isFalse();
+        assertThat(evaluate("hasAnyAuthority('role:add','system:user:query')", user)).isTrue();
+        assertThat(evaluate("hasAuthority('user:delete')", admin)).isTrue();
+        assertThat(evaluate("hasAuthority('not:enabled')", admin)).isFalse();
+        assertThat(evaluate("hasAuthority('admin:*') and principal == 1L", admin)).isTrue();
+    }
+
+    @Test
+    void keepsSpringSemanticsForOtherAuthenticationTypes() {
+        Authentication other = new UsernamePasswordAuthenticationToken("alice", null,
+                AuthorityUtils.createAuthorityList("role:add"));
+
+        assertThat(evaluate("hasAuthority('role:add')", other)).isTrue();
+        assertThat(evaluate("hasAnyAuthority('user:add','user:edit')", other)).isFalse();
+    }
+
+    private boolean evaluate(String expression, Authentication authentication) {
+        EvaluationContext context = handler.createEvaluationContext(() -> authentication,
+                new SimpleMethodInvocation(this, method()));
+        return ExpressionUtils.evaluateAsBoolean(handler.getExpressionParser().parseExpression(expression), context);
+    }
+
+    private java.lang.reflect.Method method() {
+        try {
+            return Object.class.getMethod("toString");
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private PermissionCatalog.Snapshot catalog(String... permissions) {
+        SysPermissionMapper permissionMapper = mock(SysPermissionMapper.class);
+        when(permissionMapper.selectAllEnabledPermKeys()).thenReturn(Set.of(permissions));
+        return new PermissionCatalog(permissionMapper, mock(AuthorizationStateCache.class)).forVersion(0L);
+    }
+}
@@ -0,0 +1,113 @@
+package com.permacore.iam.security.authz;
+
+import com.permacore.iam.domain.entity.SysRoleEntity;
+import com.permacore.iam.domain.entity.SysRoleInheritanceEntity;
+import com.permacore.iam.mapper.SysRoleInheritanceMapper;
+import com.permacore.iam.mapper.SysRoleMapper;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class RoleGraphTest {
+
+    @Test
+    void enabledClosureStopsAtDisabledAncestorsWhileTheFullClosureDoesNot() {
+        // 1 -> 2 -> 4, 1 -> 3 -> 4, 5 -> 2；角色 2 被禁用
+        RoleGraph.Snapshot graph = RoleGraph.build(3L,
+                List.of(role(1L, 1), role(2L, 0), role(3L, 1), role(4L, 1), role(5L, 1)),
+                List.of(edge(1L, 2L), edge(2L, 4L), edge(1L, 3L), edge(3L, 4L), edge(5L, 2L)));
+
+        assertThat(graph.version()).isEqualTo(3L);
+        assertThat(graph.ancestorsOf(List.of(4L), false)).containsExactly(1L, 2L, 3L, 5L);
+        assertThat(graph.ancestorsOf(List.of(4L), true)).containsExactly(1L, 3L);
+        assertThat(graph.ancestorsOf(List.of(2L), true)).containsExactly(1L, 5L);
+        assertThat(graph.descendantsOf(1L, false)).containsExactly(2L, 3L, 4L);
+        assertThat(graph.descendantsOf(5L, false)).containsExactly(2L, 4L);
+        assertThat(graph.descendantsOf(5L, true)).containsExactly(2L);
+        assertThat(graph.ancestorsOf(List.of(99L), false)).isEmpty();
+        assertThat(graph.isEnabled(2L)).isFalse();
+    }
+
+    @Test
+    void descendantDepthsUseTheShortestPathAndFollowLevelOrder() {
+        // 1 -> 2 -> 3 -> 4，另有捷径 1 -> 4 与 2 -> 5
+        RoleGraph.Snapshot graph = RoleGraph.build(0L,
+                List.of(role(1L, 1), role(2L, 1), role(3L, 0), role(4L, 1), role(5L, 1)),
+                List.of(edge(1L, 2L), edge(2L, 3L), edge(3L, 4L), edge(1L, 4L), edge(2L, 5L)));
+
+        assertThat(graph.descendantDepths(1L))
+                .containsExactly(entry(2L, 1), entry(4L, 1), entry(3L, 2), entry(5L, 2));
+        assertThat(graph.descendantDepths(2L)).containsExactly(entry(3L, 1), entry(5L, 1), entry(4L, 2));
+        assertThat(graph.descendantDepths(99L)).isEmpty();
+        assertThat(graph.parentsOf(4L)).containsExactly(1L, 3L);
+    }
+
+    @Test
+    void cyclicLegacyDataStillProducesTheReachableClosure() {
+        RoleGraph.Snapshot graph = RoleGraph.build(0L,
+                List.of(role(1L, 1), role(2L, 1), role(3L, 1)),
+                List.of(edge(1L, 2L), edge(2L, 1L), edge(2L, 3L)));
+
+        assertThat(graph.ancestorsOf(List.of(3L), true)).containsExactly(1L, 2L);
+        assertThat(graph.ancestorsOf(List.of(1L), false)).containsExactly(1L, 2L);
+        assertThat(graph.descendantsOf(1L, false)).containsExactly(1L, 2L, 3L);
+    }
+
+    @Test
+    void snapshotIsReusedUntilTheGlobalVersionAdvances() {
+        SysRoleMapper roleMapper = mock(SysRoleMapper.class);
+        SysRoleInheritanceMapper inheritanceMapper = mock(SysRoleInheritanceMapper.class);
+        when(roleMapper.selectGraphNodes()).thenReturn(List.of(role(1L, 1), role(2L, 1)));
+        when(inheritanceMapper.selectDirectEdges())
+                .thenReturn(List.of())
+                .thenReturn(List.of(edge(1L, 2L)));
+        RoleGraph roleGraph = new RoleGraph(roleMapper, inheritanceMapper, mock(AuthorizationStateCache.class));
+
+        RoleGraph.Snapshot first = roleGraph.forVersion(5L);
+        assertThat(roleGraph.forVersion(4L)).isSameAs(first);
+        assertThat(roleGraph.forVersion(5L).ancestorsOf(List.of(2L), true)).isEmpty();
+
+        RoleGraph.Snapshot rebuilt = roleGraph.forVersion(6L);
+        assertThat(rebuilt.ancestorsOf(List.of(2L), true)).containsExactly(1L);
+        verify(inheritanceMapper, times(2)).selectDirectEdges();
+    }
+
+    @Test
+    void roleVersionDigestIgnoresOrderAndDuplicatesButTracksEachRoleVersion() {
+        SysRoleEntity bumped = role(2L, 1);
+        bumped.setAuthVersion(1L);
+        RoleGraph.Snapshot before = RoleGraph.build(1L, List.of(role(1L, 1), role(2L, 1), role(3L, 1)), List.of());
+        RoleGraph.Snapshot after = RoleGraph.build(2L, List.of(role(1L, 1), bumped, role(3L, 1)), List.of());
+
+        long digest = before.roleVersionDigest(List.of(1L, 2L));
+        assertThat(before.roleVersionDigest(List.of(2L, 1L, 2L))).isEqualTo(digest);
+        assertThat(before.roleVersionDigest(List.of())).isZero();
+        assertThat(after.roleVersionDigest(List.of(1L, 2L))).isNotEqualTo(digest);
+        assertThat(after.roleVersionDigest(List.of(1L, 3L))).isEqualTo(before.roleVersionDigest(List.of(1L, 3L)));
+        // 已删除的角色按版本 0 计入，仍与令牌中的旧摘要一致
+        assertThat(before.roleVersionDigest(List.of(9L))).isNotZero();
+    }
+
+    private SysRoleEntity role(Long id, int status) {
+        SysRoleEntity role = new SysRoleEntity();
+        role.setId(id);
+        role.setStatus((byte) status);
+        role.setDelFlag((byte) 0);
+        return role;
+    }
+
+    private SysRoleInheritanceEntity edge(Long ancestorId, Long descendantId) {
+        SysRoleInheritanceEntity edge = new SysRoleInheritanceEntity();
+        edge.setAncestorId(ancestorId);
+        edge.setDescendantId(descendantId);
+        edge.setDepth(1);
+        return edge;
+    }
+}
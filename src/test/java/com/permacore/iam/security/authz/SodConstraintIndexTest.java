@@ -0,0 +1,82 @@
+package com.permacore.iam.security.authz;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.permacore.iam.domain.entity.SysSodConstraintEntity;
+import com.permacore.iam.mapper.SysSodConstraintMapper;
+import com.permacore.iam.security.handler.BusinessException;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class SodConstraintIndexTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void conflictsOnlyConsiderConstraintsOfTheRequestedTypeInRoleSetOrder() {
+        SodConstraintIndex.Snapshot index = SodConstraintIndex.build(1L, List.of(
+                sod(12L, "动态互斥", "[2,3]", 2),
+                sod(10L, "审计与开发", "[3,1,3,null]", 1),
+                sod(11L, "财务三权", "[4,5,6]", 1)), objectMapper);
+
+        List<SodConstraintIndex.Conflict> conflicts = index.conflicts(SodConstraintIndex.SSD, Set.of(1L, 2L, 3L));
+        assertThat(conflicts).hasSize(1);
+        assertThat(conflicts.get(0).constraint().id()).isEqualTo(10L);
+        assertThat(conflicts.get(0).roleIds()).containsExactly(3L, 1L);
+
+        assertThat(index.conflicts(SodConstraintIndex.DSD, Set.of(1L, 2L, 3L)))
+                .extracting(conflict -> conflict.constraint().name())
+                .containsExactly("动态互斥");
+        assertThat(index.conflicts(SodConstraintIndex.SSD, Set.of(4L, 7L))).isEmpty();
+        assertThat(index.touching(SodConstraintIndex.SSD, List.of(6L, 3L)))
+                .extracting(SodConstraintIndex.Constraint::id)
+                .containsExactly(10L, 11L);
+    }
+
+    @Test
+    void invalidRoleSetOnlyBlocksChecksOfItsOwnType() {
+        SodConstraintIndex.Snapshot index = SodConstraintIndex.build(1L, List.of(
+                sod(10L, "损坏的动态约束", "not-json", 2),
+                sod(11L, "静态约束", "[1,2]", 1)), objectMapper);
+
+        assertThat(index.conflicts(SodConstraintIndex.SSD, Set.of(1L, 2L))).hasSize(1);
+        assertThatThrownBy(() -> index.conflicts(SodConstraintIndex.DSD, Set.of(1L)))
+                .isInstanceOf(BusinessException.class)
+                .hasMessageContaining("SoD约束配置无效: 10");
+    }
+
+    @Test
+    void snapshotIsReusedUntilTheGlobalVersionAdvances() {
+        SysSodConstraintMapper mapper = mock(SysSodConstraintMapper.class);
+        when(mapper.selectList(any()))
+                .thenReturn(List.of())
+                .thenReturn(List.of(sod(10L, "新约束", "[1,2]", 1)));
+        SodConstraintIndex sodConstraintIndex = new SodConstraintIndex(mapper, objectMapper,
+                mock(AuthorizationStateCache.class));
+
+        SodConstraintIndex.Snapshot first = sodConstraintIndex.forVersion(5L);
+        assertThat(sodConstraintIndex.forVersion(5L)).isSameAs(first);
+        assertThat(first.size()).isZero();
+
+        assertThat(sodConstraintIndex.forVersion(6L).conflicts(SodConstraintIndex.SSD, Set.of(1L, 2L))).hasSize(1);
+        verify(mapper, times(2)).selectList(any());
+    }
+
+    private SysSodConstraintEntity sod(Long id, String name, String roleSet, int type) {
+        SysSodConstraintEntity constraint = new SysSodConstraintEntity();
+        constraint.setId(id);
+        constraint.setConstraintName(name);
+        constraint.setRoleSet(roleSet);
+        constraint.setConstraintType((byte) type);
+        return constraint;
+    }
+}
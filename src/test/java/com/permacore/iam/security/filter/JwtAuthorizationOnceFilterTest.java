@@ -5,9 +5,19 @@ import com.permacore.iam.utils.JwtUtil;
 import com.permacore.iam.utils.RedisCacheUtil;
 import com.permacore.iam.mapper.SysUserMapper;
 import com.permacore.iam.mapper.SysPermissionMapper;
+import com.permacore.iam.mapper.SysRoleInheritanceMapper;
+import com.permacore.iam.mapper.SysRoleMapper;
+import com.permacore.iam.domain.entity.SysRoleEntity;
 import com.permacore.iam.domain.entity.SysUserEntity;
+import com.permacore.iam.security.authz.AuthorizationStateCache;
+import com.permacore.iam.security.authz.GlobalAuthVersionWatcher;
+import com.permacore.iam.security.authz.PermissionCatalog;
+import com.permacore.iam.security.authz.RejectedTokenCache;
+import com.permacore.iam.security.authz.RoleGraph;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.mock.web.MockFilterChain;
 import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.mock.web.MockHttpServletResponse;
@@ -19,7 +29,11 @@ import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.clearInvocations;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
@@ -49,12 +63,14 @@ class JwtAuthorizationOnceFilterTest {
         authorizationState.setDelFlag((byte) 0);
         authorizationState.setAuthVersion(0L);
         authorizationState.setGlobalAuthVersion(0L);
-        when(userMapper.selectAuthorizationStateById(3L)).thenReturn(authorizationState);
+        stubState(userMapper, authorizationState);
+        AuthorizationStateCache stateCache = stateCache(userMapper);
         JwtAuthorizationOnceFilter filter = new JwtAuthorizationOnceFilter(
-                jwtUtil, cache, userMapper, permissionMapper, new ObjectMapper().findAndRegisterModules());
+                jwtUtil, cache, stateCache, catalog(permissionMapper), rejectedTokens(),
+                roleGraph(mock(SysRoleMapper.class)), new ObjectMapper().findAndRegisterModules(), JwtFilterMetrics.NOOP);
 
         String access = jwtUtil.generateAccessToken(
-                Map.of("userId", 3L, "authVersion", 0L, "globalAuthVersion", 0L,
+                Map.of("userId", 3L, "authVersion", 0L, "globalAuthVersion", 0L, "roleVersionDigest", 0L,
                         "permissions", List.of("system:user:query")), "session-3");
         MockHttpServletRequest accessRequest = new MockHttpServletRequest();
         accessRequest.addHeader("Authorization", "Bearer " + access);
@@ -66,6 +82,7 @@ class JwtAuthorizationOnceFilterTest {
 
         SecurityContextHolder.clearContext();
         authorizationState.setAuthVersion(1L);
+        stateCache.evictUsers(List.of(3L));
         filter.doFilter(accessRequest, new MockHttpServletResponse(), new MockFilterChain());
         assertThat(SecurityContextHolder.getContext().getAuthentication()).isNull();
 
@@ -92,8 +109,9 @@ class JwtAuthorizationOnceFilterTest {
             }
         };
         JwtAuthorizationOnceFilter filter = new JwtAuthorizationOnceFilter(
-                jwtUtil, failingCache, mock(SysUserMapper.class), mock(SysPermissionMapper.class),
-                new ObjectMapper().findAndRegisterModules());
+                jwtUtil, failingCache, stateCache(mock(SysUserMapper.class)),
+                catalog(mock(SysPermissionMapper.class)), rejectedTokens(),
+                roleGraph(mock(SysRoleMapper.class)), new ObjectMapper().findAndRegisterModules(), JwtFilterMetrics.NOOP);
         String access = jwtUtil.generateAccessToken(
                 Map.of("userId", 3L, "authVersion", 0L, "globalAuthVersion", 0L,
                         "permissions", List.of()), "session-3");
@@ -114,14 +132,15 @@ class JwtAuthorizationOnceFilterTest {
         RedisCacheUtil cache = localCache();
         cache.setJwtVersion(1L, "admin-session", 2, TimeUnit.HOURS);
         SysUserMapper userMapper = mock(SysUserMapper.class);
-        when(userMapper.selectAuthorizationStateById(1L)).thenReturn(activeUser(1L, 7L, 4L));
+        stubState(userMapper, activeUser(1L, 7L, 4L));
         SysPermissionMapper permissionMapper = mock(SysPermissionMapper.class);
         when(permissionMapper.selectAllEnabledPermKeys())
                 .thenReturn(java.util.Set.of("admin:*", "system:user:query", "role:add"));
         JwtAuthorizationOnceFilter filter = new JwtAuthorizationOnceFilter(
-                jwtUtil, cache, userMapper, permissionMapper, new ObjectMapper().findAndRegisterModules());
+                jwtUtil, cache, stateCache(userMapper), catalog(permissionMapper), rejectedTokens(),
+                roleGraph(mock(SysRoleMapper.class)), new ObjectMapper().findAndRegisterModules(), JwtFilterMetrics.NOOP);
         String token = jwtUtil.generateAccessToken(
-                Map.of("userId", 1L, "authVersion", 7L, "globalAuthVersion", 4L,
+                Map.of("userId", 1L, "authVersion", 7L, "globalAuthVersion", 4L, "roleVersionDigest", 0L,
                         "permissions", List.of("admin:*")),
                 "admin-session");
         MockHttpServletRequest request = bearerRequest(token);
@@ -141,7 +160,8 @@ class JwtAuthorizationOnceFilterTest {
         SysPermissionMapper permissionMapper = mock(SysPermissionMapper.class);
         SysUserMapper userMapper = mock(SysUserMapper.class);
         JwtAuthorizationOnceFilter filter = new JwtAuthorizationOnceFilter(
-                jwtUtil, cache, userMapper, permissionMapper, new ObjectMapper().findAndRegisterModules());
+                jwtUtil, cache, stateCache(userMapper), catalog(permissionMapper), rejectedTokens(),
+                roleGraph(mock(SysRoleMapper.class)), new ObjectMapper().findAndRegisterModules(), JwtFilterMetrics.NOOP);
         String token = jwtUtil.generateAccessToken(
                 Map.of("userId", 1L, "authVersion", 0L, "globalAuthVersion", 0L,
                         "permissions", List.of("admin:*")),
@@ -160,9 +180,10 @@ class JwtAuthorizationOnceFilterTest {
         cache.setJwtVersion(1L, "stale-admin-session", 2, TimeUnit.HOURS);
         SysPermissionMapper permissionMapper = mock(SysPermissionMapper.class);
         SysUserMapper userMapper = mock(SysUserMapper.class);
-        when(userMapper.selectAuthorizationStateById(1L)).thenReturn(activeUser(1L, 2L));
+        stubState(userMapper, activeUser(1L, 2L));
         JwtAuthorizationOnceFilter filter = new JwtAuthorizationOnceFilter(
-                jwtUtil, cache, userMapper, permissionMapper, new ObjectMapper().findAndRegisterModules());
+                jwtUtil, cache, stateCache(userMapper), catalog(permissionMapper), rejectedTokens(),
+                roleGraph(mock(SysRoleMapper.class)), new ObjectMapper().findAndRegisterModules(), JwtFilterMetrics.NOOP);
         String token = jwtUtil.generateAccessToken(
                 Map.of("userId", 1L, "authVersion", 1L, "globalAuthVersion", 0L,
                         "permissions", List.of("admin:*")),
@@ -181,9 +202,10 @@ class JwtAuthorizationOnceFilterTest {
         cache.setJwtVersion(1L, "stale-global-session", 2, TimeUnit.HOURS);
         SysPermissionMapper permissionMapper = mock(SysPermissionMapper.class);
         SysUserMapper userMapper = mock(SysUserMapper.class);
-        when(userMapper.selectAuthorizationStateById(1L)).thenReturn(activeUser(1L, 2L, 6L));
+        stubState(userMapper, activeUser(1L, 2L, 6L));
         JwtAuthorizationOnceFilter filter = new JwtAuthorizationOnceFilter(
-                jwtUtil, cache, userMapper, permissionMapper, new ObjectMapper().findAndRegisterModules());
+                jwtUtil, cache, stateCache(userMapper), catalog(permissionMapper), rejectedTokens(),
+                roleGraph(mock(SysRoleMapper.class)), new ObjectMapper().findAndRegisterModules(), JwtFilterMetrics.NOOP);
         String token = jwtUtil.generateAccessToken(
                 Map.of("userId", 1L, "authVersion", 2L, "permissions", List.of("admin:*")),
                 "stale-global-session");
@@ -194,6 +216,229 @@ class JwtAuthorizationOnceFilterTest {
         verifyNoInteractions(permissionMapper);
     }
 
+    @Test
+    void hashModeAuthorizesFromOneRedisReadAndFallsBackWhenTheCachedVersionLags() throws Exception {
+        JwtUtil jwtUtil = jwtUtil();
+        RedisCacheUtil cache = mock(RedisCacheUtil.class);
+        when(cache.isAuthStateHashEnabled()).thenReturn(true);
+        when(cache.getSessionAuthorizationState(5L)).thenReturn(
+                new RedisCacheUtil.SessionAuthorizationState("session-5", 2L, (byte) 1, (byte) 0, 4L));
+        SysUserMapper userMapper = mock(SysUserMapper.class);
+        stubState(userMapper, activeUser(5L, 3L, 4L));
+        AuthorizationStateCache stateCache = stateCache(userMapper);
+        // 节点全局版本由后台轮询维持，请求路径只读内存
+        stateCache.currentGlobalAuthVersion();
+        clearInvocations(userMapper);
+        JwtAuthorizationOnceFilter filter = new JwtAuthorizationOnceFilter(
+                jwtUtil, cache, stateCache, catalog(mock(SysPermissionMapper.class)), rejectedTokens(),
+                roleGraph(mock(SysRoleMapper.class)), new ObjectMapper().findAndRegisterModules(), JwtFilterMetrics.NOOP);
+
+        String current = jwtUtil.generateAccessToken(Map.of("userId", 5L, "authVersion", 2L,
+                "globalAuthVersion", 4L, "roleVersionDigest", 0L, "permissions", List.of("system:user:query")), "session-5");
+        filter.doFilter(bearerRequest(current), new MockHttpServletResponse(), new MockFilterChain());
+        assertThat(SecurityContextHolder.getContext().getAuthentication()).isNotNull();
+        verifyNoInteractions(userMapper);
+
+        SecurityContextHolder.clearContext();
+        String newer = jwtUtil.generateAccessToken(Map.of("userId", 5L, "authVersion", 3L,
+                "globalAuthVersion", 4L, "roleVersionDigest", 0L, "permissions", List.of("system:user:query")), "session-5");
+        filter.doFilter(bearerRequest(newer), new MockHttpServletResponse(), new MockFilterChain());
+        assertThat(SecurityContextHolder.getContext().getAuthentication()).isNotNull();
+        verify(userMapper).selectUserAuthorizationStateById(5L);
+        verify(cache).cacheUserAuthorizationStates(
+                List.of(new RedisCacheUtil.UserAuthorizationState(5L, 3L, (byte) 1, (byte) 0)));
+        verify(cache).cacheGlobalAuthVersion(4L);
+        verify(cache, never()).getJwtVersion(5L);
+    }
+
+    @Test
+    void hashModeNeverTrustsARedisGlobalVersionBehindTheNode() throws Exception {
+        JwtUtil jwtUtil = jwtUtil();
+        RedisCacheUtil cache = mock(RedisCacheUtil.class);
+        when(cache.isAuthStateHashEnabled()).thenReturn(true);
+        // 写回失败后 Redis 停留在旧的全局版本 4，本节点已确认 5
+        when(cache.getSessionAuthorizationState(9L)).thenReturn(
+                new RedisCacheUtil.SessionAuthorizationState("session-9", 1L, (byte) 1, (byte) 0, 4L));
+        SysUserMapper userMapper = mock(SysUserMapper.class);
+        stubState(userMapper, activeUser(9L, 1L, 5L));
+        SysRoleMapper roleMapper = mock(SysRoleMapper.class);
+        when(roleMapper.selectGraphNodes()).thenReturn(List.of(role(10L, 1L)));
+        RoleGraph roleGraph = roleGraph(roleMapper);
+        long digest = roleGraph.forVersion(4L).roleVersionDigest(List.of(10L));
+        when(roleMapper.selectGraphNodes()).thenReturn(List.of(role(10L, 2L)));
+        JwtAuthorizationOnceFilter filter = new JwtAuthorizationOnceFilter(
+                jwtUtil, cache, stateCache(userMapper), catalog(mock(SysPermissionMapper.class)), rejectedTokens(),
+                roleGraph, new ObjectMapper().findAndRegisterModules(), JwtFilterMetrics.NOOP);
+        String token = jwtUtil.generateAccessToken(Map.of("userId", 9L, "authVersion", 1L,
+                "globalAuthVersion", 4L, "effectiveRoleIds", List.of(10L), "roleVersionDigest", digest,
+                "permissions", List.of("system:user:query")), "session-9");
+
+        filter.doFilter(bearerRequest(token), new MockHttpServletResponse(), new MockFilterChain());
+
+        assertThat(SecurityContextHolder.getContext().getAuthentication()).isNull();
+    }
+
+    @Test
+    void tokenNewerThanTheNodeCachedUserVersionReloadsInsteadOfRejecting() throws Exception {
+        JwtUtil jwtUtil = jwtUtil();
+        RedisCacheUtil cache = localCache();
+        cache.setJwtVersion(12L, "session-before-logout", 2, TimeUnit.HOURS);
+        SysUserMapper userMapper = mock(SysUserMapper.class);
+        stubState(userMapper, activeUser(12L, 1L));
+        JwtAuthorizationOnceFilter filter = new JwtAuthorizationOnceFilter(
+                jwtUtil, cache, stateCache(userMapper), catalog(mock(SysPermissionMapper.class)), rejectedTokens(),
+                roleGraph(mock(SysRoleMapper.class)), new ObjectMapper().findAndRegisterModules(), JwtFilterMetrics.NOOP);
+        String before = jwtUtil.generateAccessToken(Map.of("userId", 12L, "authVersion", 1L,
+                "globalAuthVersion", 0L, "roleVersionDigest", 0L), "session-before-logout");
+        filter.doFilter(bearerRequest(before), new MockHttpServletResponse(), new MockFilterChain());
+        assertThat(SecurityContextHolder.getContext().getAuthentication()).isNotNull();
+
+        // 另一节点上退出并重新登录，本节点的失效通知尚未到达，缓存仍是版本 1
+        SecurityContextHolder.clearContext();
+        when(userMapper.selectUserAuthorizationStateById(12L)).thenReturn(activeUser(12L, 2L));
+        cache.setJwtVersion(12L, "session-after-login", 2, TimeUnit.HOURS);
+        String after = jwtUtil.generateAccessToken(Map.of("userId", 12L, "authVersion", 2L,
+                "globalAuthVersion", 0L, "roleVersionDigest", 0L), "session-after-login");
+        filter.doFilter(bearerRequest(after), new MockHttpServletResponse(), new MockFilterChain());
+
+        assertThat(SecurityContextHolder.getContext().getAuthentication()).isNotNull();
+        verify(userMapper, times(2)).selectUserAuthorizationStateById(12L);
+    }
+
+    @Test
+    void tokenNewerThanALaggingGlobalWatcherRefreshesItInsteadOfRejecting() throws Exception {
+        JwtUtil jwtUtil = jwtUtil();
+        RedisCacheUtil cache = localCache();
+        cache.setJwtVersion(13L, "session-13", 2, TimeUnit.HOURS);
+        SysUserMapper userMapper = mock(SysUserMapper.class);
+        stubState(userMapper, activeUser(13L, 1L, 2L));
+        JwtAuthorizationOnceFilter filter = new JwtAuthorizationOnceFilter(
+                jwtUtil, cache, stateCache(userMapper), catalog(mock(SysPermissionMapper.class)), rejectedTokens(),
+                roleGraph(mock(SysRoleMapper.class)), new ObjectMapper().findAndRegisterModules(), JwtFilterMetrics.NOOP);
+        String older = jwtUtil.generateAccessToken(Map.of("userId", 13L, "authVersion", 1L,
+                "globalAuthVersion", 2L, "roleVersionDigest", 0L), "session-13");
+        filter.doFilter(bearerRequest(older), new MockHttpServletResponse(), new MockFilterChain());
+        assertThat(SecurityContextHolder.getContext().getAuthentication()).isNotNull();
+
+        // 其他节点的授权编辑已提交，本节点的 watcher 仍在确认时限内、尚未轮询到版本 3
+        SecurityContextHolder.clearContext();
+        when(userMapper.selectGlobalAuthVersion()).thenReturn(3L);
+        String refreshedElsewhere = jwtUtil.generateAccessToken(Map.of("userId", 13L, "authVersion", 1L,
+                "globalAuthVersion", 3L, "roleVersionDigest", 0L), "session-13");
+        filter.doFilter(bearerRequest(refreshedElsewhere), new MockHttpServletResponse(), new MockFilterChain());
+
+        assertThat(SecurityContextHolder.getContext().getAuthentication()).isNotNull();
+        verify(userMapper, times(2)).selectGlobalAuthVersion();
+    }
+
+    @Test
+    void retriesOfARevokedTokenSkipRedisAndTheDatabase() throws Exception {
+        JwtUtil jwtUtil = jwtUtil();
+        RedisCacheUtil cache = mock(RedisCacheUtil.class);
+        when(cache.getJwtVersion(6L)).thenReturn("session-6");
+        SysUserMapper userMapper = mock(SysUserMapper.class);
+        stubState(userMapper, activeUser(6L, 2L, 1L));
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        JwtAuthorizationOnceFilter filter = new JwtAuthorizationOnceFilter(
+                jwtUtil, cache, stateCache(userMapper), catalog(mock(SysPermissionMapper.class)), rejectedTokens(),
+                roleGraph(mock(SysRoleMapper.class)), new ObjectMapper().findAndRegisterModules(), JwtFilterMetrics.of(registry));
+        String stale = jwtUtil.generateAccessToken(Map.of("userId", 6L, "authVersion", 1L,
+                "globalAuthVersion", 1L), "session-6");
+        String ahead = jwtUtil.generateAccessToken(Map.of("userId", 6L, "authVersion", 3L,
+                "globalAuthVersion", 1L), "session-6");
+
+        for (int i = 0; i < 3; i++) {
+            filter.doFilter(bearerRequest(stale), new MockHttpServletResponse(), new MockFilterChain());
+            filter.doFilter(bearerRequest(ahead), new MockHttpServletResponse(), new MockFilterChain());
+        }
+
+        assertThat(SecurityContextHolder.getContext().getAuthentication()).isNull();
+        verify(cache, times(4)).getJwtVersion(6L);
+        assertThat(registry.get("iam.jwt.filter.rejections").tag("reason", "cached_rejection").counter().count())
+                .isEqualTo(2.0);
+    }
+
+    @Test
+    void roleVersionBumpRevokesOnlyTokensUsingTheRoleNotOlderGlobalVersions() throws Exception {
+        JwtUtil jwtUtil = jwtUtil();
+        RedisCacheUtil cache = localCache();
+        cache.setJwtVersion(8L, "session-8", 2, TimeUnit.HOURS);
+        SysUserMapper userMapper = mock(SysUserMapper.class);
+        stubState(userMapper, activeUser(8L, 1L, 2L));
+        SysRoleMapper roleMapper = mock(SysRoleMapper.class);
+        when(roleMapper.selectGraphNodes()).thenReturn(List.of(role(10L, 1L), role(11L, 1L)));
+        RoleGraph roleGraph = roleGraph(roleMapper);
+        AuthorizationStateCache stateCache = stateCache(userMapper);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        JwtAuthorizationOnceFilter filter = new JwtAuthorizationOnceFilter(
+                jwtUtil, cache, stateCache, catalog(mock(SysPermissionMapper.class)), rejectedTokens(),
+                roleGraph, new ObjectMapper().findAndRegisterModules(), JwtFilterMetrics.of(registry));
+        long digest = roleGraph.forVersion(2L).roleVersionDigest(List.of(10L));
+        // 令牌签发后全局版本已前进，但其有效角色的版本未变
+        String token = jwtUtil.generateAccessToken(Map.of("userId", 8L, "authVersion", 1L,
+                "globalAuthVersion", 1L, "effectiveRoleIds", List.of(10L), "roleVersionDigest", digest,
+                "permissions", List.of("system:user:query")), "session-8");
+
+        filter.doFilter(bearerRequest(token), new MockHttpServletResponse(), new MockFilterChain());
+        assertThat(SecurityContextHolder.getContext().getAuthentication()).isNotNull();
+
+        SecurityContextHolder.clearContext();
+        when(roleMapper.selectGraphNodes()).thenReturn(List.of(role(10L, 1L), role(11L, 2L)));
+        when(userMapper.selectGlobalAuthVersion()).thenReturn(3L);
+        stateCache.publishGlobal(3L);
+        filter.doFilter(bearerRequest(token), new MockHttpServletResponse(), new MockFilterChain());
+        assertThat(SecurityContextHolder.getContext().getAuthentication()).isNotNull();
+
+        SecurityContextHolder.clearContext();
+        when(roleMapper.selectGraphNodes()).thenReturn(List.of(role(10L, 2L), role(11L, 2L)));
+        when(userMapper.selectGlobalAuthVersion()).thenReturn(4L);
+        stateCache.publishGlobal(4L);
+        filter.doFilter(bearerRequest(token), new MockHttpServletResponse(), new MockFilterChain());
+        assertThat(SecurityContextHolder.getContext().getAuthentication()).isNull();
+        assertThat(registry.get("iam.jwt.filter.rejections").tag("reason", "role_version_mismatch").counter()
+                .count()).isEqualTo(1.0);
+
+        filter.doFilter(bearerRequest(token), new MockHttpServletResponse(), new MockFilterChain());
+        assertThat(registry.get("iam.jwt.filter.rejections").tag("reason", "cached_rejection").counter().count())
+                .isEqualTo(1.0);
+    }
+
+    @Test
+    void recordsStageLatencyAndRejectionReasons() throws Exception {
+        JwtUtil jwtUtil = jwtUtil();
+        RedisCacheUtil cache = localCache();
+        cache.setJwtVersion(4L, "session-4", 2, TimeUnit.HOURS);
+        SysUserMapper userMapper = mock(SysUserMapper.class);
+        stubState(userMapper, activeUser(4L, 1L));
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        JwtAuthorizationOnceFilter filter = new JwtAuthorizationOnceFilter(
+                jwtUtil, cache, stateCache(userMapper), catalog(mock(SysPermissionMapper.class)), rejectedTokens(),
+                roleGraph(mock(SysRoleMapper.class)), new ObjectMapper().findAndRegisterModules(), JwtFilterMetrics.of(registry));
+
+        filter.doFilter(bearerRequest(jwtUtil.generateAccessToken(Map.of("userId", 4L, "authVersion", 1L,
+                "globalAuthVersion", 0L, "roleVersionDigest", 0L, "permissions", List.of("system:user:query")), "session-4")),
+                new MockHttpServletResponse(), new MockFilterChain());
+        filter.doFilter(bearerRequest(jwtUtil.generateAccessToken(Map.of("userId", 4L, "authVersion", 0L,
+                "globalAuthVersion", 0L), "session-4")), new MockHttpServletResponse(), new MockFilterChain());
+        filter.doFilter(bearerRequest(jwtUtil.generateAccessToken(Map.of("userId", 4L), "old-session")),
+                new MockHttpServletResponse(), new MockFilterChain());
+        filter.doFilter(bearerRequest(jwtUtil.generateRefreshToken(Map.of("userId", 4L), "session-4")),
+                new MockHttpServletResponse(), new MockFilterChain());
+        filter.doFilter(bearerRequest("not-a-jwt"), new MockHttpServletResponse(), new MockFilterChain());
+
+        assertThat(registry.get("iam.jwt.filter.stage").tag("stage", "parse").timer().count()).isEqualTo(5);
+        assertThat(registry.get("iam.jwt.filter.stage").tag("stage", "session").timer().count()).isEqualTo(3);
+        assertThat(registry.get("iam.jwt.filter.stage").tag("stage", "auth_state").timer().count()).isEqualTo(2);
+        assertThat(registry.get("iam.jwt.filter.stage").tag("stage", "permissions").timer().count()).isEqualTo(1);
+        for (String reason : List.of("auth_version_mismatch", "session_mismatch", "not_access_token",
+                "invalid_token")) {
+            assertThat(registry.get("iam.jwt.filter.rejections").tag("reason", reason).counter().count())
+                    .isEqualTo(1.0);
+        }
+        assertThat(registry.get("iam.jwt.filter.rejections").tag("reason", "dependency_failure").counter().count())
+                .isZero();
+    }
+
     private JwtUtil jwtUtil() {
         JwtUtil jwtUtil = new JwtUtil();
         ReflectionTestUtils.setField(jwtUtil, "secret", "0123456789abcdef0123456789abcdef");
@@ -209,6 +454,38 @@ class JwtAuthorizationOnceFilterTest {
         return cache;
     }
 
+    @SuppressWarnings("unchecked")
+    private AuthorizationStateCache stateCache(SysUserMapper userMapper) {
+        return new AuthorizationStateCache(userMapper, new GlobalAuthVersionWatcher(userMapper, 5000L, 0L),
+                mock(ObjectProvider.class), mock(ObjectProvider.class), false, 5000L, 1000L);
+    }
+
+    private void stubState(SysUserMapper userMapper, SysUserEntity user) {
+        when(userMapper.selectUserAuthorizationStateById(user.getId())).thenReturn(user);
+        when(userMapper.selectGlobalAuthVersion()).thenReturn(user.getGlobalAuthVersion());
+    }
+
+    private RoleGraph roleGraph(SysRoleMapper roleMapper) {
+        return new RoleGraph(roleMapper, mock(SysRoleInheritanceMapper.class), mock(AuthorizationStateCache.class));
+    }
+
+    private SysRoleEntity role(Long id, Long authVersion) {
+        SysRoleEntity role = new SysRoleEntity();
+        role.setId(id);
+        role.setStatus((byte) 1);
+        role.setDelFlag((byte) 0);
+        role.setAuthVersion(authVersion);
+        return role;
+    }
+
+    private RejectedTokenCache rejectedTokens() {
+        return new RejectedTokenCache(60_000L, 1000L);
+    }
+
+    private PermissionCatalog catalog(SysPermissionMapper permissionMapper) {
+        return new PermissionCatalog(permissionMapper, mock(AuthorizationStateCache.class));
+    }
+
     private SysUserEntity activeUser(Long id, Long authVersion) {
         return activeUser(id, authVersion, 0L);
     }
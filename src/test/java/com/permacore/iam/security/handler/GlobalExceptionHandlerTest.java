@@ -2,7 +2,9 @@ package com.permacore.iam.security.handler;
 
 import com.permacore.iam.domain.vo.ResultCode;
 import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -22,6 +24,17 @@ class GlobalExceptionHandlerTest {
                 .isEqualTo(HttpStatus.INTERNAL_SERVER_ERROR);
     }
 
+    @Test
+    void overloadRejectionsCarryRetryAfter() {
+        ResponseEntity<?> response = handler.handleBusinessException(
+                new ServiceOverloadedException("登录请求过多，请稍后重试", 2));
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE);
+        assertThat(response.getHeaders().getFirst(HttpHeaders.RETRY_AFTER)).isEqualTo("2");
+        assertThat(handler.handleBusinessException(new BusinessException("参数错误")).getHeaders())
+                .doesNotContainKey(HttpHeaders.RETRY_AFTER);
+    }
+
     @Test
     void mapsUnreadableOrInvalidRequestParametersToBadRequest() {
         assertThat(handler.handleBadRequest(new IllegalArgumentException("invalid")).getCode())
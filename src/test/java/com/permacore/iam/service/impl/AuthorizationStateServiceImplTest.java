@@ -1,13 +1,28 @@
 package com.permacore.iam.service.impl;
 
+import com.permacore.iam.mapper.SysRoleMapper;
 import com.permacore.iam.mapper.SysUserMapper;
+import com.permacore.iam.security.authz.AuthorizationStateCache;
+import com.permacore.iam.utils.RedisCacheUtil;
 import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
+import java.util.stream.LongStream;
 
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
 class AuthorizationStateServiceImplTest {
@@ -16,7 +31,8 @@ class AuthorizationStateServiceImplTest {
     void incrementsTheDurableAuthorizationVersionOncePerUser() {
         SysUserMapper userMapper = mock(SysUserMapper.class);
         when(userMapper.incrementAuthVersions(List.of(7L, 8L))).thenReturn(2);
-        AuthorizationStateServiceImpl service = new AuthorizationStateServiceImpl(userMapper);
+        AuthorizationStateServiceImpl service = new AuthorizationStateServiceImpl(userMapper,
+                mock(AuthorizationStateCache.class), mock(RedisCacheUtil.class), mock(SysRoleMapper.class));
 
         service.invalidateUsers(List.of(7L, 7L, 8L));
 
@@ -25,14 +41,172 @@ class AuthorizationStateServiceImplTest {
     }
 
     @Test
-    void globalInvalidationUpdatesOnlyTheSingletonRow() {
+    void invalidationWithoutRolesUpdatesOnlyTheSingletonRow() {
         SysUserMapper userMapper = mock(SysUserMapper.class);
+        SysRoleMapper roleMapper = mock(SysRoleMapper.class);
         when(userMapper.incrementGlobalAuthVersion()).thenReturn(1);
-        AuthorizationStateServiceImpl service = new AuthorizationStateServiceImpl(userMapper);
+        when(userMapper.selectGlobalAuthVersion()).thenReturn(4L);
+        AuthorizationStateServiceImpl service = new AuthorizationStateServiceImpl(userMapper,
+                mock(AuthorizationStateCache.class), mock(RedisCacheUtil.class), roleMapper);
 
-        service.invalidateAllUsers();
+        service.invalidateRoles(List.of());
 
         verify(userMapper).incrementGlobalAuthVersion();
-        verify(userMapper, never()).incrementAuthVersions(org.mockito.ArgumentMatchers.any());
+        verify(userMapper, never()).incrementAuthVersions(any());
+        verify(roleMapper, never()).incrementAuthVersions(any());
+    }
+
+    @Test
+    void roleInvalidationBumpsEachRoleOnceInIdOrderBeforeTheGlobalVersion() {
+        SysUserMapper userMapper = mock(SysUserMapper.class);
+        SysRoleMapper roleMapper = mock(SysRoleMapper.class);
+        AuthorizationStateCache cache = mock(AuthorizationStateCache.class);
+        when(userMapper.incrementGlobalAuthVersion()).thenReturn(1);
+        when(userMapper.selectGlobalAuthVersion()).thenReturn(5L);
+        AuthorizationStateServiceImpl service = new AuthorizationStateServiceImpl(userMapper, cache,
+                mock(RedisCacheUtil.class), roleMapper);
+
+        service.invalidateRoles(Arrays.asList(9L, 3L, null, 9L));
+
+        InOrder order = inOrder(roleMapper, userMapper);
+        order.verify(roleMapper).incrementAuthVersions(List.of(3L, 9L));
+        order.verify(userMapper).incrementGlobalAuthVersion();
+        verify(userMapper, never()).incrementAuthVersions(any());
+        verify(cache).publishGlobal(5L);
+    }
+
+    @Test
+    void evictsNodeCacheOnlyAfterTheTransactionCommits() {
+        SysUserMapper userMapper = mock(SysUserMapper.class);
+        when(userMapper.incrementAuthVersions(List.of(7L))).thenReturn(1);
+        AuthorizationStateCache cache = mock(AuthorizationStateCache.class);
+        AuthorizationStateServiceImpl service = new AuthorizationStateServiceImpl(userMapper, cache,
+                mock(RedisCacheUtil.class), mock(SysRoleMapper.class));
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            service.invalidateUsers(List.of(7L));
+            verify(userMapper, never()).incrementAuthVersions(any());
+
+            synchronizations().forEach(synchronization -> synchronization.beforeCommit(false));
+            verify(userMapper).incrementAuthVersions(List.of(7L));
+            verify(cache, never()).evictUsers(any());
+
+            synchronizations().forEach(TransactionSynchronization::afterCommit);
+            synchronizations().forEach(synchronization ->
+                    synchronization.afterCompletion(TransactionSynchronization.STATUS_COMMITTED));
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        verify(cache).evictUsers(List.of(7L));
+        assertThat(TransactionSynchronizationManager.hasResource(pendingKey())).isFalse();
+    }
+
+    @Test
+    void repeatedInvalidationsInOneTransactionFlushOnceBeforeCommit() {
+        SysUserMapper userMapper = mock(SysUserMapper.class);
+        SysRoleMapper roleMapper = mock(SysRoleMapper.class);
+        AuthorizationStateCache cache = mock(AuthorizationStateCache.class);
+        when(userMapper.incrementGlobalAuthVersion()).thenReturn(1);
+        when(userMapper.selectGlobalAuthVersion()).thenReturn(6L);
+        when(userMapper.incrementAuthVersions(any())).thenAnswer(invocation ->
+                invocation.<List<Long>>getArgument(0).size());
+        AuthorizationStateServiceImpl service = new AuthorizationStateServiceImpl(userMapper, cache,
+                mock(RedisCacheUtil.class), roleMapper);
+        List<Long> manyUsers = LongStream.rangeClosed(1, 1001).boxed().sorted(Comparator.reverseOrder()).toList();
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            service.invalidateRoles(List.of(4L));
+            service.invalidateUsers(List.of(9L, 2L));
+            service.invalidateRoles(List.of(2L, 4L));
+            service.invalidateUsers(manyUsers);
+            verifyNoInteractions(roleMapper, userMapper);
+
+            synchronizations().forEach(synchronization -> synchronization.beforeCommit(false));
+            verify(cache, never()).publishGlobal(6L);
+            synchronizations().forEach(TransactionSynchronization::afterCommit);
+        } finally {
+            synchronizations().forEach(synchronization ->
+                    synchronization.afterCompletion(TransactionSynchronization.STATUS_COMMITTED));
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        InOrder order = inOrder(roleMapper, userMapper);
+        order.verify(roleMapper).incrementAuthVersions(List.of(2L, 4L));
+        order.verify(userMapper).incrementGlobalAuthVersion();
+        order.verify(userMapper).incrementAuthVersions(LongStream.rangeClosed(1, 500).boxed().toList());
+        order.verify(userMapper).incrementAuthVersions(LongStream.rangeClosed(501, 1000).boxed().toList());
+        order.verify(userMapper).incrementAuthVersions(List.of(1001L));
+        verify(userMapper, times(1)).incrementGlobalAuthVersion();
+        verify(cache).publishGlobal(6L);
+        verify(cache).evictUsers(LongStream.rangeClosed(1, 1001).boxed().toList());
+    }
+
+    @Test
+    void failedWriteThroughAfterCommitDeletesTheRedisStateInstead() {
+        SysUserMapper userMapper = mock(SysUserMapper.class);
+        when(userMapper.incrementGlobalAuthVersion()).thenReturn(1);
+        when(userMapper.selectGlobalAuthVersion()).thenReturn(6L);
+        when(userMapper.incrementAuthVersions(List.of(7L))).thenReturn(1);
+        when(userMapper.selectAuthorizationStatesByIds(List.of(7L))).thenReturn(List.of());
+        RedisCacheUtil redis = mock(RedisCacheUtil.class);
+        when(redis.isAuthStateHashEnabled()).thenReturn(true);
+        doThrow(new IllegalStateException("Redis unavailable")).when(redis).cacheGlobalAuthVersion(6L);
+        doThrow(new IllegalStateException("Redis unavailable")).when(redis).cacheUserAuthorizationStates(any());
+        AuthorizationStateServiceImpl service = new AuthorizationStateServiceImpl(userMapper,
+                mock(AuthorizationStateCache.class), redis, mock(SysRoleMapper.class));
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            service.invalidateRoles(List.of(3L));
+            service.invalidateUsers(List.of(7L));
+            synchronizations().forEach(synchronization -> synchronization.beforeCommit(false));
+            // 提交前已删除一次；此后并发回源可能写回提交前的旧版本
+            verify(redis).evictGlobalAuthVersion();
+            verify(redis).evictUserAuthorizationStates(List.of(7L));
+
+            synchronizations().forEach(TransactionSynchronization::afterCommit);
+        } finally {
+            synchronizations().forEach(synchronization ->
+                    synchronization.afterCompletion(TransactionSynchronization.STATUS_COMMITTED));
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        verify(redis, times(2)).evictGlobalAuthVersion();
+        verify(redis, times(2)).evictUserAuthorizationStates(List.of(7L));
+    }
+
+    @Test
+    void rolledBackTransactionNeitherWritesNorNotifies() {
+        SysUserMapper userMapper = mock(SysUserMapper.class);
+        AuthorizationStateCache cache = mock(AuthorizationStateCache.class);
+        AuthorizationStateServiceImpl service = new AuthorizationStateServiceImpl(userMapper, cache,
+                mock(RedisCacheUtil.class), mock(SysRoleMapper.class));
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            service.invalidateUsers(List.of(7L));
+            service.invalidateRoles(List.of(3L));
+            synchronizations().forEach(synchronization ->
+                    synchronization.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK));
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        verifyNoInteractions(userMapper, cache);
+        assertThat(TransactionSynchronizationManager.hasResource(pendingKey())).isFalse();
+    }
+
+    private List<TransactionSynchronization> synchronizations() {
+        return TransactionSynchronizationManager.getSynchronizations();
+    }
+
+    private Class<?> pendingKey() {
+        return Arrays.stream(AuthorizationStateServiceImpl.class.getDeclaredClasses())
+                .filter(type -> type.getSimpleName().equals("PendingInvalidation"))
+                .findFirst()
+                .orElseThrow();
     }
 }
@@ -2,7 +2,11 @@ package com.permacore.iam.service.impl;
 
 import com.permacore.iam.mapper.SysPermissionMapper;
 import com.permacore.iam.mapper.SysRoleInheritanceMapper;
+import com.permacore.iam.mapper.SysRoleMapper;
 import com.permacore.iam.mapper.SysRolePermissionMapper;
+import com.permacore.iam.security.authz.AuthorizationStateCache;
+import com.permacore.iam.security.authz.PermissionCatalog;
+import com.permacore.iam.security.authz.RoleGraph;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -23,7 +27,11 @@ class PermissionServiceTest {
     @Mock
     private SysPermissionMapper permissionMapper;
     @Mock
+    private SysRoleMapper roleMapper;
+    @Mock
     private SysRoleInheritanceMapper roleInheritanceMapper;
+    @Mock
+    private AuthorizationStateCache authorizationStateCache;
 
     private PermissionService service;
 
@@ -32,7 +40,8 @@ class PermissionServiceTest {
         service = new PermissionService(
                 rolePermissionMapper,
                 permissionMapper,
-                roleInheritanceMapper);
+                new RoleGraph(roleMapper, roleInheritanceMapper, authorizationStateCache),
+                new PermissionCatalog(permissionMapper, authorizationStateCache));
     }
 
     @Test
@@ -1,18 +1,25 @@
 package com.permacore.iam.service.impl;
 
-import com.baomidou.mybatisplus.core.conditions.Wrapper;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.permacore.iam.domain.entity.SysRoleEntity;
+import com.permacore.iam.domain.entity.SysRoleInheritanceEntity;
 import com.permacore.iam.domain.entity.SysSodConstraintEntity;
+import com.permacore.iam.domain.entity.SysUserEntity;
+import com.permacore.iam.domain.vo.DsdConflictVO;
 import com.permacore.iam.domain.vo.SessionRoleStateVO;
 import com.permacore.iam.mapper.SysPermissionMapper;
 import com.permacore.iam.mapper.SysRoleInheritanceMapper;
 import com.permacore.iam.mapper.SysRoleMapper;
+import com.permacore.iam.mapper.SysSodConstraintMapper;
 import com.permacore.iam.mapper.SysRolePermissionMapper;
 import com.permacore.iam.mapper.SysUserRoleMapper;
 import com.permacore.iam.security.handler.BusinessException;
-import com.permacore.iam.service.SysSodConstraintService;
 import com.permacore.iam.utils.JwtUtil;
+import com.permacore.iam.security.authz.AuthorizationStateCache;
+import com.permacore.iam.security.authz.PermissionCatalog;
+import com.permacore.iam.security.authz.RoleGraph;
+import com.permacore.iam.security.authz.SessionRoleStateCache;
+import com.permacore.iam.security.authz.SodConstraintIndex;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -24,12 +31,18 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anySet;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.mockingDetails;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
@@ -46,7 +59,9 @@ class RoleSessionServiceImplTest {
     @Mock
     private SysRoleInheritanceMapper roleInheritanceMapper;
     @Mock
-    private SysSodConstraintService sodConstraintService;
+    private SysSodConstraintMapper sodConstraintMapper;
+    @Mock
+    private AuthorizationStateCache authorizationStateCache;
 
     private RoleSessionServiceImpl service;
 
@@ -57,9 +72,10 @@ class RoleSessionServiceImplTest {
                 roleMapper,
                 rolePermissionMapper,
                 permissionMapper,
-                roleInheritanceMapper,
-                sodConstraintService,
-                new ObjectMapper());
+                new PermissionCatalog(permissionMapper, authorizationStateCache),
+                new RoleGraph(roleMapper, roleInheritanceMapper, authorizationStateCache),
+                new SodConstraintIndex(sodConstraintMapper, new ObjectMapper(), authorizationStateCache),
+                new SessionRoleStateCache(60_000L, 100L));
     }
 
     @Test
@@ -67,11 +83,8 @@ class RoleSessionServiceImplTest {
         when(userRoleMapper.selectRoleIdsByUserId(7L)).thenReturn(List.of(1L, 2L));
         when(roleMapper.selectList(any())).thenReturn(List.of(role(1L, "ROLE_MANAGER", "经理", 1),
                 role(2L, "ROLE_HR", "HR", 2)));
-        when(roleInheritanceMapper.selectAncestorIdsByDescendantIds(anySet())).thenReturn(Set.of());
-        when(sodConstraintService.list(org.mockito.ArgumentMatchers.<Wrapper<SysSodConstraintEntity>>any()))
-                .thenReturn(List.of(), List.of(sod(10L, "经理与HR动态互斥", "[1,2]", (byte) 2)));
-        when(roleMapper.selectBatchIds(anySet())).thenReturn(List.of(role(1L, "ROLE_MANAGER", "经理", 1),
-                role(2L, "ROLE_HR", "HR", 2)));
+        when(sodConstraintMapper.selectList(any()))
+                .thenReturn(List.of(sod(10L, "经理与HR动态互斥", "[1,2]", (byte) 2)));
 
         assertThatThrownBy(() -> service.buildState(7L, List.of(1L, 2L)))
                 .isInstanceOf(BusinessException.class)
@@ -83,11 +96,8 @@ class RoleSessionServiceImplTest {
         when(userRoleMapper.selectRoleIdsByUserId(7L)).thenReturn(List.of(1L, 2L));
         when(roleMapper.selectList(any())).thenReturn(List.of(role(1L, "ROLE_MANAGER", "经理", 1),
                 role(2L, "ROLE_HR", "HR", 2)));
-        when(roleInheritanceMapper.selectAncestorIdsByDescendantIds(anySet())).thenReturn(Set.of());
-        when(sodConstraintService.list(org.mockito.ArgumentMatchers.<Wrapper<SysSodConstraintEntity>>any()))
-                .thenReturn(List.of(), List.of(sod(10L, "经理与HR动态互斥", "[1,2]", (byte) 2)));
-        when(roleMapper.selectBatchIds(anySet())).thenReturn(List.of(role(1L, "ROLE_MANAGER", "经理", 1),
-                role(2L, "ROLE_HR", "HR", 2)));
+        when(sodConstraintMapper.selectList(any()))
+                .thenReturn(List.of(sod(10L, "经理与HR动态互斥", "[1,2]", (byte) 2)));
         when(rolePermissionMapper.selectPermissionIdsByRoleIds(anySet())).thenReturn(Set.of(100L));
         when(permissionMapper.selectPermKeysByIds(anySet())).thenReturn(Set.of("system:user:query"));
 
@@ -97,16 +107,95 @@ class RoleSessionServiceImplTest {
         assertThat(state.getEffectiveRoleIds()).containsExactly(1L);
         assertThat(state.getPermissions()).containsExactly("system:user:query");
         assertThat(state.getDsdConflicts()).hasSize(1);
+        assertThat(state.getDsdConflicts().get(0).getRoleNames()).containsExactly("经理", "HR");
+    }
+
+    @Test
+    void buildDefaultStateLooksUpNamesOnlyForInheritedConflictRoles() {
+        when(userRoleMapper.selectRoleIdsByUserId(7L)).thenReturn(List.of(2L, 3L));
+        when(roleMapper.selectList(any())).thenReturn(List.of(role(2L, "ROLE_HR", "HR", 2),
+                role(3L, "ROLE_DEPUTY", "副经理", 3)));
+        stubRoleGraph(List.of(role(1L, "ROLE_MANAGER", "经理", 1), role(2L, "ROLE_HR", "HR", 2),
+                role(3L, "ROLE_DEPUTY", "副经理", 3)), edge(1L, 3L));
+        when(sodConstraintMapper.selectList(any()))
+                .thenReturn(List.of(sod(10L, "经理与HR动态互斥", "[1,2]", (byte) 2)));
+        when(roleMapper.selectBatchIds(Set.of(1L))).thenReturn(List.of(role(1L, "ROLE_MANAGER", "经理", 1)));
+        when(rolePermissionMapper.selectPermissionIdsByRoleIds(anySet())).thenReturn(Set.of());
+
+        SessionRoleStateVO state = service.buildDefaultState(7L);
+
+        assertThat(state.getActiveRoleIds()).containsExactly(2L);
+        assertThat(state.getDsdConflicts()).singleElement()
+                .satisfies(conflict -> assertThat(conflict.getRoleNames()).containsExactly("经理", "HR"));
+    }
+
+    /**
+     * 30 个已分配角色、三层继承、两条会被触发的 DSD 约束：快照就绪后每次登录只剩
+     * 用户角色、角色行、角色权限、权限键四次查询，不再随角色数增长。
+     */
+    @Test
+    void buildDefaultStateQueryCountDoesNotGrowWithAssignedRoles() {
+        List<SysRoleEntity> roles = LongStream.rangeClosed(1, 30)
+                .mapToObj(id -> role(id, "ROLE_" + id, "角色" + id, (int) id))
+                .toList();
+        when(userRoleMapper.selectRoleIdsByUserId(7L))
+                .thenReturn(roles.stream().map(SysRoleEntity::getId).toList());
+        when(roleMapper.selectList(any())).thenReturn(roles);
+        stubRoleGraph(roles, LongStream.rangeClosed(11, 30)
+                .mapToObj(id -> edge(id - 10, id))
+                .toArray(SysRoleInheritanceEntity[]::new));
+        when(sodConstraintMapper.selectList(any())).thenReturn(List.of(
+                sod(10L, "动态互斥一", "[4,17]", (byte) 2),
+                sod(11L, "动态互斥二", "[9,28]", (byte) 2),
+                sod(12L, "静态互斥", "[31,32]", (byte) 1)));
+        when(rolePermissionMapper.selectPermissionIdsByRoleIds(anySet())).thenReturn(Set.of(100L));
+        when(permissionMapper.selectPermKeysByIds(anySet())).thenReturn(Set.of("system:user:query"));
+
+        service.buildDefaultState(7L);
+        clearInvocations(userRoleMapper, roleMapper, rolePermissionMapper, permissionMapper,
+                roleInheritanceMapper, sodConstraintMapper);
+        SessionRoleStateVO state = service.buildDefaultState(7L);
+
+        // 17 及继承它的 27 与已选的 4 互斥，28 与已选的 9 互斥，三者依次被跳过
+        assertThat(state.getActiveRoleIds()).hasSize(27).doesNotContain(17L, 27L, 28L);
+        assertThat(state.getDsdConflicts()).extracting(DsdConflictVO::getConstraintName)
+                .containsExactly("动态互斥二");
+        int queries = Stream.of(userRoleMapper, roleMapper, rolePermissionMapper, permissionMapper,
+                        roleInheritanceMapper, sodConstraintMapper)
+                .mapToInt(mapper -> mockingDetails(mapper).getInvocations().size())
+                .sum();
+        assertThat(queries).isEqualTo(4);
+    }
+
+    @Test
+    void cachedStateIsReusedUntilEitherAuthorizationVersionMoves() {
+        when(userRoleMapper.selectRoleIdsByUserId(7L)).thenReturn(List.of(1L));
+        when(roleMapper.selectList(any())).thenReturn(List.of(role(1L, "ROLE_MANAGER", "经理", 1)));
+        when(sodConstraintMapper.selectList(any())).thenReturn(List.of());
+        when(rolePermissionMapper.selectPermissionIdsByRoleIds(anySet())).thenReturn(Set.of(100L));
+        when(permissionMapper.selectPermKeysByIds(anySet())).thenReturn(Set.of("system:user:query"));
+        SysUserEntity user = user(7L, 3L, 5L);
+
+        SessionRoleStateVO first = service.buildDefaultState(user);
+        first.getPermissions().clear();
+        SessionRoleStateVO second = service.buildDefaultState(user);
+        service.buildState(user, List.of(1L));
+        service.buildState(user, List.of(1L));
+        service.buildDefaultState(user(7L, 4L, 5L));
+        service.buildDefaultState(user(7L, 4L, 6L));
+
+        assertThat(second.getPermissions()).containsExactly("system:user:query");
+        verify(userRoleMapper, times(4)).selectRoleIdsByUserId(7L);
+        verify(sodConstraintMapper, times(2)).selectList(any());
     }
 
     @Test
     void permissionsFollowEffectiveRoleClosure() {
         when(userRoleMapper.selectRoleIdsByUserId(7L)).thenReturn(List.of(3L));
-        when(roleMapper.selectList(any()))
-                .thenReturn(List.of(role(3L, "ROLE_DEVELOPER", "开发", 3)))
-                .thenReturn(List.of(role(1L, "ROLE_USER", "普通用户", 1)));
-        when(roleInheritanceMapper.selectAncestorIdsByDescendantIds(anySet())).thenReturn(Set.of(1L));
-        when(sodConstraintService.list(org.mockito.ArgumentMatchers.<Wrapper<SysSodConstraintEntity>>any()))
+        when(roleMapper.selectList(any())).thenReturn(List.of(role(3L, "ROLE_DEVELOPER", "开发", 3)));
+        stubRoleGraph(List.of(role(1L, "ROLE_USER", "普通用户", 1), role(3L, "ROLE_DEVELOPER", "开发", 3)),
+                edge(1L, 3L));
+        when(sodConstraintMapper.selectList(any()))
                 .thenReturn(List.of());
         when(rolePermissionMapper.selectPermissionIdsByRoleIds(anySet())).thenReturn(Set.of(100L, 101L));
         when(permissionMapper.selectPermKeysByIds(anySet())).thenReturn(Set.of("system:user:query", "system:role:query"));
@@ -118,14 +207,34 @@ class RoleSessionServiceImplTest {
         assertThat(state.getPermissions()).containsExactly("system:role:query", "system:user:query");
     }
 
+    @Test
+    void jwtClaimsCarryTheRoleVersionDigestOfTheEffectiveRoles() {
+        when(userRoleMapper.selectRoleIdsByUserId(7L)).thenReturn(List.of(3L));
+        when(roleMapper.selectList(any())).thenReturn(List.of(role(3L, "ROLE_DEVELOPER", "开发", 3)));
+        stubRoleGraph(List.of(role(1L, "ROLE_USER", "普通用户", 1), role(3L, "ROLE_DEVELOPER", "开发", 3)),
+                edge(1L, 3L));
+        when(sodConstraintMapper.selectList(any())).thenReturn(List.of());
+
+        SessionRoleStateVO state = service.buildState(7L, List.of(3L));
+        Map<String, Object> claims = service.buildJwtClaims(7L, "dev", "开发", state);
+        assertThat(claims.get("roleVersionDigest")).isEqualTo(state.getRoleVersionDigest());
+        assertThat(service.matchesRoleVersions(claims, 0L)).isTrue();
+
+        // 继承来的祖先角色版本递增，同样使会话失效
+        SysRoleEntity bumped = role(1L, "ROLE_USER", "普通用户", 1);
+        bumped.setAuthVersion(1L);
+        stubRoleGraph(List.of(bumped, role(3L, "ROLE_DEVELOPER", "开发", 3)), edge(1L, 3L));
+        assertThat(service.matchesRoleVersions(claims, 1L)).isFalse();
+    }
+
     @Test
     void disabledAncestorDoesNotRemainEffective() {
         when(userRoleMapper.selectRoleIdsByUserId(7L)).thenReturn(List.of(3L));
-        when(roleMapper.selectList(any()))
-                .thenReturn(List.of(role(3L, "ROLE_DEVELOPER", "开发", 3)))
-                .thenReturn(List.of());
-        when(roleInheritanceMapper.selectAncestorIdsByDescendantIds(anySet())).thenReturn(Set.of(1L));
-        when(sodConstraintService.list(org.mockito.ArgumentMatchers.<Wrapper<SysSodConstraintEntity>>any()))
+        SysRoleEntity disabledUser = role(1L, "ROLE_USER", "普通用户", 1);
+        disabledUser.setStatus((byte) 0);
+        when(roleMapper.selectList(any())).thenReturn(List.of(role(3L, "ROLE_DEVELOPER", "开发", 3)));
+        stubRoleGraph(List.of(disabledUser, role(3L, "ROLE_DEVELOPER", "开发", 3)), edge(1L, 3L));
+        when(sodConstraintMapper.selectList(any()))
                 .thenReturn(List.of());
 
         SessionRoleStateVO state = service.buildState(7L, List.of(3L));
@@ -219,6 +328,27 @@ class RoleSessionServiceImplTest {
         return role;
     }
 
+    private SysUserEntity user(Long id, long authVersion, long globalAuthVersion) {
+        SysUserEntity user = new SysUserEntity();
+        user.setId(id);
+        user.setAuthVersion(authVersion);
+        user.setGlobalAuthVersion(globalAuthVersion);
+        return user;
+    }
+
+    private void stubRoleGraph(List<SysRoleEntity> roles, SysRoleInheritanceEntity... edges) {
+        when(roleMapper.selectGraphNodes()).thenReturn(roles);
+        when(roleInheritanceMapper.selectDirectEdges()).thenReturn(List.of(edges));
+    }
+
+    private SysRoleInheritanceEntity edge(Long ancestorId, Long descendantId) {
+        SysRoleInheritanceEntity edge = new SysRoleInheritanceEntity();
+        edge.setAncestorId(ancestorId);
+        edge.setDescendantId(descendantId);
+        edge.setDepth(1);
+        return edge;
+    }
+
     private JwtUtil jwtUtil() {
         JwtUtil jwtUtil = new JwtUtil();
         ReflectionTestUtils.setField(jwtUtil, "secret", "0123456789abcdef0123456789abcdef");
@@ -239,13 +369,10 @@ class RoleSessionServiceImplTest {
 
     private void stubInheritedStaticSodConflict() {
         when(userRoleMapper.selectRoleIdsByUserId(7L)).thenReturn(List.of(3L));
-        when(roleMapper.selectList(any()))
-                .thenReturn(List.of(role(3L, "ROLE_COMPOSITE", "复合角色", 3)))
-                .thenReturn(List.of(
-                        role(1L, "ROLE_AUDITOR", "审计", 1),
-                        role(2L, "ROLE_DEVELOPER", "开发", 2)));
-        when(roleInheritanceMapper.selectAncestorIdsByDescendantIds(anySet())).thenReturn(Set.of(1L, 2L));
-        when(sodConstraintService.list(org.mockito.ArgumentMatchers.<Wrapper<SysSodConstraintEntity>>any()))
+        when(roleMapper.selectList(any())).thenReturn(List.of(role(3L, "ROLE_COMPOSITE", "复合角色", 3)));
+        stubRoleGraph(List.of(role(1L, "ROLE_AUDITOR", "审计", 1), role(2L, "ROLE_DEVELOPER", "开发", 2),
+                role(3L, "ROLE_COMPOSITE", "复合角色", 3)), edge(1L, 3L), edge(2L, 3L));
+        when(sodConstraintMapper.selectList(any()))
                 .thenReturn(List.of(sod(11L, "审计与开发静态互斥", "[1,2]", (byte) 1)));
     }
 }
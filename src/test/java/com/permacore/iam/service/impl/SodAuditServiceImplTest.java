@@ -0,0 +1,189 @@
+package com.permacore.iam.service.impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.permacore.iam.domain.entity.SysRoleEntity;
+import com.permacore.iam.domain.entity.SysRoleInheritanceEntity;
+import com.permacore.iam.domain.entity.SysSodConstraintEntity;
+import com.permacore.iam.domain.entity.SysUserRoleEntity;
+import com.permacore.iam.domain.vo.SodAuditPageVO;
+import com.permacore.iam.domain.vo.SodViolationVO;
+import com.permacore.iam.mapper.SysRoleInheritanceMapper;
+import com.permacore.iam.mapper.SysRoleMapper;
+import com.permacore.iam.mapper.SysSodConstraintMapper;
+import com.permacore.iam.mapper.SysUserRoleMapper;
+import com.permacore.iam.security.authz.AuthorizationStateCache;
+import com.permacore.iam.security.authz.RoleGraph;
+import com.permacore.iam.security.authz.SodConstraintIndex;
+import com.permacore.iam.security.handler.BusinessException;
+import com.permacore.iam.service.SodAuditService;
+import org.apache.ibatis.cursor.Cursor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class SodAuditServiceImplTest {
+
+    @Mock
+    private SysUserRoleMapper userRoleMapper;
+    @Mock
+    private SysRoleMapper roleMapper;
+    @Mock
+    private SysRoleInheritanceMapper roleInheritanceMapper;
+    @Mock
+    private SysSodConstraintMapper sodConstraintMapper;
+    @Mock
+    private AuthorizationStateCache authorizationStateCache;
+
+    private SodAuditServiceImpl service;
+
+    @BeforeEach
+    void setUp() {
+        service = new SodAuditServiceImpl(userRoleMapper,
+                new RoleGraph(roleMapper, roleInheritanceMapper, authorizationStateCache),
+                new SodConstraintIndex(sodConstraintMapper, new ObjectMapper(), authorizationStateCache),
+                4);
+        when(authorizationStateCache.confirmedGlobalAuthVersion()).thenReturn(9L);
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.shutdown();
+    }
+
+    @Test
+    void reportsEveryInheritedViolationInUserOrderAcrossParallelBatches() {
+        // 3 继承 1；所有用户持有 3，每 7 个用户再直接持有 2，与 1 静态互斥
+        stubGraphAndRules(sod(10L, "审计与开发静态互斥", "[1,2]", 1), sod(11L, "动态互斥", "[1,3]", 2));
+        when(userRoleMapper.streamUserRolesAfter(0L, null)).thenReturn(cursor(LongStream.rangeClosed(1, 2000)
+                .boxed()
+                .flatMap(userId -> userId % 7 == 0
+                        ? Stream.of(userRole(userId, 2L), userRole(userId, 3L))
+                        : Stream.of(userRole(userId, 3L)))
+                .toList()));
+        List<SodViolationVO> violations = new ArrayList<>();
+
+        SodAuditService.Summary summary = service.audit(0L, null, violations::add);
+
+        assertThat(summary.usersScanned()).isEqualTo(2000);
+        assertThat(summary.violationCount()).isEqualTo(285);
+        assertThat(summary.lastUserId()).isEqualTo(2000L);
+        assertThat(summary.globalAuthVersion()).isEqualTo(9L);
+        assertThat(violations).extracting(SodViolationVO::getUserId)
+                .isSorted()
+                .containsExactlyElementsOf(LongStream.rangeClosed(1, 2000).filter(id -> id % 7 == 0).boxed().toList());
+        assertThat(violations.get(0).getConstraintName()).isEqualTo("审计与开发静态互斥");
+        assertThat(violations.get(0).getRoleIds()).containsExactly(1L, 2L);
+    }
+
+    @Test
+    void pageContinuesFromTheLastScannedUserUntilAShortPage() {
+        stubGraphAndRules(sod(10L, "审计与开发静态互斥", "[1,2]", 1));
+        when(userRoleMapper.streamUserRolesAfter(0L, 2)).thenReturn(cursor(List.of(
+                userRole(4L, 1L), userRole(4L, 2L), userRole(6L, 3L))));
+        when(userRoleMapper.streamUserRolesAfter(6L, 2)).thenReturn(cursor(List.of(userRole(8L, 1L))));
+
+        SodAuditPageVO first = service.auditPage(null, 2);
+        SodAuditPageVO last = service.auditPage(first.getNextAfterUserId(), 2);
+
+        assertThat(first.getViolations()).extracting(SodViolationVO::getUserId).containsExactly(4L);
+        assertThat(first.getNextAfterUserId()).isEqualTo(6L);
+        assertThat(last.getViolations()).isEmpty();
+        assertThat(last.getUsersScanned()).isEqualTo(1);
+        assertThat(last.getNextAfterUserId()).isNull();
+    }
+
+    @Test
+    void invalidRuleOrPageSizeFailsBeforeOpeningTheCursor() {
+        stubGraphAndRules(sod(10L, "损坏的约束", "not-json", 1));
+
+        assertThatThrownBy(() -> service.audit(0L, null, violation -> { }))
+                .isInstanceOf(BusinessException.class)
+                .hasMessageContaining("SoD约束配置无效: 10");
+        assertThatThrownBy(() -> service.auditPage(0L, 10001))
+                .isInstanceOf(BusinessException.class);
+        verify(userRoleMapper, never()).streamUserRolesAfter(any(Long.class), any());
+    }
+
+    private void stubGraphAndRules(SysSodConstraintEntity... rules) {
+        when(roleMapper.selectGraphNodes()).thenReturn(List.of(role(1L), role(2L), role(3L)));
+        when(roleInheritanceMapper.selectDirectEdges()).thenReturn(List.of(edge(1L, 3L)));
+        when(sodConstraintMapper.selectList(any())).thenReturn(List.of(rules));
+    }
+
+    private Cursor<SysUserRoleEntity> cursor(List<SysUserRoleEntity> rows) {
+        return new Cursor<>() {
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public boolean isConsumed() {
+                return false;
+            }
+
+            @Override
+            public int getCurrentIndex() {
+                return -1;
+            }
+
+            @Override
+            public Iterator<SysUserRoleEntity> iterator() {
+                return rows.iterator();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    private SysUserRoleEntity userRole(Long userId, Long roleId) {
+        SysUserRoleEntity userRole = new SysUserRoleEntity();
+        userRole.setUserId(userId);
+        userRole.setRoleId(roleId);
+        return userRole;
+    }
+
+    private SysRoleEntity role(Long id) {
+        SysRoleEntity role = new SysRoleEntity();
+        role.setId(id);
+        role.setStatus((byte) 1);
+        role.setDelFlag((byte) 0);
+        return role;
+    }
+
+    private SysRoleInheritanceEntity edge(Long ancestorId, Long descendantId) {
+        SysRoleInheritanceEntity edge = new SysRoleInheritanceEntity();
+        edge.setAncestorId(ancestorId);
+        edge.setDescendantId(descendantId);
+        edge.setDepth(1);
+        return edge;
+    }
+
+    private SysSodConstraintEntity sod(Long id, String name, String roleSet, int type) {
+        SysSodConstraintEntity constraint = new SysSodConstraintEntity();
+        constraint.setId(id);
+        constraint.setConstraintName(name);
+        constraint.setRoleSet(roleSet);
+        constraint.setConstraintType((byte) type);
+        return constraint;
+    }
+}
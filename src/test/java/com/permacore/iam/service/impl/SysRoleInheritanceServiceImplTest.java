@@ -1,19 +1,19 @@
 package com.permacore.iam.service.impl;
 
-import com.baomidou.mybatisplus.core.conditions.Wrapper;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.permacore.iam.domain.entity.SysRoleEntity;
 import com.permacore.iam.domain.entity.SysRoleInheritanceEntity;
 import com.permacore.iam.domain.entity.SysSodConstraintEntity;
-import com.permacore.iam.domain.entity.SysUserEntity;
 import com.permacore.iam.domain.entity.SysUserRoleEntity;
 import com.permacore.iam.mapper.SysRoleInheritanceMapper;
 import com.permacore.iam.mapper.SysRoleMapper;
-import com.permacore.iam.mapper.SysUserMapper;
+import com.permacore.iam.mapper.SysSodConstraintMapper;
 import com.permacore.iam.mapper.SysUserRoleMapper;
+import com.permacore.iam.security.authz.AuthorizationStateCache;
+import com.permacore.iam.security.authz.SodConstraintIndex;
 import com.permacore.iam.security.handler.BusinessException;
-import com.permacore.iam.service.SysSodConstraintService;
 import com.permacore.iam.service.AuthorizationStateService;
+import org.apache.ibatis.cursor.Cursor;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -21,11 +21,16 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -41,9 +46,7 @@ class SysRoleInheritanceServiceImplTest {
     @Mock
     private SysUserRoleMapper userRoleMapper;
     @Mock
-    private SysUserMapper userMapper;
-    @Mock
-    private SysSodConstraintService sodConstraintService;
+    private SysSodConstraintMapper sodConstraintMapper;
     @Mock
     private AuthorizationStateService authorizationStateService;
 
@@ -55,9 +58,7 @@ class SysRoleInheritanceServiceImplTest {
                 roleInheritanceMapper,
                 roleMapper,
                 userRoleMapper,
-                userMapper,
-                sodConstraintService,
-                new ObjectMapper(),
+                new SodConstraintIndex(sodConstraintMapper, new ObjectMapper(), mock(AuthorizationStateCache.class)),
                 authorizationStateService);
     }
 
@@ -77,11 +78,12 @@ class SysRoleInheritanceServiceImplTest {
     void updateParentRolesRejectsCycle() {
         when(roleMapper.selectById(1L)).thenReturn(role(1L));
         when(roleMapper.selectBatchIds(any())).thenReturn(List.of(role(2L)));
-        when(roleInheritanceMapper.selectList(any())).thenReturn(List.of(edge(1L, 2L)));
+        when(roleInheritanceMapper.selectDescendantIdsAmong(1L, List.of(2L))).thenReturn(Set.of(2L));
 
         assertThatThrownBy(() -> service.updateParentRoles(1L, List.of(2L)))
                 .isInstanceOf(BusinessException.class)
-                .hasMessageContaining("形成环");
+                .hasMessageContaining("形成环")
+                .hasMessageContaining("parentId=2");
 
         verify(roleInheritanceMapper, never()).delete(any());
         verify(roleInheritanceMapper, never()).insert(any(SysRoleInheritanceEntity.class));
@@ -91,13 +93,10 @@ class SysRoleInheritanceServiceImplTest {
     void updateParentRolesRejectsExistingUserSsdConflict() {
         when(roleMapper.selectById(1L)).thenReturn(role(1L));
         when(roleMapper.selectBatchIds(any())).thenReturn(List.of(role(2L)));
-        when(roleInheritanceMapper.selectList(any())).thenReturn(List.of());
-        when(userMapper.selectList(org.mockito.ArgumentMatchers.<Wrapper<SysUserEntity>>any()))
-                .thenReturn(List.of(user(9L)));
-        when(userRoleMapper.selectList(org.mockito.ArgumentMatchers.<Wrapper<SysUserRoleEntity>>any()))
-                .thenReturn(List.of(userRole(9L, 1L)));
-        when(sodConstraintService.list(org.mockito.ArgumentMatchers.<Wrapper<SysSodConstraintEntity>>any()))
+        when(sodConstraintMapper.selectList(any()))
                 .thenReturn(List.of(sod("开发与审计互斥", "[1,2]")));
+        when(userRoleMapper.streamActiveUserRolesOfHolders(eq(Set.of(1L)), any()))
+                .thenReturn(cursor(userRole(9L, 1L)));
 
         assertThatThrownBy(() -> service.updateParentRoles(1L, List.of(2L)))
                 .isInstanceOf(BusinessException.class)
@@ -113,9 +112,6 @@ class SysRoleInheritanceServiceImplTest {
     void updateParentRolesSavesDistinctMultipleParentsWhenLegal() {
         when(roleMapper.selectById(1L)).thenReturn(role(1L));
         when(roleMapper.selectBatchIds(any())).thenReturn(List.of(role(2L), role(3L)));
-        when(roleInheritanceMapper.selectList(any())).thenReturn(List.of());
-        when(userMapper.selectList(org.mockito.ArgumentMatchers.<Wrapper<SysUserEntity>>any()))
-                .thenReturn(List.of());
 
         service.updateParentRoles(1L, List.of(2L, 2L, 3L));
 
@@ -132,6 +128,67 @@ class SysRoleInheritanceServiceImplTest {
                 });
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    void updateParentRolesRewritesTheClosureOfTheRoleAndItsDescendants() {
+        // 3 -> 2 已存在，1 -> 4 已存在；把 2 设为 1 的父角色后 1 与 4 的祖先集合都变化
+        when(roleMapper.selectById(1L)).thenReturn(role(1L));
+        when(roleMapper.selectBatchIds(any())).thenReturn(List.of(role(2L)));
+        when(roleInheritanceMapper.selectDescendantIds(1L)).thenReturn(Set.of(4L));
+        when(roleInheritanceMapper.selectClosureByDescendantIds(Set.of(1L, 4L, 2L)))
+                .thenReturn(List.of(edge(1L, 4L), edge(3L, 2L)));
+        when(roleInheritanceMapper.selectDirectEdgesByDescendantIds(Set.of(1L, 4L, 2L, 3L)))
+                .thenReturn(List.of(edge(3L, 2L), edge(1L, 4L)));
+
+        service.updateParentRoles(1L, List.of(2L));
+
+        verify(roleInheritanceMapper).deleteIndirectByDescendantIds(Set.of(1L, 4L));
+        ArgumentCaptor<List<SysRoleInheritanceEntity>> captor = ArgumentCaptor.forClass(List.class);
+        verify(roleInheritanceMapper).insertBatch(captor.capture());
+        assertThat(captor.getValue())
+                .extracting(SysRoleInheritanceEntity::getAncestorId, SysRoleInheritanceEntity::getDescendantId,
+                        SysRoleInheritanceEntity::getDepth)
+                .containsExactlyInAnyOrder(tuple(3L, 1L, 2), tuple(2L, 4L, 2), tuple(3L, 4L, 3));
+    }
+
+    @Test
+    void ssdRevalidationUsesTheStoredClosureForRolesOutsideTheChangedSubtree() {
+        // 用户 9 直接持有 1 与 5；5 经闭包继承 6。把 2 设为 1 的父角色后，约束 [2,6] 被违反；
+        // 约束 [5,6] 不涉及新祖先 2，不参与本次校验
+        when(roleMapper.selectById(1L)).thenReturn(role(1L));
+        when(roleMapper.selectBatchIds(any())).thenReturn(List.of(role(2L)));
+        when(sodConstraintMapper.selectList(any()))
+                .thenReturn(List.of(sod("历史遗留", "[5,6]"), sod("审批与执行互斥", "[2,6]")));
+        when(roleInheritanceMapper.selectClosureByAncestorIds(Set.of(2L, 6L))).thenReturn(List.of(edge(6L, 5L)));
+        when(userRoleMapper.streamActiveUserRolesOfHolders(eq(Set.of(1L)), any())).thenAnswer(invocation -> {
+            assertThat(invocation.<java.util.Collection<Long>>getArgument(1)).containsExactlyInAnyOrder(1L, 2L, 5L, 6L);
+            return cursor(userRole(9L, 1L), userRole(9L, 5L));
+        });
+
+        assertThatThrownBy(() -> service.updateParentRoles(1L, List.of(2L)))
+                .isInstanceOf(BusinessException.class)
+                .hasMessageContaining("审批与执行互斥")
+                .hasMessageContaining("冲突角色ID=[2, 6]");
+
+        verify(roleInheritanceMapper, never()).selectList(any());
+        verify(userRoleMapper, never()).selectList(any());
+        verify(roleInheritanceMapper, never()).insert(any(SysRoleInheritanceEntity.class));
+    }
+
+    @Test
+    void removingParentsSkipsSsdRevalidation() {
+        // 1 原本继承 2，清空父角色后没有新增祖先，不可能产生新的冲突
+        when(roleMapper.selectById(1L)).thenReturn(role(1L));
+        when(roleInheritanceMapper.selectClosureByDescendantIds(Set.of(1L))).thenReturn(List.of(edge(2L, 1L)));
+        when(roleInheritanceMapper.selectDirectEdgesByDescendantIds(Set.of(1L, 2L))).thenReturn(List.of(edge(2L, 1L)));
+
+        service.updateParentRoles(1L, List.of());
+
+        verify(sodConstraintMapper, never()).selectList(any());
+        verify(userRoleMapper, never()).streamActiveUserRolesOfHolders(any(), any());
+        verify(roleInheritanceMapper).delete(any());
+    }
+
     private SysRoleEntity role(Long id) {
         SysRoleEntity role = new SysRoleEntity();
         role.setId(id);
@@ -148,11 +205,33 @@ class SysRoleInheritanceServiceImplTest {
         return edge;
     }
 
-    private SysUserEntity user(Long id) {
-        SysUserEntity user = new SysUserEntity();
-        user.setId(id);
-        user.setDelFlag((byte) 0);
-        return user;
+    private Cursor<SysUserRoleEntity> cursor(SysUserRoleEntity... rows) {
+        List<SysUserRoleEntity> list = List.of(rows);
+        return new Cursor<>() {
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public boolean isConsumed() {
+                return false;
+            }
+
+            @Override
+            public int getCurrentIndex() {
+                return -1;
+            }
+
+            @Override
+            public Iterator<SysUserRoleEntity> iterator() {
+                return list.iterator();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
     }
 
     private SysUserRoleEntity userRole(Long userId, Long roleId) {
@@ -1,14 +1,15 @@
 package com.permacore.iam.service.impl;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.permacore.iam.domain.entity.SysRoleEntity;
 import com.permacore.iam.mapper.SysPermissionMapper;
 import com.permacore.iam.mapper.SysRoleInheritanceMapper;
 import com.permacore.iam.mapper.SysRoleMapper;
 import com.permacore.iam.mapper.SysRolePermissionMapper;
-import com.permacore.iam.mapper.SysSodConstraintMapper;
+import com.permacore.iam.mapper.SysSodConstraintRoleMapper;
 import com.permacore.iam.mapper.SysUserRoleMapper;
+import com.permacore.iam.security.authz.RoleGraph;
 import com.permacore.iam.service.AuthorizationStateService;
+import com.permacore.iam.service.SysRoleInheritanceService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -17,9 +18,13 @@ import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.test.util.ReflectionTestUtils;
 
+import java.util.LinkedHashSet;
+import java.util.List;
+
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
@@ -37,9 +42,13 @@ class SysRoleServiceImplLockingTest {
     @Mock
     private SysUserRoleMapper userRoleMapper;
     @Mock
-    private SysSodConstraintMapper sodConstraintMapper;
+    private SysSodConstraintRoleMapper sodConstraintRoleMapper;
     @Mock
     private AuthorizationStateService authorizationStateService;
+    @Mock
+    private RoleGraph roleGraph;
+    @Mock
+    private SysRoleInheritanceService roleInheritanceService;
 
     private SysRoleServiceImpl service;
 
@@ -51,9 +60,10 @@ class SysRoleServiceImplLockingTest {
                 permissionMapper,
                 roleInheritanceMapper,
                 userRoleMapper,
-                sodConstraintMapper,
-                new ObjectMapper(),
-                authorizationStateService
+                sodConstraintRoleMapper,
+                authorizationStateService,
+                roleGraph,
+                roleInheritanceService
         );
         ReflectionTestUtils.setField(service, "baseMapper", roleMapper);
     }
@@ -69,9 +79,49 @@ class SysRoleServiceImplLockingTest {
         assertThat(service.saveRole(role)).isTrue();
 
         InOrder order = inOrder(roleMapper);
-        order.verify(roleMapper).lockAllRoleIds();
+        order.verify(roleMapper).lockGraphEpoch();
         order.verify(roleMapper).insert(role);
         assertThat(role.getDelFlag()).isZero();
         verifyNoInteractions(authorizationStateService);
     }
+
+    @Test
+    void renamingRoleInvalidatesOnlyItsOwnVersion() {
+        when(roleMapper.selectById(5L)).thenReturn(existingRole(5L, (byte) 1));
+        when(roleMapper.updateById(any(SysRoleEntity.class))).thenReturn(1);
+        SysRoleEntity role = new SysRoleEntity();
+        role.setId(5L);
+        role.setRoleName(" Auditor ");
+
+        assertThat(service.updateRole(role)).isTrue();
+
+        verify(authorizationStateService).invalidateRoles(List.of(5L));
+        verifyNoInteractions(roleGraph);
+    }
+
+    @Test
+    void changingRoleStatusInvalidatesTheRoleAndItsDescendantsFromTheClosureTable() {
+        when(roleInheritanceMapper.selectDescendantIds(5L)).thenReturn(new LinkedHashSet<>(List.of(6L, 7L)));
+        when(roleMapper.selectById(5L)).thenReturn(existingRole(5L, (byte) 1));
+        when(roleMapper.updateById(any(SysRoleEntity.class))).thenReturn(1);
+        SysRoleEntity role = new SysRoleEntity();
+        role.setId(5L);
+        role.setStatus((byte) 0);
+
+        assertThat(service.updateRole(role)).isTrue();
+
+        verify(authorizationStateService).invalidateRoles(List.of(5L, 6L, 7L));
+        // 角色状态已在本事务写入，不能借此连接重建共享角色图快照
+        verifyNoInteractions(roleGraph);
+    }
+
+    private SysRoleEntity existingRole(Long id, byte status) {
+        SysRoleEntity role = new SysRoleEntity();
+        role.setId(id);
+        role.setRoleKey("ROLE_" + id);
+        role.setRoleName("Role " + id);
+        role.setStatus(status);
+        role.setDelFlag((byte) 0);
+        return role;
+    }
 }
@@ -0,0 +1,141 @@
+package com.permacore.iam.service.impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.permacore.iam.domain.entity.SysRoleEntity;
+import com.permacore.iam.domain.entity.SysSodConstraintEntity;
+import com.permacore.iam.domain.vo.SodConstraintVO;
+import com.permacore.iam.mapper.SysRoleMapper;
+import com.permacore.iam.mapper.SysSodConstraintMapper;
+import com.permacore.iam.mapper.SysSodConstraintRoleMapper;
+import com.permacore.iam.mapper.SysUserRoleMapper;
+import com.permacore.iam.security.handler.BusinessException;
+import com.permacore.iam.service.AuthorizationStateService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class SysSodConstraintServiceImplTest {
+
+    @Mock
+    private SysSodConstraintMapper sodConstraintMapper;
+    @Mock
+    private SysRoleMapper roleMapper;
+    @Mock
+    private SysUserRoleMapper userRoleMapper;
+    @Mock
+    private SysSodConstraintRoleMapper sodConstraintRoleMapper;
+    @Mock
+    private AuthorizationStateService authorizationStateService;
+
+    private SysSodConstraintServiceImpl service;
+
+    @BeforeEach
+    void setUp() {
+        service = new SysSodConstraintServiceImpl(
+                new ObjectMapper(),
+                roleMapper,
+                userRoleMapper,
+                sodConstraintRoleMapper,
+                authorizationStateService);
+        ReflectionTestUtils.setField(service, "baseMapper", sodConstraintMapper);
+    }
+
+    @Test
+    void createConstraintWritesTheNormalizedRoleRowsInTheSameTransaction() {
+        when(roleMapper.selectBatchIds(any())).thenReturn(List.of(role(2L), role(1L)));
+        when(userRoleMapper.selectFirstUserHoldingAtLeastTwo(List.of(2L, 1L))).thenReturn(null);
+        when(sodConstraintMapper.insert(any(SysSodConstraintEntity.class))).thenAnswer(invocation -> {
+            invocation.<SysSodConstraintEntity>getArgument(0).setId(30L);
+            return 1;
+        });
+
+        service.createConstraint(vo("[2,1,2]", 1));
+
+        InOrder order = inOrder(roleMapper, userRoleMapper, sodConstraintMapper, sodConstraintRoleMapper,
+                authorizationStateService);
+        order.verify(roleMapper).lockGraphEpoch();
+        order.verify(userRoleMapper).selectFirstUserHoldingAtLeastTwo(List.of(2L, 1L));
+        order.verify(sodConstraintMapper).insert(any(SysSodConstraintEntity.class));
+        order.verify(sodConstraintRoleMapper).insertBatch(30L, List.of(2L, 1L));
+        order.verify(authorizationStateService).invalidateRoles(List.of());
+    }
+
+    @Test
+    void createSsdConstraintRejectsAnExistingViolatingUser() {
+        when(roleMapper.selectBatchIds(any())).thenReturn(List.of(role(1L), role(2L)));
+        when(userRoleMapper.selectFirstUserHoldingAtLeastTwo(List.of(1L, 2L))).thenReturn(9L);
+
+        assertThatThrownBy(() -> service.createConstraint(vo("[1,2]", 1)))
+                .isInstanceOf(BusinessException.class)
+                .hasMessageContaining("userId=9");
+
+        verify(sodConstraintMapper, never()).insert(any(SysSodConstraintEntity.class));
+        verifyNoInteractions(sodConstraintRoleMapper, authorizationStateService);
+    }
+
+    @Test
+    void deleteConstraintRemovesTheRoleRowsBeforeTheConstraint() {
+        when(sodConstraintMapper.selectById(30L)).thenReturn(constraint(30L, "[1,2]", 2));
+        when(sodConstraintMapper.deleteById(30L)).thenReturn(1);
+
+        service.deleteConstraint(30L);
+
+        InOrder order = inOrder(sodConstraintRoleMapper, sodConstraintMapper, authorizationStateService);
+        order.verify(sodConstraintRoleMapper).deleteByConstraintId(30L);
+        order.verify(sodConstraintMapper).deleteById(30L);
+        order.verify(authorizationStateService).invalidateRoles(List.of(1L, 2L));
+    }
+
+    @Test
+    void updateConstraintInvalidatesOldAndNewDsdRoles() {
+        when(sodConstraintMapper.selectById(30L)).thenReturn(constraint(30L, "[1,2]", 2));
+        when(roleMapper.selectBatchIds(any())).thenReturn(List.of(role(2L), role(3L)));
+        when(sodConstraintMapper.updateById(any(SysSodConstraintEntity.class))).thenReturn(1);
+
+        service.updateConstraint(30L, vo("[2,3]", 2));
+
+        verify(sodConstraintRoleMapper).insertBatch(30L, List.of(2L, 3L));
+        verify(authorizationStateService).invalidateRoles(Set.of(1L, 2L, 3L));
+        verifyNoInteractions(userRoleMapper);
+    }
+
+    private SysSodConstraintEntity constraint(Long id, String roleSet, int type) {
+        SysSodConstraintEntity entity = new SysSodConstraintEntity();
+        entity.setId(id);
+        entity.setConstraintName("互斥约束");
+        entity.setRoleSet(roleSet);
+        entity.setConstraintType((byte) type);
+        return entity;
+    }
+
+    private SodConstraintVO vo(String roleSet, int type) {
+        SodConstraintVO vo = new SodConstraintVO();
+        vo.setConstraintName("互斥约束");
+        vo.setRoleSet(roleSet);
+        vo.setConstraintType((byte) type);
+        return vo;
+    }
+
+    private SysRoleEntity role(Long id) {
+        SysRoleEntity role = new SysRoleEntity();
+        role.setId(id);
+        role.setDelFlag((byte) 0);
+        return role;
+    }
+}
@@ -1,13 +1,12 @@
 package com.permacore.iam.service.impl;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.permacore.iam.domain.entity.SysUserEntity;
 import com.permacore.iam.mapper.SysRoleMapper;
 import com.permacore.iam.mapper.SysUserMapper;
 import com.permacore.iam.mapper.SysUserRoleMapper;
+import com.permacore.iam.security.authz.SodConstraintIndex;
 import com.permacore.iam.security.handler.BusinessException;
 import com.permacore.iam.service.AuthorizationStateService;
-import com.permacore.iam.service.SysSodConstraintService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -35,7 +34,7 @@ class UserServiceImplLockingTest {
     @Mock
     private SysRoleMapper roleMapper;
     @Mock
-    private SysSodConstraintService sodConstraintService;
+    private SodConstraintIndex sodConstraintIndex;
     @Mock
     private AuthorizationStateService authorizationStateService;
 
@@ -47,9 +46,8 @@ class UserServiceImplLockingTest {
                 userMapper,
                 userRoleMapper,
                 roleMapper,
-                new PermissionService(null, null, null),
-                sodConstraintService,
-                new ObjectMapper(),
+                new PermissionService(null, null, null, null),
+                sodConstraintIndex,
                 authorizationStateService
         );
         ReflectionTestUtils.setField(service, "baseMapper", userMapper);
@@ -64,15 +62,15 @@ class UserServiceImplLockingTest {
         service.assignRoles(10L, List.of());
 
         InOrder order = inOrder(roleMapper, userMapper, userRoleMapper, authorizationStateService);
-        order.verify(roleMapper).lockAllRoleIdsShared();
+        order.verify(roleMapper).lockGraphEpochShared();
         order.verify(userMapper).selectByIdForUpdate(9L);
         order.verify(userRoleMapper).deleteByUserId(9L);
         order.verify(authorizationStateService).invalidateUsers(List.of(9L));
-        order.verify(roleMapper).lockAllRoleIdsShared();
+        order.verify(roleMapper).lockGraphEpochShared();
         order.verify(userMapper).selectByIdForUpdate(10L);
         order.verify(userRoleMapper).deleteByUserId(10L);
         order.verify(authorizationStateService).invalidateUsers(List.of(10L));
-        verify(roleMapper, never()).lockAllRoleIds();
+        verify(roleMapper, never()).lockGraphEpoch();
     }
 
     @Test
@@ -84,9 +82,9 @@ class UserServiceImplLockingTest {
                 .hasMessage("用户不存在: 404");
 
         InOrder order = inOrder(roleMapper, userMapper);
-        order.verify(roleMapper).lockAllRoleIdsShared();
+        order.verify(roleMapper).lockGraphEpochShared();
         order.verify(userMapper).selectByIdForUpdate(404L);
-        verify(roleMapper, never()).lockAllRoleIds();
+        verify(roleMapper, never()).lockGraphEpoch();
         verifyNoInteractions(userRoleMapper, authorizationStateService);
     }
 
@@ -108,9 +106,9 @@ class UserServiceImplLockingTest {
                 .hasMessage("用户不存在: 404");
 
         InOrder order = inOrder(roleMapper, userMapper);
-        order.verify(roleMapper).lockAllRoleIdsShared();
+        order.verify(roleMapper).lockGraphEpochShared();
         order.verify(userMapper).selectByIdForUpdate(404L);
-        verify(roleMapper, never()).lockAllRoleIds();
+        verify(roleMapper, never()).lockGraphEpoch();
         verifyNoInteractions(userRoleMapper, authorizationStateService);
     }
 
@@ -124,7 +122,7 @@ class UserServiceImplLockingTest {
         service.deleteUsers(List.of(2L, 1L, 2L));
 
         InOrder order = inOrder(roleMapper, userMapper, userRoleMapper, authorizationStateService);
-        order.verify(roleMapper).lockAllRoleIdsShared();
+        order.verify(roleMapper).lockGraphEpochShared();
         order.verify(userMapper).selectByIdForUpdate(1L);
         order.verify(userMapper).selectByIdForUpdate(2L);
         order.verify(userRoleMapper).deleteByUserId(1L);
@@ -132,7 +130,7 @@ class UserServiceImplLockingTest {
         order.verify(userRoleMapper).deleteByUserId(2L);
         order.verify(userMapper).deleteById(2L);
         order.verify(authorizationStateService).invalidateUsers(List.of(1L, 2L));
-        verify(roleMapper, never()).lockAllRoleIds();
+        verify(roleMapper, never()).lockGraphEpoch();
     }
 
     private SysUserEntity activeUser(long id) {
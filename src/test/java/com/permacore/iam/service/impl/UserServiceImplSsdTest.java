@@ -1,15 +1,16 @@
 package com.permacore.iam.service.impl;
 
-import com.baomidou.mybatisplus.core.conditions.Wrapper;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.permacore.iam.domain.entity.SysSodConstraintEntity;
 import com.permacore.iam.domain.entity.SysUserEntity;
 import com.permacore.iam.domain.entity.SysRoleEntity;
 import com.permacore.iam.mapper.SysRoleMapper;
+import com.permacore.iam.mapper.SysSodConstraintMapper;
 import com.permacore.iam.mapper.SysUserMapper;
 import com.permacore.iam.mapper.SysUserRoleMapper;
+import com.permacore.iam.security.authz.AuthorizationStateCache;
+import com.permacore.iam.security.authz.SodConstraintIndex;
 import com.permacore.iam.security.handler.BusinessException;
-import com.permacore.iam.service.SysSodConstraintService;
 import com.permacore.iam.service.AuthorizationStateService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -22,6 +23,7 @@ import java.util.Set;
 
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -36,7 +38,7 @@ class UserServiceImplSsdTest {
     @Mock
     private SysRoleMapper roleMapper;
     @Mock
-    private SysSodConstraintService sodConstraintService;
+    private SysSodConstraintMapper sodConstraintMapper;
     @Mock
     private AuthorizationStateService authorizationStateService;
 
@@ -51,8 +53,7 @@ class UserServiceImplSsdTest {
                 userRoleMapper,
                 roleMapper,
                 permissionService,
-                sodConstraintService,
-                new ObjectMapper(),
+                new SodConstraintIndex(sodConstraintMapper, new ObjectMapper(), mock(AuthorizationStateCache.class)),
                 authorizationStateService);
         SysUserEntity user = new SysUserEntity();
         user.setId(9L);
@@ -68,32 +69,32 @@ class UserServiceImplSsdTest {
     @Test
     void assignRolesRejectsDirectSsdConflict() {
         permissionService.roleIdsWithInheritance = Set.of(1L, 2L);
-        when(sodConstraintService.list(org.mockito.ArgumentMatchers.<Wrapper<SysSodConstraintEntity>>any()))
+        when(sodConstraintMapper.selectList(any()))
                 .thenReturn(List.of(sod("审计员与开发人员互斥", "[1,2]")));
 
         assertThatThrownBy(() -> service.assignRoles(9L, List.of(1L, 2L)))
                 .isInstanceOf(BusinessException.class)
                 .hasFieldOrPropertyWithValue("code", 400)
                 .hasMessageContaining("职责分离");
-        verify(roleMapper).lockAllRoleIdsShared();
+        verify(roleMapper).lockGraphEpochShared();
         verify(userMapper).selectByIdForUpdate(9L);
-        verify(roleMapper, never()).lockAllRoleIds();
+        verify(roleMapper, never()).lockGraphEpoch();
         verify(userRoleMapper, never()).deleteByUserId(9L);
     }
 
     @Test
     void assignRolesRejectsInheritedSsdConflict() {
         permissionService.roleIdsWithInheritance = Set.of(1L, 3L);
-        when(sodConstraintService.list(org.mockito.ArgumentMatchers.<Wrapper<SysSodConstraintEntity>>any()))
+        when(sodConstraintMapper.selectList(any()))
                 .thenReturn(List.of(sod("继承互斥", "[1,3]")));
 
         assertThatThrownBy(() -> service.assignRoles(9L, List.of(3L)))
                 .isInstanceOf(BusinessException.class)
                 .hasFieldOrPropertyWithValue("code", 400)
                 .hasMessageContaining("职责分离");
-        verify(roleMapper).lockAllRoleIdsShared();
+        verify(roleMapper).lockGraphEpochShared();
         verify(userMapper).selectByIdForUpdate(9L);
-        verify(roleMapper, never()).lockAllRoleIds();
+        verify(roleMapper, never()).lockGraphEpoch();
         verify(userRoleMapper, never()).deleteByUserId(9L);
     }
 
@@ -117,7 +118,7 @@ class UserServiceImplSsdTest {
         private Set<Long> roleIdsWithInheritance = Set.of();
 
         FakePermissionService() {
-            super(null, null, null);
+            super(null, null, null, null);
         }
 
         @Override
@@ -46,6 +46,39 @@ class JwtUtilTest {
                 .hasMessageContaining("JWT内容超过签发上限");
     }
 
+    @Test
+    void rejectsStructurallyInvalidTokensBeforeVerification() {
+        JwtUtil jwtUtil = jwtUtil("0123456789abcdef0123456789abcdef");
+        String accessToken = jwtUtil.generateAccessToken(Map.of("userId", 7L), "session-1");
+
+        assertThat(JwtUtil.isWellFormed(accessToken)).isTrue();
+        for (String malformed : new String[] {"abc", "a.b", "a.b.c.d", "a..c", "a.b.", ".b.c", "a.b+c.d",
+                accessToken + "=", "a.b." + "c".repeat(4096)}) {
+            assertThatThrownBy(() -> jwtUtil.parseToken(malformed))
+                    .as(malformed)
+                    .isInstanceOf(IllegalArgumentException.class)
+                    .hasMessage("Token 格式无效");
+        }
+    }
+
+    @Test
+    void reusesVerifiedClaimsForTheSameTokenButStillRejectsTamperedSignatures() {
+        JwtUtil jwtUtil = jwtUtil("0123456789abcdef0123456789abcdef");
+        String accessToken = jwtUtil.generateAccessToken(Map.of("userId", 7L, "username", "alice"), "session-1");
+
+        Claims first = jwtUtil.parseToken(accessToken);
+        assertThat(jwtUtil.parseToken(accessToken)).isSameAs(first);
+        assertThat(jwtUtil.getUserIdFromToken(accessToken)).isEqualTo(7L);
+        assertThat(jwtUtil.getUsernameFromToken(accessToken)).isEqualTo("alice");
+
+        int index = accessToken.length() - 5;
+        char replacement = accessToken.charAt(index) == 'A' ? 'B' : 'A';
+        String tampered = accessToken.substring(0, index) + replacement + accessToken.substring(index + 1);
+        assertThatThrownBy(() -> jwtUtil.parseToken(tampered))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Token 无效");
+    }
+
     static JwtUtil jwtUtil(String secret) {
         JwtUtil jwtUtil = new JwtUtil();
         ReflectionTestUtils.setField(jwtUtil, "secret", secret);
@@ -1,12 +1,24 @@
 package com.permacore.iam.utils;
 
+import com.github.benmanes.caffeine.cache.Cache;
 import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.test.util.ReflectionTestUtils;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 class RedisCacheUtilTest {
 
@@ -22,6 +34,67 @@ class RedisCacheUtilTest {
         assertThat(cache.getJwtVersion(9L)).isEqualTo("new-session");
     }
 
+    @Test
+    void concurrentRotationsOnVirtualThreadsLetExactlyOneWin() throws Exception {
+        RedisCacheUtil cache = new RedisCacheUtil();
+        ReflectionTestUtils.setField(cache, "redisEnabled", false);
+        cache.setJwtVersion(10L, "old-session", 1, TimeUnit.HOURS);
+
+        List<Future<Boolean>> results = new ArrayList<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < 64; i++) {
+                String next = "session-" + i;
+                results.add(executor.submit(
+                        () -> cache.rotateJwtVersion(10L, "old-session", next, 1, TimeUnit.HOURS)));
+            }
+        }
+
+        long winners = 0;
+        for (Future<Boolean> result : results) {
+            winners += result.get() ? 1 : 0;
+        }
+        assertThat(winners).isEqualTo(1);
+        assertThat(cache.getJwtVersion(10L)).startsWith("session-");
+    }
+
+    @Test
+    void expiredLocalSessionsAreEvictedAndCannotBeRotated() {
+        AtomicLong nanos = new AtomicLong();
+        RedisCacheUtil cache = new RedisCacheUtil(nanos::get);
+        ReflectionTestUtils.setField(cache, "redisEnabled", false);
+        cache.setJwtVersion(12L, "short-session", 1, TimeUnit.MINUTES);
+        cache.setJwtVersion(13L, "long-session", 1, TimeUnit.HOURS);
+
+        nanos.addAndGet(TimeUnit.MINUTES.toNanos(2));
+        Cache<?, ?> localSessions = (Cache<?, ?>) ReflectionTestUtils.getField(cache, "localSessionVersions");
+        localSessions.cleanUp();
+
+        assertThat(localSessions.estimatedSize()).isEqualTo(1);
+        assertThat(cache.getJwtVersion(12L)).isNull();
+        assertThat(cache.rotateJwtVersion(12L, "short-session", "revived", 1, TimeUnit.HOURS)).isFalse();
+        assertThat(cache.getJwtVersion(12L)).isNull();
+        assertThat(cache.rotateJwtVersion(13L, "long-session", "rotated", 1, TimeUnit.MINUTES)).isTrue();
+
+        nanos.addAndGet(TimeUnit.MINUTES.toNanos(2));
+        assertThat(cache.getJwtVersion(13L)).isNull();
+    }
+
+    @Test
+    void failedRotationDoesNotExtendTheLocalSessionExpiry() {
+        AtomicLong nanos = new AtomicLong();
+        RedisCacheUtil cache = new RedisCacheUtil(nanos::get);
+        ReflectionTestUtils.setField(cache, "redisEnabled", false);
+        cache.setJwtVersion(14L, "session", 10, TimeUnit.MINUTES);
+
+        nanos.addAndGet(TimeUnit.MINUTES.toNanos(8));
+        // 重放旧的 Refresh Token：版本不匹配，条目原样保留
+        assertThat(cache.rotateJwtVersion(14L, "replayed", "attacker", 10, TimeUnit.MINUTES)).isFalse();
+        assertThat(cache.getJwtVersion(14L)).isEqualTo("session");
+
+        nanos.addAndGet(TimeUnit.MINUTES.toNanos(3));
+        assertThat(cache.getJwtVersion(14L)).isNull();
+    }
+
     @Test
     void logoutCannotBeUndoneByAnOldRefreshRotation() {
         RedisCacheUtil cache = new RedisCacheUtil();
@@ -34,6 +107,28 @@ class RedisCacheUtilTest {
         assertThat(cache.getJwtVersion(11L)).isNull();
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    void hashModeTreatsAuthorizationFieldsPastTheirDeadlineAsMissing() {
+        StringRedisTemplate template = mock(StringRedisTemplate.class);
+        RedisCacheUtil cache = new RedisCacheUtil();
+        ReflectionTestUtils.setField(cache, "redisEnabled", true);
+        ReflectionTestUtils.setField(cache, "authStateHashEnabled", true);
+        ReflectionTestUtils.setField(cache, "stringRedisTemplate", template);
+        when(template.executePipelined(any(RedisCallback.class)))
+                .thenReturn(List.of(List.of("session", "3", "1", "0", "2000"), "7", 1999L))
+                .thenReturn(List.of(List.of("session", "3", "1", "0", "2000"), "7", 2000L));
+
+        RedisCacheUtil.SessionAuthorizationState fresh = cache.getSessionAuthorizationState(1L);
+        RedisCacheUtil.SessionAuthorizationState expired = cache.getSessionAuthorizationState(1L);
+
+        assertThat(fresh.hasAuthorizationState()).isTrue();
+        assertThat(fresh.authVersion()).isEqualTo(3L);
+        assertThat(expired.hasAuthorizationState()).isFalse();
+        assertThat(expired.sessionId()).isEqualTo("session");
+        assertThat(expired.globalAuthVersion()).isEqualTo(7L);
+    }
+
     @Test
     void enabledRedisNeverSilentlyFallsBackToProcessLocalState() {
         RedisCacheUtil cache = new RedisCacheUtil();